@@ -16,4 +16,13 @@ public interface Page<T> extends Iterable<T>
     public List<T> getData();
 
     long getTotalPages();
+
+    /**
+     * Returns true if the offset and the counts of this page are estimates, because the source has not been fully read yet.
+     * Pages whose counts are always exact need not override it.
+     */
+    public default boolean isEstimated()
+    {
+        return false;
+    }
 }
@@ -11,6 +11,7 @@ public class PageImpl<T> implements Page<T>
 {
     private List<T> data;
     private long pageSize, offset, currentPage, totalCount, totalPages;
+    private boolean estimated;
 
     protected PageImpl(List<T> data, long offset, long currentPage, long pageSize, long totalPages, long totalCount)
     {
@@ -41,6 +42,7 @@ public class PageImpl<T> implements Page<T>
         ret.pageSize = sourcePage.getPageSize();
         ret.totalPages = sourcePage.getTotalPages();
         ret.totalCount = sourcePage.getTotalCount();
+        ret.estimated = sourcePage.isEstimated();
 
         if (sourcePage.getData() != null)
         {
@@ -132,6 +134,8 @@ public class PageImpl<T> implements Page<T>
                .append(currentPage)
                .append(", totalCount=")
                .append(totalCount)
+               .append(", estimated=")
+               .append(estimated)
                .append("]");
         return builder.toString();
     }
@@ -147,4 +151,15 @@ public class PageImpl<T> implements Page<T>
         this.totalPages = totalPages;
     }
 
+    @Override
+    public boolean isEstimated()
+    {
+        return estimated;
+    }
+
+    public void setEstimated(boolean estimated)
+    {
+        this.estimated = estimated;
+    }
+
 }
@@ -0,0 +1,149 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+
+/**
+ * Fills the message index of a log file on a background thread, from the last registered message to the end of file,
+ * while the parser keeps serving the requests that fall in the part already indexed. Requests beyond it can wait for
+ * the indexer to reach them with {@link #awaitMessages(int)}.
+ */
+final class BackgroundIndexer implements Runnable
+{
+    private static final long PROGRESS_STEP = 4 * 1024 * 1024; // bytes between two progress notifications
+    private static final int WAKE_UP_STEP = 256; // messages between two wake-ups of the waiting requests
+
+    private final Path file;
+    private final FileAccessMode accessMode;
+    private final String regex;
+    private final MessageIndex index;
+    private final IndexProgressListener listener;
+
+    private volatile long indexedBytes;
+    private volatile long totalBytes;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile IOException failure;
+
+    BackgroundIndexer(Path file, FileAccessMode accessMode, String regex, MessageIndex index, IndexProgressListener listener)
+    {
+        this.file = file;
+        this.accessMode = accessMode;
+        this.regex = regex;
+        this.index = index;
+        this.listener = listener;
+    }
+
+    void start()
+    {
+        Thread thread = new Thread(this, "log-indexer-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true once the indexer has stopped, because it reached the end of file, failed or has been cancelled.
+     */
+    boolean isDone()
+    {
+        return done;
+    }
+
+    /**
+     * Returns true if the indexer has registered all the messages of the file.
+     */
+    boolean isComplete()
+    {
+        return done && !cancelled && failure == null;
+    }
+
+    IOException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Returns the indexed fraction of the file, between 0 and 1.
+     */
+    double getProgress()
+    {
+        if (isComplete() || totalBytes == 0)
+        {
+            return done ? 1 : 0;
+        }
+        return Math.min(1, (double) indexedBytes / totalBytes);
+    }
+
+    /**
+     * Waits until the index contains at least the given number of messages, or the indexer is done.
+     */
+    synchronized void awaitMessages(int count) throws InterruptedException
+    {
+        while (!done && index.size() < count)
+        {
+            wait();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try (LineReader reader = LineReader.open(file, accessMode))
+        {
+            MessageStartDetector detector = MessageStartDetector.compile(regex);
+            totalBytes = reader.size();
+            long position = index.lastPosition();
+            int line = index.lastLine();
+            reader.position(position);
+
+            long nextProgress = position + PROGRESS_STEP;
+            int added = 0;
+            String text;
+            while (!cancelled && (text = reader.readLine()) != null)
+            {
+                if (detector.matches(text) && index.addIfAfter(position, line) && ++added % WAKE_UP_STEP == 0)
+                {
+                    wakeUp();
+                }
+                line++;
+                position = reader.position();
+                indexedBytes = position;
+                if (position >= nextProgress)
+                {
+                    notifyProgress();
+                    nextProgress = position + PROGRESS_STEP;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            done = true;
+            wakeUp();
+            notifyProgress();
+        }
+    }
+
+    private synchronized void wakeUp()
+    {
+        notifyAll();
+    }
+
+    private void notifyProgress()
+    {
+        if (listener != null)
+        {
+            listener.indexProgress(indexedBytes, totalBytes, index.size());
+        }
+    }
+
+}
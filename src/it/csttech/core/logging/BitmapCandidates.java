@@ -0,0 +1,130 @@
+package it.csttech.core.logging;
+
+import java.util.List;
+
+
+/**
+ * The candidates given by groups of {@link MessageBitmap}: a message is a candidate if it is in at least one bitmap of
+ * each group, such as the bitmaps of the accepted values of each field of a filter. The groups are leapfrogged: each one
+ * jumps to its first number not before the candidate of the others, until they agree.
+ */
+final class BitmapCandidates implements MessageCandidates
+{
+    private final MessageBitmap[][] groups;
+    private final int covered;
+    private final boolean complete;
+
+    BitmapCandidates(List<MessageBitmap[]> groups, int covered, boolean complete)
+    {
+        this.groups = groups.toArray(new MessageBitmap[groups.size()][]);
+        this.covered = covered;
+        this.complete = complete;
+    }
+
+    @Override
+    public int getCovered()
+    {
+        return covered;
+    }
+
+    @Override
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    @Override
+    public int next(int from)
+    {
+        int candidate = Math.max(1, from);
+        while (candidate <= covered)
+        {
+            boolean agreed = true;
+            for (MessageBitmap[] group : groups)
+            {
+                int next = -1;
+                for (MessageBitmap bitmap : group)
+                {
+                    int found = bitmap.next(candidate);
+                    if (found >= 0 && (next < 0 || found < next))
+                    {
+                        next = found;
+                    }
+                }
+                if (next < 0 || next > covered)
+                {
+                    return -1;
+                }
+                if (next > candidate)
+                {
+                    candidate = next;
+                    agreed = false;
+                }
+            }
+            if (agreed)
+            {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int previous(int from)
+    {
+        int candidate = Math.min(from, covered);
+        while (candidate >= 1)
+        {
+            boolean agreed = true;
+            for (MessageBitmap[] group : groups)
+            {
+                int previous = -1;
+                for (MessageBitmap bitmap : group)
+                {
+                    previous = Math.max(previous, bitmap.previous(candidate));
+                }
+                if (previous < 1)
+                {
+                    return -1;
+                }
+                if (previous < candidate)
+                {
+                    candidate = previous;
+                    agreed = false;
+                }
+            }
+            if (agreed)
+            {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of candidates among the given number of first messages, as far as they are covered. A single
+     * group of disjoint bitmaps, such as the values of one field, is counted from their ranks; the others by jumping
+     * through the candidates.
+     *
+     * @param disjoint true if no message is in two bitmaps of the same group
+     */
+    int count(int messages, boolean disjoint)
+    {
+        int limit = Math.min(messages, covered);
+        int count = 0;
+        if (disjoint && groups.length == 1)
+        {
+            for (MessageBitmap bitmap : groups[0])
+            {
+                count += bitmap.rank(limit);
+            }
+            return count;
+        }
+        for (int number = next(1); number > 0 && number <= limit; number = next(number + 1))
+        {
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,63 @@
+package it.csttech.core.logging;
+
+import java.util.BitSet;
+
+
+/**
+ * The candidates given by the blocks of consecutive messages that may hold a match, such as the blocks having all the
+ * trigrams of a search in a {@link TrigramIndex}: every message of such a block is a candidate, the others are skipped
+ * a block at a time.
+ */
+final class BlockCandidates implements MessageCandidates
+{
+    private final BitSet blocks;
+    private final int blockMessages;
+    private final int covered;
+    private final boolean complete;
+
+    /**
+     * @param blocks the blocks that may hold a match, block k being made of the messages k * blockMessages + 1 to
+     *        (k + 1) * blockMessages
+     */
+    BlockCandidates(BitSet blocks, int blockMessages, int covered, boolean complete)
+    {
+        this.blocks = blocks;
+        this.blockMessages = blockMessages;
+        this.covered = covered;
+        this.complete = complete;
+    }
+
+    @Override
+    public int getCovered()
+    {
+        return covered;
+    }
+
+    @Override
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    @Override
+    public int next(int from)
+    {
+        from = Math.max(1, from);
+        int block = from > covered ? -1 : blocks.nextSetBit((from - 1) / blockMessages);
+        if (block < 0)
+        {
+            return -1;
+        }
+        int next = Math.max(from, block * blockMessages + 1);
+        return next <= covered ? next : -1;
+    }
+
+    @Override
+    public int previous(int from)
+    {
+        from = Math.min(from, covered);
+        int block = from < 1 ? -1 : blocks.previousSetBit((from - 1) / blockMessages);
+        return block < 0 ? -1 : Math.min(from, (block + 1) * blockMessages);
+    }
+
+}
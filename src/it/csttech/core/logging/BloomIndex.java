@@ -0,0 +1,375 @@
+package it.csttech.core.logging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * The Bloom filters of the blocks of {@value #BLOCK_MESSAGES} consecutive messages of a log file: each filter holds the
+ * trigrams found in the lines of the block, with about {@value #BITS_PER_TRIGRAM} bits for each distinct one, so that a
+ * search can skip the blocks that certainly do not contain the trigrams of its expression (see {@link TrigramQuery}).
+ * A filter is much smaller than a trigram index, and it is saved with the registers in their sidecar file (see
+ * {@link IndexFile}), at the cost of a few false positives and of the granularity of the blocks.
+ * The filters are computed on a background thread, which also registers the messages it reads into the registers of the
+ * engine. Only the complete blocks get a filter: the scan is resumed from the first message of the last block when the
+ * file grows.
+ */
+final class BloomIndex implements Runnable
+{
+    static final int BLOCK_MESSAGES = 4096;
+    static final int BITS_PER_TRIGRAM = 10;
+    private static final int HASHES = 7; // about the best number of hashes for 10 bits per trigram, for 1% of false positives
+    private static final int MIN_BITS = 1024;
+
+    private final LogFileEngine engine;
+    private final List<long[]> filters = new ArrayList<>(); // the filter of each complete block, guarded by this
+    private int saved; // filters stored when the index was last saved or loaded
+
+    // The distinct trigrams of the block being scanned, in an open addressing set where 0 is free
+    private long[] pending = new long[1 << 12];
+    private int pendingCount;
+
+    private String lastExpression; // the last expression asked for, and its candidates
+    private boolean lastRegex;
+    private MessageCandidates lastCandidates;
+
+    private volatile int indexed; // messages scanned so far, counting from 1
+    private int changes; // the changes of the engine seen by the last scan
+    private volatile boolean running, cancelled, launched; // launched once a scan has been started
+    private volatile IOException failure;
+
+    BloomIndex(LogFileEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts computing the filters of the blocks not filtered yet, unless the scan is already running or the file has not
+     * changed since the last one.
+     */
+    synchronized void start()
+    {
+        if (running || cancelled || (launched && changes == engine.getChanges() && failure == null))
+        {
+            return;
+        }
+        running = true;
+        launched = true;
+        failure = null;
+        Thread thread = new Thread(this, "log-bloom-indexer-" + engine.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Returns true if all the messages of the file have been scanned.
+     */
+    synchronized boolean isComplete()
+    {
+        return launched && !running && !cancelled && failure == null && changes == engine.getChanges();
+    }
+
+    @Override
+    public void run()
+    {
+        MessageIndex index = engine.getMessageIndex();
+        long start;
+        int number, line, filtered;
+        synchronized (this)
+        {
+            changes = engine.getChanges();
+            filtered = filters.size() * BLOCK_MESSAGES;
+            if (filtered >= index.size())
+            { // Then the registers do not reach the next block: the scan restarts from the last message registered
+                filtered = Math.min(filtered, index.size() - 1);
+            }
+            start = filtered == 0 ? engine.getBeginningOfMessages() : index.position(filtered);
+            line = filtered == 0 ? engine.getStartingLineOfFirstMessage() : index.line(filtered);
+            number = filtered;
+            pendingCount = 0;
+            Arrays.fill(pending, 0);
+        }
+        MessageStartDetector detector = engine.newStartDetector();
+        try (LineReader reader = LineReader.open(engine.getFile(), engine.getAccessMode()))
+        {
+            reader.position(start);
+            long lineStart = start;
+            String text;
+            while (!cancelled && (text = reader.readLine()) != null)
+            {
+                if (detector.matches(text))
+                {
+                    index.addIfAfter(lineStart, line);
+                    started(++number);
+                }
+                if (number > 0)
+                {
+                    scanned(number, text);
+                }
+                line++;
+                lineStart = reader.position();
+            }
+            if (!cancelled)
+            { // Then the messages have been registered up to the end of file
+                engine.registersComplete();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+
+    /**
+     * Called when the given message starts: the block of the previous messages is complete if it is the first of a new one.
+     */
+    private synchronized void started(int number)
+    {
+        indexed = number;
+        if (number % BLOCK_MESSAGES == 1)
+        {
+            if (number == (filters.size() + 1) * BLOCK_MESSAGES + 1)
+            { // Then the pending trigrams are those of the next block to filter, which has been scanned whole
+                filters.add(filterOf(pending));
+            }
+            pendingCount = 0;
+            Arrays.fill(pending, 0);
+        }
+    }
+
+    private synchronized void scanned(int number, String line)
+    {
+        if (number <= filters.size() * BLOCK_MESSAGES)
+        { // Then the block is already filtered
+            return;
+        }
+        for (int i = 2; i < line.length(); i++)
+        {
+            addPending((long) line.charAt(i - 2) << 32 | (long) line.charAt(i - 1) << 16 | line.charAt(i));
+        }
+    }
+
+    private void addPending(long key)
+    {
+        key++; // so that no trigram is 0
+        int mask = pending.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (pending[slot] != 0)
+        {
+            if (pending[slot] == key)
+            {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        pending[slot] = key;
+        if (++pendingCount * 2 > pending.length)
+        {
+            long[] keys = pending;
+            pending = new long[keys.length * 2];
+            pendingCount = 0;
+            for (long old : keys)
+            {
+                if (old != 0)
+                {
+                    addPending(old - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the Bloom filter of the given set of trigrams, with a power of two of bits.
+     */
+    private long[] filterOf(long[] keys)
+    {
+        int bits = Math.max(MIN_BITS, Integer.highestOneBit(Math.max(1, pendingCount * BITS_PER_TRIGRAM - 1)) * 2);
+        long[] filter = new long[bits / 64];
+        for (long key : keys)
+        {
+            if (key != 0)
+            {
+                long hash = mix(key);
+                int first = (int) hash;
+                int second = (int) (hash >>> 32) | 1;
+                for (int i = 0; i < HASHES; i++)
+                {
+                    int bit = (first + i * second) & (bits - 1);
+                    filter[bit >>> 6] |= 1L << bit;
+                }
+            }
+        }
+        return filter;
+    }
+
+    private static boolean mayContain(long[] filter, String trigram)
+    {
+        long key = ((long) trigram.charAt(0) << 32 | (long) trigram.charAt(1) << 16 | trigram.charAt(2)) + 1;
+        long hash = mix(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        int mask = filter.length * 64 - 1;
+        for (int i = 0; i < HASHES; i++)
+        {
+            int bit = (first + i * second) & mask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Returns the candidates of a search: the messages of the blocks whose filter may contain the trigrams of the
+     * expression. The candidates of the last expression are kept while no block is added.
+     *
+     * @return the candidates, or null if the expression has no trigram that narrows the search
+     */
+    MessageCandidates candidatesOf(String expression, boolean regex)
+    {
+        TrigramQuery query = TrigramQuery.of(expression, regex);
+        if (query.isAll())
+        {
+            return null;
+        }
+        synchronized (this)
+        {
+            int covered = filters.size() * BLOCK_MESSAGES;
+            boolean complete = isComplete() && indexed == covered;
+            if (expression.equals(lastExpression) && regex == lastRegex && lastCandidates.getCovered() == covered
+                && lastCandidates.isComplete() == complete)
+            {
+                return lastCandidates;
+            }
+            BitSet blocks = new BitSet(filters.size());
+            for (int block = 0; block < filters.size(); block++)
+            {
+                if (satisfies(filters.get(block), query))
+                {
+                    blocks.set(block);
+                }
+            }
+            lastExpression = expression;
+            lastRegex = regex;
+            lastCandidates = new BlockCandidates(blocks, BLOCK_MESSAGES, covered, complete);
+            return lastCandidates;
+        }
+    }
+
+    private static boolean satisfies(long[] filter, TrigramQuery query)
+    {
+        for (String trigram : query.getTrigrams())
+        {
+            if (mayContain(filter, trigram) == query.isOr())
+            {
+                return query.isOr();
+            }
+        }
+        for (TrigramQuery subquery : query.getSubqueries())
+        {
+            if (satisfies(filter, subquery) == query.isOr())
+            {
+                return query.isOr();
+            }
+        }
+        return !query.isOr();
+    }
+
+    /**
+     * Returns true if blocks have been filtered since the filters were last saved or loaded.
+     */
+    synchronized boolean isModified()
+    {
+        return filters.size() > saved;
+    }
+
+    /**
+     * Writes the filters: their number, then the length in longs and the bits of each one.
+     */
+    synchronized void writeTo(DataOutputStream output) throws IOException
+    {
+        output.writeInt(BLOCK_MESSAGES);
+        output.writeInt(filters.size());
+        for (long[] filter : filters)
+        {
+            output.writeInt(filter.length);
+            for (long word : filter)
+            {
+                output.writeLong(word);
+            }
+        }
+        saved = filters.size();
+    }
+
+    /**
+     * Reads filters written by {@link #writeTo(DataOutputStream)}, to be resumed by the next scan.
+     *
+     * @return false if they have been written for another size of blocks
+     */
+    synchronized boolean readFrom(DataInputStream input) throws IOException
+    {
+        if (input.readInt() != BLOCK_MESSAGES)
+        {
+            return false;
+        }
+        int count = input.readInt();
+        for (int block = 0; block < count; block++)
+        {
+            long[] filter = new long[input.readInt()];
+            for (int i = 0; i < filter.length; i++)
+            {
+                filter[i] = input.readLong();
+            }
+            filters.add(filter);
+        }
+        saved = count;
+        return true;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the filters, in bytes.
+     */
+    synchronized long heapFootprint()
+    {
+        long footprint = pending.length * 8L;
+        for (long[] filter : filters)
+        {
+            footprint += 16 + filter.length * 8L;
+        }
+        return footprint;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BloomIndex [blocks=" + filters.size() + ", indexed=" + indexed + ", complete=" + isComplete() + ", heapFootprint="
+            + heapFootprint() + "]";
+    }
+
+}
@@ -1,5 +1,6 @@
 package it.csttech.core.logging;
 
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
@@ -116,6 +117,24 @@ public class DummyLogFileParser implements LogFileParser
         return nextPage(currentMessage, pageSize);
     }
 
+    @Override
+    public Page<LogMessage> filterNext(LogFilter filter, long currentMessage, long pageSize)
+    {
+        return nextPage(currentMessage, pageSize);
+    }
+
+    @Override
+    public Page<LogMessage> filterPrev(LogFilter filter, long currentMessage, long pageSize)
+    {
+        return nextPage(currentMessage, pageSize);
+    }
+
+    @Override
+    public Page<LogMessage> pageAt(Instant instant, long pageSize)
+    {
+        return nextPage(0, pageSize);
+    }
+
     @Override
     public boolean hasTimestamp()
     {
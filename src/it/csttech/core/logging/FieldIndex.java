@@ -0,0 +1,270 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import it.csttech.core.logging.HeaderLayout.Field;
+
+
+/**
+ * The indexes of the level, thread and logger fields of the messages of a log file: for each value found in the headers,
+ * the numbers of the messages having it, in a {@link MessageBitmap}. They are built on a background thread, which also
+ * registers the messages it reads into the registers of the engine, and are resumed when the file grows.
+ * A {@link LogFilter} on the fields is served by jumping from one accepted message number to the next across the bitmaps
+ * of its values, without reading the messages in between.
+ */
+final class FieldIndex implements Runnable
+{
+    private static final Field[] FIELDS = { Field.LEVEL, Field.THREAD, Field.LOGGER };
+
+    private final LogFileEngine engine;
+    private final List<Map<String, MessageBitmap>> bitmaps = new ArrayList<>(); // one map for each of the FIELDS, guarded by this
+
+    private volatile int indexed; // messages indexed so far, counting from 1
+    private long position = -1; // where a resumed scan starts: the beginning of the line following the last one read
+    private int line;
+    private int changes; // the changes of the engine seen by the last scan
+
+    private volatile boolean running, cancelled;
+    private volatile IOException failure;
+
+    FieldIndex(LogFileEngine engine)
+    {
+        this.engine = engine;
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            bitmaps.add(new HashMap<String, MessageBitmap>());
+        }
+    }
+
+    /**
+     * Starts indexing the file, from its beginning or from where the last scan stopped, unless the scan is already running
+     * or the file has not changed since the last one.
+     */
+    synchronized void start()
+    {
+        if (running || cancelled || (position >= 0 && changes == engine.getChanges() && failure == null))
+        {
+            return;
+        }
+        running = true;
+        failure = null;
+        Thread thread = new Thread(this, "log-field-indexer-" + engine.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Returns true if all the messages of the file have been indexed.
+     */
+    synchronized boolean isComplete()
+    {
+        return !running && !cancelled && position >= 0 && failure == null && changes == engine.getChanges();
+    }
+
+    int getIndexed()
+    {
+        return indexed;
+    }
+
+    @Override
+    public void run()
+    {
+        long start;
+        int number;
+        synchronized (this)
+        {
+            changes = engine.getChanges();
+            start = position < 0 ? engine.getBeginningOfMessages() : position;
+            number = indexed;
+        }
+        HeaderLayout layout = engine.newHeaderLayout();
+        MessageStartDetector detector = engine.newStartDetector();
+        MessageIndex index = engine.getMessageIndex();
+        try (LineReader reader = LineReader.open(engine.getFile(), engine.getAccessMode()))
+        {
+            reader.position(start);
+            int line = position < 0 ? engine.getStartingLineOfFirstMessage() : this.line;
+            long lineStart = start;
+            String text;
+            while (!cancelled && (text = reader.readLine()) != null)
+            {
+                if (detector.matches(text))
+                {
+                    index.addIfAfter(lineStart, line);
+                    indexed(++number, layout.tokenize(text) ? layout : null);
+                }
+                line++;
+                lineStart = reader.position();
+                resumeAt(lineStart, line);
+            }
+            if (!cancelled)
+            { // Then the messages have been registered up to the end of file
+                engine.registersComplete();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+
+    private synchronized void resumeAt(long position, int line)
+    {
+        this.position = position;
+        this.line = line;
+    }
+
+    private synchronized void indexed(int number, HeaderLayout layout)
+    {
+        for (int i = 0; layout != null && i < FIELDS.length; i++)
+        {
+            String value = layout.get(FIELDS[i]);
+            if (value != null)
+            {
+                MessageBitmap bitmap = bitmaps.get(i).get(value);
+                if (bitmap == null)
+                {
+                    bitmap = new MessageBitmap();
+                    bitmaps.get(i).put(value, bitmap);
+                }
+                bitmap.add(number);
+            }
+        }
+        indexed = number;
+    }
+
+    /**
+     * Returns the values of the given field found so far, sorted.
+     */
+    synchronized Set<String> values(Field field)
+    {
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            if (FIELDS[i] == field)
+            {
+                return new TreeSet<>(bitmaps.get(i).keySet());
+            }
+        }
+        return new TreeSet<>();
+    }
+
+    /**
+     * Returns the candidates of the fields of the filter: the messages indexed so far having one of its accepted values for
+     * each field it constrains.
+     */
+    synchronized BitmapCandidates candidatesOf(LogFilter filter)
+    {
+        boolean complete = isComplete(); // read before the count of the messages indexed, which cannot exceed it then
+        List<Set<String>> accepted = new ArrayList<>();
+        accepted.add(filter.getLevels());
+        accepted.add(filter.getThreads());
+        accepted.add(filter.getLoggers());
+        List<MessageBitmap[]> groups = new ArrayList<>();
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            if (accepted.get(i) != null)
+            {
+                List<MessageBitmap> values = new ArrayList<>();
+                for (String value : accepted.get(i))
+                {
+                    MessageBitmap bitmap = bitmaps.get(i).get(value);
+                    if (bitmap != null)
+                    {
+                        values.add(bitmap);
+                    }
+                }
+                groups.add(values.toArray(new MessageBitmap[values.size()]));
+            }
+        }
+        return new BitmapCandidates(groups, indexed, complete);
+    }
+
+    /**
+     * Returns the number of messages accepted by the fields of the filter among the given number of first messages, as far
+     * as they are indexed. A message has one value of each field, so the counts of the values of a single field add up.
+     */
+    int count(LogFilter filter, int messages)
+    {
+        return candidatesOf(filter).count(messages, true);
+    }
+
+    /**
+     * Returns the count of the messages accepted by the fields of the given filter, as far as they are indexed.
+     */
+    FilterCount countOf(final LogFilter filter)
+    {
+        return new FilterCount()
+        {
+            private final boolean complete = FieldIndex.this.isComplete();
+            private final int scanned = indexed;
+            private final int matched = count(filter, scanned);
+
+            @Override
+            public boolean isComplete()
+            {
+                return complete;
+            }
+
+            @Override
+            public int getScanned()
+            {
+                return scanned;
+            }
+
+            @Override
+            public int getMatched()
+            {
+                return matched;
+            }
+
+            @Override
+            public int matchesUpTo(int messages)
+            {
+                return messages >= scanned ? matched : count(filter, messages);
+            }
+        };
+    }
+
+    /**
+     * Returns an estimate of the heap used by the bitmaps, in bytes.
+     */
+    synchronized long heapFootprint()
+    {
+        long footprint = 0;
+        for (Map<String, MessageBitmap> field : bitmaps)
+        {
+            for (Map.Entry<String, MessageBitmap> value : field.entrySet())
+            {
+                footprint += 64 + 2L * value.getKey().length() + value.getValue().heapFootprint();
+            }
+        }
+        return footprint;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FieldIndex [indexed=" + indexed + ", complete=" + isComplete() + ", heapFootprint=" + heapFootprint() + "]";
+    }
+
+}
@@ -0,0 +1,20 @@
+package it.csttech.core.logging;
+
+
+/**
+ * The way a {@link LogFileParserImpl} reads the bytes of its file.
+ */
+public enum FileAccessMode
+{
+    /**
+     * Lines are scanned inside a heap buffer filled from the file channel. Works everywhere.
+     */
+    BUFFERED,
+
+    /**
+     * Lines are scanned directly inside memory-mapped windows of the file. Best suited to large files that are browsed
+     * back and forth, since the pages stay in the OS page cache. Falls back to {@link #BUFFERED} if the file cannot be
+     * mapped.
+     */
+    MAPPED
+}
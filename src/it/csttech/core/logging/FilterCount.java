@@ -0,0 +1,29 @@
+package it.csttech.core.logging;
+
+
+/**
+ * The count of the messages of a log file accepted by a filter, as far as the file has been scanned for it: the pages
+ * of a filter are numbered from it.
+ */
+interface FilterCount
+{
+    /**
+     * Returns true if the count covers the whole file.
+     */
+    boolean isComplete();
+
+    /**
+     * Returns the number of messages scanned so far, counting from the first one.
+     */
+    int getScanned();
+
+    /**
+     * Returns the number of accepted messages among the ones scanned so far.
+     */
+    int getMatched();
+
+    /**
+     * Returns the number of accepted messages among the given number of first messages, which must have been scanned.
+     */
+    int matchesUpTo(int messages);
+}
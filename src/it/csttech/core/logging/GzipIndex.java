@@ -0,0 +1,230 @@
+package it.csttech.core.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * The seek index of a gzip file: a checkpoint every {@value #SPAN} bytes of decompressed output, made of the position of a
+ * deflate block in the file (in bits), its offset in the decompressed stream and the 32 KB of output preceding it, so
+ * that any part of the file can be decompressed starting from the nearest checkpoint (see {@link GzipInflater}).
+ * The windows are kept compressed, so the index takes a few KB per MB of log. The file is decompressed once to build it;
+ * the indexes of the last files opened are cached, so that the readers of the same file share them.
+ */
+final class GzipIndex
+{
+    static final int SPAN = 1024 * 1024;
+
+    private static final int CACHED_INDEXES = 16;
+    // The indexes by file, built or being built, guarded by the map itself
+    private static final Map<String, FutureTask<GzipIndex>> cache = new LinkedHashMap<String, FutureTask<GzipIndex>>(CACHED_INDEXES,
+        0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FutureTask<GzipIndex>> eldest)
+        {
+            return size() > CACHED_INDEXES;
+        }
+    };
+
+    private final long[] bitOffsets;
+    private final long[] outputOffsets;
+    private final byte[][] windows; // deflated
+    private final long size;
+
+    private GzipIndex(List<long[]> checkpoints, List<byte[]> windows, long size)
+    {
+        int count = checkpoints.size();
+        bitOffsets = new long[count];
+        outputOffsets = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            bitOffsets[i] = checkpoints.get(i)[0];
+            outputOffsets[i] = checkpoints.get(i)[1];
+        }
+        this.windows = windows.toArray(new byte[count][]);
+        this.size = size;
+    }
+
+    /**
+     * Returns the index of the given file, building it if it is not cached or if the file has changed. The index is built
+     * outside of the lock of the cache, so that the readers of other files do not wait for it; the readers of the same
+     * file wait for the build started by the first one.
+     */
+    static GzipIndex of(Path file, final FileChannel channel) throws IOException
+    {
+        String key = file.toRealPath() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+        FutureTask<GzipIndex> task;
+        boolean building = false;
+        synchronized (cache)
+        {
+            task = cache.get(key);
+            if (task == null)
+            {
+                task = new FutureTask<>(new Callable<GzipIndex>()
+                {
+                    @Override
+                    public GzipIndex call() throws IOException
+                    {
+                        return build(channel);
+                    }
+                });
+                cache.put(key, task);
+                building = true;
+            }
+        }
+        if (building)
+        {
+            task.run();
+        }
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the index of " + file);
+        }
+        catch (ExecutionException e)
+        { // Then the build failed: the next reader tries again
+            synchronized (cache)
+            {
+                cache.remove(key, task);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /**
+     * Decompresses the whole file, taking a checkpoint at the first block starting after each span of output.
+     */
+    static GzipIndex build(FileChannel channel) throws IOException
+    {
+        final List<long[]> checkpoints = new ArrayList<>();
+        final List<byte[]> windows = new ArrayList<>();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        GzipInflater inflater = new GzipInflater(channel);
+        try
+        {
+            inflater.inflate(new GzipInflater.Output()
+            {
+                private long next = 0;
+
+                @Override
+                public void blockStart(GzipInflater inflater)
+                {
+                    long offset = inflater.outputOffset();
+                    if (offset >= next)
+                    {
+                        checkpoints.add(new long[] { inflater.bitOffset(), offset });
+                        windows.add(deflate(deflater, inflater.window()));
+                        next = offset + SPAN;
+                    }
+                }
+
+                @Override
+                public boolean write(long offset, byte[] bytes, int from, int length)
+                {
+                    return true;
+                }
+            });
+        }
+        finally
+        {
+            deflater.end();
+        }
+        return new GzipIndex(checkpoints, windows, inflater.outputOffset());
+    }
+
+    /**
+     * Returns the size of the decompressed file.
+     */
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * Decompresses the file starting from the last checkpoint at or before the given offset of the decompressed stream.
+     */
+    void inflate(FileChannel channel, long offset, GzipInflater.Output out) throws IOException
+    {
+        int checkpoint = Arrays.binarySearch(outputOffsets, offset);
+        if (checkpoint < 0)
+        {
+            checkpoint = Math.max(0, -checkpoint - 2);
+        }
+        new GzipInflater(channel).inflate(bitOffsets[checkpoint], outputOffsets[checkpoint], inflate(windows[checkpoint]), out);
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] window)
+    {
+        deflater.reset();
+        deflater.setInput(window);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(window.length / 4 + 16);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished())
+        {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] window) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(window);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(GzipInflater.WINDOW_SIZE);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished())
+            {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && inflater.needsInput())
+                {
+                    break;
+                }
+                output.write(buffer, 0, inflated);
+            }
+            return output.toByteArray();
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+}
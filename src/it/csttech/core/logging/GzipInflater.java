@@ -0,0 +1,546 @@
+package it.csttech.core.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * A gzip decoder that can start in the middle of a file, at the beginning of any deflate block, given the 32 KB of output
+ * that precede the block (see {@link GzipIndex}). java.util.zip.Inflater cannot be used for this, since it neither tells
+ * where its blocks begin nor starts at a bit that is not the first one of a byte.
+ * Concatenated gzip members are decoded as a single stream, and their checksums are not verified.
+ * An instance is not thread-safe.
+ */
+final class GzipInflater
+{
+    static final int WINDOW_SIZE = 32 * 1024; // the farthest distance a deflate block can refer back to
+
+    private static final int MAX_MATCH = 258;
+    private static final int FAST_BITS = 9; // codes up to this length are decoded with a single table lookup
+
+    private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67,
+                                               83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5,
+                                                5, 5, 0 };
+    private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513,
+                                                 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10,
+                                                  11, 11, 12, 12, 13, 13 };
+    private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LITERALS = new Huffman();
+    private static final Huffman FIXED_DISTANCES = new Huffman();
+
+    static
+    {
+        int[] lengths = new int[288];
+        Arrays.fill(lengths, 0, 144, 8);
+        Arrays.fill(lengths, 144, 256, 9);
+        Arrays.fill(lengths, 256, 280, 7);
+        Arrays.fill(lengths, 280, 288, 8);
+        FIXED_LITERALS.build(lengths, 0, 288);
+        Arrays.fill(lengths, 0, 30, 5);
+        FIXED_DISTANCES.build(lengths, 0, 30);
+    }
+
+    /**
+     * Receives the output of the decoder.
+     */
+    interface Output
+    {
+
+        /**
+         * Called at the beginning of each deflate block, where the decoder could be restarted later.
+         */
+        void blockStart(GzipInflater inflater);
+
+        /**
+         * Receives the next bytes of output, starting at the given offset of the decompressed stream.
+         *
+         * @return false to stop decoding.
+         */
+        boolean write(long offset, byte[] bytes, int from, int length);
+
+    }
+
+    private final FileChannel channel;
+
+    // The input, read from the channel one block at a time, and the bits read from it but not consumed yet
+    private final byte[] input = new byte[64 * 1024];
+    private final ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+    private long inputStart; // file offset of input[0]
+    private int inputPosition, inputLimit;
+    private long bits;
+    private int bitCount;
+
+    // The output: the last WINDOW_SIZE bytes are kept before the ones not written to the Output yet
+    private final byte[] output = new byte[4 * WINDOW_SIZE];
+    private long outputStart; // offset of output[0] in the decompressed stream
+    private int outputPosition, flushed, historyStart;
+    private boolean stopped;
+
+    private final Huffman literals = new Huffman();
+    private final Huffman distances = new Huffman();
+    private final Huffman codeLengths = new Huffman();
+    private final int[] lengths = new int[320];
+
+    GzipInflater(FileChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Decodes the file from its beginning.
+     */
+    void inflate(Output out) throws IOException
+    {
+        start(0, 0, new byte[0]);
+        run(out, true);
+    }
+
+    /**
+     * Decodes the file from the deflate block starting at the given bit.
+     *
+     * @param outputOffset the offset of the block output in the decompressed stream
+     * @param window the output preceding the block, up to {@value #WINDOW_SIZE} bytes
+     */
+    void inflate(long bitOffset, long outputOffset, byte[] window, Output out) throws IOException
+    {
+        start(bitOffset, outputOffset, window);
+        run(out, false);
+    }
+
+    /**
+     * Returns the position of the decoder in the file, in bits.
+     */
+    long bitOffset()
+    {
+        return (inputStart + inputPosition) * 8 - bitCount;
+    }
+
+    /**
+     * Returns the position of the decoder in the decompressed stream.
+     */
+    long outputOffset()
+    {
+        return outputStart + outputPosition;
+    }
+
+    /**
+     * Returns a copy of the output preceding the current position, up to {@value #WINDOW_SIZE} bytes.
+     */
+    byte[] window()
+    {
+        return Arrays.copyOfRange(output, Math.max(historyStart, outputPosition - WINDOW_SIZE), outputPosition);
+    }
+
+    private void start(long bitOffset, long outputOffset, byte[] window) throws IOException
+    {
+        inputStart = bitOffset >>> 3;
+        inputPosition = 0;
+        inputLimit = 0;
+        bits = 0;
+        bitCount = 0;
+        bits((int) (bitOffset & 7));
+
+        historyStart = WINDOW_SIZE - window.length;
+        System.arraycopy(window, 0, output, historyStart, window.length);
+        outputPosition = WINDOW_SIZE;
+        flushed = WINDOW_SIZE;
+        outputStart = outputOffset - WINDOW_SIZE;
+        stopped = false;
+    }
+
+    private void run(Output out, boolean atHeader) throws IOException
+    {
+        boolean first = atHeader;
+        while (!stopped)
+        {
+            if (atHeader && !readHeader(first))
+            {
+                break;
+            }
+            first = false;
+
+            boolean last;
+            do
+            {
+                out.blockStart(this);
+                last = bits(1) == 1;
+                switch (bits(2))
+                {
+                    case 0:
+                        stored(out);
+                        break;
+                    case 1:
+                        codes(FIXED_LITERALS, FIXED_DISTANCES, out);
+                        break;
+                    case 2:
+                        dynamic(out);
+                        break;
+                    default:
+                        throw new IOException("Invalid gzip data: unknown block type");
+                }
+            }
+            while (!last && !stopped);
+            if (stopped)
+            {
+                return;
+            }
+
+            // The member trailer (CRC32 and size), possibly followed by another member
+            bits(bitCount & 7);
+            bits(16);
+            bits(16);
+            bits(16);
+            bits(16);
+            atHeader = true;
+        }
+        flush(out);
+    }
+
+    /**
+     * Reads the header of a gzip member.
+     *
+     * @return false at the end of the file, or if the file continues with something that is not a gzip member.
+     */
+    private boolean readHeader(boolean first) throws IOException
+    {
+        refill();
+        if (bitCount < 16 || (bits & 0xFFFF) != 0x8B1F)
+        {
+            if (first)
+            {
+                throw new IOException("Not in gzip format");
+            }
+            return false;
+        }
+        bits(16);
+        if (bits(8) != 8)
+        {
+            throw new IOException("Unsupported gzip compression method");
+        }
+        int flags = bits(8);
+        bits(16); // modification time
+        bits(16);
+        bits(16); // extra flags and operating system
+        if ((flags & 4) != 0)
+        { // Extra field
+            for (int length = bits(16); length > 0; length--)
+            {
+                bits(8);
+            }
+        }
+        if ((flags & 8) != 0)
+        { // File name
+            while (bits(8) != 0)
+            {}
+        }
+        if ((flags & 16) != 0)
+        { // Comment
+            while (bits(8) != 0)
+            {}
+        }
+        if ((flags & 2) != 0)
+        { // Header CRC
+            bits(16);
+        }
+        return true;
+    }
+
+    private void stored(Output out) throws IOException
+    {
+        bits(bitCount & 7);
+        int length = bits(16);
+        if ((length ^ 0xFFFF) != bits(16))
+        {
+            throw new IOException("Invalid gzip data: stored block length");
+        }
+        while (length-- > 0 && !stopped)
+        {
+            ensureRoom(out);
+            output[outputPosition++] = (byte) bits(8);
+        }
+    }
+
+    private void dynamic(Output out) throws IOException
+    {
+        int literalCount = bits(5) + 257;
+        int distanceCount = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+
+        Arrays.fill(lengths, 0, 19, 0);
+        for (int i = 0; i < codeLengthCount; i++)
+        {
+            lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+        codeLengths.build(lengths, 0, 19);
+
+        int count = literalCount + distanceCount;
+        int n = 0;
+        while (n < count)
+        {
+            int symbol = decode(codeLengths);
+            if (symbol < 16)
+            {
+                lengths[n++] = symbol;
+                continue;
+            }
+            int length = 0, repeat;
+            if (symbol == 16)
+            {
+                if (n == 0)
+                {
+                    throw new IOException("Invalid gzip data: repeat with no previous length");
+                }
+                length = lengths[n - 1];
+                repeat = 3 + bits(2);
+            }
+            else if (symbol == 17)
+            {
+                repeat = 3 + bits(3);
+            }
+            else
+            {
+                repeat = 11 + bits(7);
+            }
+            if (n + repeat > count)
+            {
+                throw new IOException("Invalid gzip data: too many code lengths");
+            }
+            while (repeat-- > 0)
+            {
+                lengths[n++] = length;
+            }
+        }
+        if (lengths[256] == 0)
+        {
+            throw new IOException("Invalid gzip data: no end of block code");
+        }
+        literals.build(lengths, 0, literalCount);
+        distances.build(lengths, literalCount, distanceCount);
+        codes(literals, distances, out);
+    }
+
+    private void codes(Huffman literals, Huffman distances, Output out) throws IOException
+    {
+        byte[] output = this.output;
+        while (true)
+        {
+            if (outputPosition > output.length - MAX_MATCH)
+            {
+                ensureRoom(out);
+                if (stopped)
+                {
+                    return;
+                }
+            }
+            int symbol = decode(literals);
+            if (symbol < 256)
+            {
+                output[outputPosition++] = (byte) symbol;
+                continue;
+            }
+            if (symbol == 256)
+            {
+                return;
+            }
+
+            symbol -= 257;
+            if (symbol >= LENGTH_BASE.length)
+            {
+                throw new IOException("Invalid gzip data: length code");
+            }
+            int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+            symbol = decode(distances);
+            if (symbol >= DISTANCE_BASE.length)
+            {
+                throw new IOException("Invalid gzip data: distance code");
+            }
+            int distance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+            if (distance > outputPosition - historyStart)
+            {
+                throw new IOException("Invalid gzip data: distance too far back");
+            }
+
+            int from = outputPosition - distance;
+            if (distance >= length)
+            {
+                System.arraycopy(output, from, output, outputPosition, length);
+                outputPosition += length;
+            }
+            else
+            { // The match overlaps the bytes it produces
+                for (int i = 0; i < length; i++)
+                {
+                    output[outputPosition++] = output[from + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes room for at least one match in the output, writing the pending bytes and keeping the last window.
+     */
+    private void ensureRoom(Output out)
+    {
+        if (outputPosition <= output.length - MAX_MATCH)
+        {
+            return;
+        }
+        flush(out);
+        int shift = outputPosition - WINDOW_SIZE;
+        System.arraycopy(output, shift, output, 0, WINDOW_SIZE);
+        outputStart += shift;
+        outputPosition = WINDOW_SIZE;
+        flushed = WINDOW_SIZE;
+        historyStart = Math.max(0, historyStart - shift);
+    }
+
+    private void flush(Output out)
+    {
+        if (outputPosition > flushed && !stopped)
+        {
+            stopped = !out.write(outputStart + flushed, output, flushed, outputPosition - flushed);
+            flushed = outputPosition;
+        }
+    }
+
+    private int decode(Huffman huffman) throws IOException
+    {
+        if (bitCount < 15)
+        {
+            refill();
+        }
+        int entry = huffman.fast[(int) bits & ((1 << FAST_BITS) - 1)];
+        if (entry != 0 && (entry & 15) <= bitCount)
+        {
+            bits >>>= entry & 15;
+            bitCount -= entry & 15;
+            return entry >>> 4;
+        }
+
+        // A code longer than FAST_BITS, decoded one bit at a time
+        int code = 0, first = 0, index = 0;
+        for (int length = 1; length < 16 && length <= bitCount; length++)
+        {
+            code |= (int) (bits >>> (length - 1)) & 1;
+            int count = huffman.counts[length];
+            if (code - first < count)
+            {
+                bits >>>= length;
+                bitCount -= length;
+                return huffman.symbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw bitCount < 15 ? new EOFException("Unexpected end of gzip data") : new IOException("Invalid gzip data: code");
+    }
+
+    /**
+     * Consumes the given number of bits (up to 16), returning them as an integer.
+     */
+    private int bits(int count) throws IOException
+    {
+        if (bitCount < count)
+        {
+            refill();
+            if (bitCount < count)
+            {
+                throw new EOFException("Unexpected end of gzip data");
+            }
+        }
+        int value = (int) bits & ((1 << count) - 1);
+        bits >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private void refill() throws IOException
+    {
+        while (bitCount <= 56)
+        {
+            if (inputPosition == inputLimit && !readInput())
+            {
+                return;
+            }
+            bits |= (long) (input[inputPosition++] & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private boolean readInput() throws IOException
+    {
+        inputStart += inputLimit;
+        inputPosition = 0;
+        inputLimit = 0;
+        inputBuffer.clear();
+        int read;
+        do
+        {
+            read = channel.read(inputBuffer, inputStart);
+        }
+        while (read == 0);
+        inputLimit = Math.max(0, read);
+        return read > 0;
+    }
+
+    /**
+     * A canonical Huffman code, decoded with a table for the short codes and by counting for the long ones.
+     */
+    private static final class Huffman
+    {
+        private final int[] counts = new int[16]; // number of codes of each length
+        private final int[] symbols = new int[320]; // symbols sorted by code
+        private final int[] fast = new int[1 << FAST_BITS]; // symbol << 4 | length, indexed by the bit-reversed code
+        private final int[] offsets = new int[16];
+        private final int[] nextCodes = new int[16];
+
+        void build(int[] lengths, int from, int count)
+        {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++)
+            {
+                counts[lengths[from + i]]++;
+            }
+            counts[0] = 0;
+
+            offsets[1] = 0;
+            for (int length = 1; length < 15; length++)
+            {
+                offsets[length + 1] = offsets[length] + counts[length];
+            }
+            int code = 0;
+            for (int length = 1; length < 16; length++)
+            {
+                code = (code + counts[length - 1]) << 1;
+                nextCodes[length] = code;
+            }
+
+            Arrays.fill(fast, 0);
+            for (int symbol = 0; symbol < count; symbol++)
+            {
+                int length = lengths[from + symbol];
+                if (length == 0)
+                {
+                    continue;
+                }
+                symbols[offsets[length]++] = symbol;
+                int reversed = Integer.reverse(nextCodes[length]++) >>> (32 - length);
+                if (length <= FAST_BITS)
+                {
+                    for (int i = reversed; i < fast.length; i += 1 << length)
+                    {
+                        fast[i] = symbol << 4 | length;
+                    }
+                }
+            }
+        }
+    }
+
+}
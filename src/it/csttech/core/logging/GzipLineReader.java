@@ -0,0 +1,82 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+
+/**
+ * A {@link LineReader} of a gzip-compressed file, such as a rolled log compressed by its appender. Positions are offsets
+ * in the decompressed content: each window is decompressed in memory starting from the nearest checkpoint of the
+ * {@link GzipIndex} of the file, so that no temporary file is written and the file is decompressed from its beginning only
+ * once, to build the index.
+ * Windows are larger than the ones of the plain reader, since each one costs up to one span of decompression to reach.
+ */
+class GzipLineReader extends LineReader
+{
+    static final int DEFAULT_WINDOW_SIZE = GzipIndex.SPAN;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private GzipIndex index; // built on first use
+
+    GzipLineReader(Path file) throws IOException
+    {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    GzipLineReader(Path file, int windowSize) throws IOException
+    {
+        super(file, windowSize);
+        this.file = file;
+        buffer = ByteBuffer.allocate(windowSize);
+    }
+
+    private GzipIndex index() throws IOException
+    {
+        if (index == null)
+        {
+            index = GzipIndex.of(file, channel);
+        }
+        return index;
+    }
+
+    @Override
+    long size() throws IOException
+    {
+        return index().size();
+    }
+
+    @Override
+    protected void fill(final long offset) throws IOException
+    {
+        final byte[] bytes = buffer.array();
+        buffer.clear();
+        long size = index().size();
+        if (offset < size)
+        {
+            index().inflate(channel, offset, new GzipInflater.Output()
+            {
+                @Override
+                public void blockStart(GzipInflater inflater)
+                {}
+
+                @Override
+                public boolean write(long outputOffset, byte[] output, int from, int length)
+                {
+                    long end = outputOffset + length;
+                    if (end > offset)
+                    {
+                        int skip = (int) Math.max(0, offset - outputOffset);
+                        int copied = Math.min(length - skip, buffer.remaining());
+                        System.arraycopy(output, from + skip, bytes, buffer.position(), copied);
+                        buffer.position(buffer.position() + copied);
+                    }
+                    return buffer.hasRemaining();
+                }
+            });
+        }
+        setWindow(buffer, offset, buffer.position(), offset + buffer.position() >= size);
+    }
+
+}
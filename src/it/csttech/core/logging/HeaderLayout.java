@@ -0,0 +1,425 @@
+package it.csttech.core.logging;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The layout of the first line of the messages, built from a log4j PatternLayout conversion pattern such as
+ * "%d{yyyy-MM-dd HH:mm:ss,SSS} %-5p [%t] %c - %m%n".
+ * A line is split into its fields in a single pass, without regular expressions: each field ends where the literal text
+ * following it in the pattern begins (or after a fixed number of characters, for most date formats), and only the offsets
+ * of the fields are recorded, so that nothing is allocated until the value of a field is asked for.
+ * An instance is not thread-safe, since it keeps the offsets of the last line it has split.
+ */
+final class HeaderLayout
+{
+    enum Field
+    {
+        TIMESTAMP, LEVEL, THREAD, LOGGER, MESSAGE, OTHER
+    }
+
+    static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss,SSS"; // the ISO8601 format of log4j
+
+    // The elements of the layout: a literal text, or a field (with a null literal)
+    private final String[] literals;
+    private final Field[] fields;
+    private final boolean[] padded; // true if the field has a minimum width, so it can be padded with spaces
+
+    private final TimestampDecoder timestampDecoder;
+
+    // The last line split, and the offsets of its fields (-1 if the layout has no such field)
+    private String line;
+    private final int[] starts = new int[Field.values().length];
+    private final int[] ends = new int[Field.values().length];
+    private long timestamp; // decoded while splitting the line, if the date has no fixed width
+
+    private HeaderLayout(List<String> literals, List<Field> fields, List<Boolean> padded, String datePattern, ZoneId zone)
+    {
+        int count = literals.size();
+        this.literals = literals.toArray(new String[count]);
+        this.fields = fields.toArray(new Field[count]);
+        this.padded = new boolean[count];
+        for (int i = 0; i < count; i++)
+        {
+            this.padded[i] = padded.get(i);
+        }
+        timestampDecoder = new TimestampDecoder(datePattern, zone);
+    }
+
+    /**
+     * Returns the conversion pattern of the usual log4j layout, "%d %-5p [%t] %c - %m%n", with the given date format.
+     */
+    static String defaultConversionPattern(String dateFormat)
+    {
+        return "%d{" + dateFormat + "} %-5p [%t] %c - %m%n";
+    }
+
+    /**
+     * Builds the layout described by a conversion pattern. Conversions other than date, level, thread, logger and message
+     * are accepted, but their value is not extracted.
+     *
+     * @param defaultDateFormat the date format used by a %d conversion without options
+     * @param defaultZone the time zone of the dates, unless a second option of the %d conversion gives it
+     */
+    static HeaderLayout compile(String conversionPattern, String defaultDateFormat, ZoneId defaultZone)
+    {
+        List<String> literals = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        List<Boolean> padded = new ArrayList<>();
+        String datePattern = defaultDateFormat;
+        ZoneId zone = defaultZone;
+
+        StringBuilder literal = new StringBuilder();
+        int length = conversionPattern.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = conversionPattern.charAt(i++);
+            if (c != '%' || i == length)
+            {
+                literal.append(c);
+                continue;
+            }
+            if (conversionPattern.charAt(i) == '%')
+            {
+                literal.append('%');
+                i++;
+                continue;
+            }
+
+            // Format modifiers: [-][minimum width][.maximum width]
+            if (conversionPattern.charAt(i) == '-')
+            {
+                i++;
+            }
+            boolean minimumWidth = false;
+            while (i < length && Character.isDigit(conversionPattern.charAt(i)))
+            {
+                minimumWidth = true;
+                i++;
+            }
+            if (i < length && conversionPattern.charAt(i) == '.')
+            {
+                i++;
+                while (i < length && Character.isDigit(conversionPattern.charAt(i)))
+                {
+                    i++;
+                }
+            }
+
+            // Conversion name: a single letter in log4j 1, or a word in log4j 2
+            int nameStart = i;
+            while (i < length && Character.isLetter(conversionPattern.charAt(i)))
+            {
+                i++;
+            }
+            String name = conversionPattern.substring(nameStart, i);
+            Field field = fieldOf(name);
+            if (field == null && name.length() > 1)
+            { // Then it is a single letter conversion followed by literal text
+                i = nameStart + 1;
+                name = name.substring(0, 1);
+                field = fieldOf(name);
+            }
+
+            // Options: {...}, possibly more than one
+            String option = null, secondOption = null;
+            while (i < length && conversionPattern.charAt(i) == '{')
+            {
+                int close = conversionPattern.indexOf('}', i);
+                if (close < 0)
+                {
+                    throw new IllegalArgumentException("Unterminated option in conversion pattern: " + conversionPattern);
+                }
+                if (option == null)
+                {
+                    option = conversionPattern.substring(i + 1, close);
+                }
+                else if (secondOption == null)
+                {
+                    secondOption = conversionPattern.substring(i + 1, close);
+                }
+                i = close + 1;
+            }
+
+            if (name.equals("n"))
+            { // The line terminator is not part of the line content
+                continue;
+            }
+            if (literal.length() > 0)
+            {
+                literals.add(literal.toString());
+                fields.add(null);
+                padded.add(false);
+                literal.setLength(0);
+            }
+            if (field == null)
+            {
+                field = Field.OTHER;
+            }
+            if (field == Field.TIMESTAMP && option != null)
+            {
+                datePattern = namedDateFormat(option);
+            }
+            if (field == Field.TIMESTAMP && secondOption != null)
+            { // The time zone of the dates, as in %d{HH:mm:ss,SSS}{GMT+0}
+                try
+                {
+                    zone = ZoneId.of(secondOption);
+                }
+                catch (DateTimeException e)
+                {
+                    throw new IllegalArgumentException("Unknown time zone in conversion pattern: " + conversionPattern);
+                }
+            }
+            literals.add(null);
+            fields.add(field);
+            padded.add(minimumWidth);
+        }
+        if (literal.length() > 0)
+        {
+            literals.add(literal.toString());
+            fields.add(null);
+            padded.add(false);
+        }
+        return new HeaderLayout(literals, fields, padded, datePattern, zone);
+    }
+
+    private static Field fieldOf(String name)
+    {
+        switch (name)
+        {
+            case "d":
+            case "date":
+                return Field.TIMESTAMP;
+            case "p":
+            case "level":
+                return Field.LEVEL;
+            case "t":
+            case "thread":
+                return Field.THREAD;
+            case "c":
+            case "logger":
+                return Field.LOGGER;
+            case "m":
+            case "msg":
+            case "message":
+                return Field.MESSAGE;
+            case "n":
+                return Field.OTHER;
+            default:
+                return null;
+        }
+    }
+
+    private static String namedDateFormat(String option)
+    {
+        switch (option)
+        {
+            case "ISO8601":
+                return DEFAULT_DATE_FORMAT;
+            case "ABSOLUTE":
+                return "HH:mm:ss,SSS";
+            case "DATE":
+                return "dd MMM yyyy HH:mm:ss,SSS";
+            default:
+                return option;
+        }
+    }
+
+    /**
+     * Splits the given line into its fields.
+     *
+     * @return false if the line does not follow this layout.
+     */
+    boolean tokenize(String line)
+    {
+        this.line = line;
+        timestamp = TimestampDecoder.NO_TIMESTAMP;
+        for (int i = 0; i < starts.length; i++)
+        {
+            starts[i] = -1;
+            ends[i] = -1;
+        }
+
+        int length = line.length();
+        int position = 0;
+        for (int i = 0; i < literals.length; i++)
+        {
+            String literal = literals[i];
+            if (literal != null)
+            {
+                if (!line.startsWith(literal, position))
+                {
+                    return false;
+                }
+                position += literal.length();
+                continue;
+            }
+
+            Field field = fields[i];
+            String next = i + 1 < literals.length ? literals[i + 1] : null;
+            if (padded[i])
+            { // Skip the padding of right-justified values, which may look like the following literal
+                while (position < length && line.charAt(position) == ' ')
+                {
+                    position++;
+                }
+            }
+            int end;
+            if (field == Field.TIMESTAMP)
+            {
+                int width = timestampDecoder.width();
+                end = width >= 0 ? position + width : parseTimestamp(position);
+                if (end < 0 || end > length)
+                {
+                    return false;
+                }
+            }
+            else if (next != null)
+            {
+                end = line.indexOf(next, position);
+                if (end < 0)
+                {
+                    return false;
+                }
+                while (padded[i] && line.charAt(end) == ' ' && line.startsWith(next, end + 1))
+                { // The padding of left-justified values goes before the literal
+                    end++;
+                }
+            }
+            else if (field == Field.LEVEL)
+            {
+                end = position;
+                while (end < length && Character.isLetter(line.charAt(end)))
+                {
+                    end++;
+                }
+            }
+            else if (field == Field.MESSAGE || i + 1 == literals.length)
+            {
+                end = length;
+            }
+            else
+            { // Then the field is followed by another field, and its end is unknown
+                return false;
+            }
+
+            int start = position;
+            position = end;
+            if (padded[i])
+            {
+                while (start < end && line.charAt(start) == ' ')
+                {
+                    start++;
+                }
+                while (end > start && line.charAt(end - 1) == ' ')
+                {
+                    end--;
+                }
+            }
+            if (starts[field.ordinal()] < 0)
+            {
+                starts[field.ordinal()] = start;
+                ends[field.ordinal()] = end;
+            }
+        }
+        return true;
+    }
+
+    private int parseTimestamp(int position)
+    {
+        timestamp = timestampDecoder.decode(line, position);
+        return timestamp == TimestampDecoder.NO_TIMESTAMP ? -1 : timestampDecoder.end();
+    }
+
+    /**
+     * Builds the message made of the given lines, splitting the first one into its fields. If the first line does not
+     * follow this layout, it is kept whole.
+     */
+    LogMessage toLogMessage(long startRow, List<String> message, boolean expandRequired)
+    {
+        List<String> lines = new ArrayList<>(message.size());
+        String firstLine = message.get(0);
+        long timestamp;
+        String logLevel = null, threadName = null, loggerName = null;
+        if (tokenize(firstLine))
+        {
+            timestamp = getTimestampMillis();
+            logLevel = get(Field.LEVEL);
+            threadName = get(Field.THREAD);
+            loggerName = get(Field.LOGGER);
+            int messageStart = start(Field.MESSAGE);
+            lines.add(messageStart < 0 ? firstLine : firstLine.substring(messageStart));
+        }
+        else
+        {
+            timestamp = parseTimestamp(firstLine);
+            lines.add(firstLine);
+        }
+        lines.addAll(message.subList(1, message.size()));
+        return new LogMessage(startRow, timestamp, logLevel, threadName, loggerName, lines, expandRequired);
+    }
+
+    /**
+     * Returns true if the layout has the given field.
+     */
+    boolean has(Field field)
+    {
+        for (Field f : fields)
+        {
+            if (f == field)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int start(Field field)
+    {
+        return starts[field.ordinal()];
+    }
+
+    int end(Field field)
+    {
+        return ends[field.ordinal()];
+    }
+
+    /**
+     * Returns the value of the given field in the last line split, or null if the layout has no such field.
+     */
+    String get(Field field)
+    {
+        int start = starts[field.ordinal()];
+        return start < 0 ? null : line.substring(start, ends[field.ordinal()]);
+    }
+
+    /**
+     * Returns the timestamp of the last line split, in epoch milliseconds, or {@link TimestampDecoder#NO_TIMESTAMP} if the
+     * layout has no date or it could not be decoded.
+     */
+    long getTimestampMillis()
+    {
+        int start = starts[Field.TIMESTAMP.ordinal()];
+        if (timestamp == TimestampDecoder.NO_TIMESTAMP && start >= 0)
+        {
+            parseTimestamp(start);
+        }
+        return timestamp;
+    }
+
+    /**
+     * Decodes a timestamp at the beginning of the given line, regardless of the rest of the layout.
+     */
+    long parseTimestamp(String line)
+    {
+        this.line = line;
+        parseTimestamp(0);
+        return timestamp;
+    }
+
+}
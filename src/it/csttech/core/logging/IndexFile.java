@@ -0,0 +1,328 @@
+package it.csttech.core.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ * The sidecar file where the message index of a log file is saved, so that it can be reused after a restart.
+ * The sidecar is stored next to the log file, with the {@value #EXTENSION} extension, and it is keyed by the canonical
+ * path of the log file, its size and last modification time, a checksum of its first bytes and the regex used to
+ * recognize the start of messages. A sidecar is still valid if the log file has only grown since it was saved:
+ * in that case, only the appended tail needs to be scanned.
+ * The Bloom filters of the blocks of messages, when they are computed, are stored after the registers (see
+ * {@link BloomIndex}). The token index of the file, when it is built, is saved under the same key in a second sidecar, with
+ * the {@value #TOKENS_EXTENSION} extension.
+ */
+final class IndexFile
+{
+    static final String EXTENSION = ".idx";
+    static final String TOKENS_EXTENSION = ".tok";
+
+    private static final int MAGIC = 0x4C344A49; // "L4JI"
+    private static final int TOKENS_MAGIC = 0x4C344A54; // "L4JT"
+    private static final int FILTERS_MAGIC = 0x4C344A42; // "L4JB", the start of the Bloom filters after the registers
+    private static final int VERSION = 1;
+    private static final int TOKENS_VERSION = 2; // the characters of the tokens are written as bytes since version 2
+    static final int HEAD_LENGTH = 64 * 1024;
+    private static final int CHUNK_ENTRIES = 64 * 1024; // registers read at a time
+
+    private IndexFile()
+    {}
+
+    static Path sidecarOf(Path file)
+    {
+        return file.resolveSibling(file.getFileName() + EXTENSION);
+    }
+
+    static Path tokensSidecarOf(Path file)
+    {
+        return file.resolveSibling(file.getFileName() + TOKENS_EXTENSION);
+    }
+
+    /**
+     * Loads the sidecar of the given log file. The registers are read a chunk at a time, since the sidecar of a large
+     * file may exceed what a single buffer can hold.
+     *
+     * @return the saved index, or null if there is no sidecar or if it does not describe the current file anymore.
+     */
+    static MessageIndex load(Path file, String regex) throws IOException
+    {
+        Path sidecar = sidecarOf(file);
+        if (!Files.isRegularFile(sidecar))
+        {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ))
+        {
+            long[] header = readHeader(channel, file, regex);
+            if (header == null)
+            {
+                return null;
+            }
+            long start = header[0];
+            int count = (int) header[1];
+            ByteBuffer positions = ByteBuffer.allocate(CHUNK_ENTRIES * 8);
+            ByteBuffer lines = ByteBuffer.allocate(CHUNK_ENTRIES * 4);
+            MessageIndex index = new MessageIndex();
+            for (int i = 0; i < count; i += CHUNK_ENTRIES)
+            {
+                int entries = Math.min(CHUNK_ENTRIES, count - i);
+                readFully(channel, positions, entries * 8, start + i * 8L);
+                readFully(channel, lines, entries * 4, start + count * 8L + i * 4L);
+                for (int j = 0; j < entries; j++)
+                {
+                    index.add(positions.getLong(j * 8), lines.getInt(j * 4));
+                }
+            }
+            return index;
+        }
+        catch (EOFException | RuntimeException e)
+        { // Then the sidecar is truncated or corrupted
+            return null;
+        }
+    }
+
+    /**
+     * Loads the Bloom filters stored after the registers in the sidecar of the given log file into the given empty index.
+     *
+     * @return false if there are no filters or if they do not describe the current file anymore, in which case the given
+     *         index may have been partly filled and must be dropped.
+     */
+    static boolean loadFilters(Path file, String regex, BloomIndex filters) throws IOException
+    {
+        Path sidecar = sidecarOf(file);
+        if (!Files.isRegularFile(sidecar))
+        {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ))
+        {
+            long[] header = readHeader(channel, file, regex);
+            if (header == null)
+            {
+                return false;
+            }
+            channel.position(header[0] + header[1] * 12);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            return input.readInt() == FILTERS_MAGIC && filters.readFrom(input);
+        }
+        catch (EOFException | RuntimeException e)
+        { // Then the sidecar has no filters, or it is truncated or corrupted
+            return false;
+        }
+    }
+
+    /**
+     * Reads the header of a sidecar: its key and the number of registers.
+     *
+     * @return the offset of the registers in the sidecar and their number, or null if the sidecar does not describe the
+     *         current file anymore
+     */
+    private static long[] readHeader(FileChannel channel, Path file, String regex) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION)
+        {
+            return null;
+        }
+        byte[] path = readBytes(input);
+        byte[] savedRegex = readBytes(input);
+        if (!isValid(file, regex, new String(path, StandardCharsets.UTF_8), new String(savedRegex, StandardCharsets.UTF_8),
+            input.readLong(), input.readLong(), input.readLong(), input.readLong()))
+        {
+            return null;
+        }
+        int count = input.readInt();
+        if (count < 0)
+        {
+            return null;
+        }
+        long start = 4 + 4 + 4 + path.length + 4 + savedRegex.length + 4 * 8 + 4;
+        return new long[] { start, count };
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, int length, long position) throws IOException
+    {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Saves the index of the given log file into its sidecar, replacing the previous one, with the given Bloom filters if
+     * they are not null.
+     */
+    static void save(Path file, String regex, MessageIndex index, BloomIndex filters) throws IOException
+    {
+        Path sidecar = sidecarOf(file);
+        Path temporary = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            writeKey(output, file, regex);
+            int count = index.size();
+            output.writeInt(count);
+            for (int i = 0; i < count; i++)
+            {
+                output.writeLong(index.position(i));
+            }
+            for (int i = 0; i < count; i++)
+            {
+                output.writeInt(index.line(i));
+            }
+            if (filters != null)
+            {
+                output.writeInt(FILTERS_MAGIC);
+                filters.writeTo(output);
+            }
+        }
+        Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the token index saved next to the given log file (see {@link TokenIndex}) into the given empty index.
+     *
+     * @return false if there is no saved index or if it does not describe the current file anymore, in which case the
+     *         given index may have been partly filled and must be dropped.
+     */
+    static boolean loadTokens(Path file, String regex, TokenIndex tokens) throws IOException
+    {
+        Path sidecar = tokensSidecarOf(file);
+        if (!Files.isRegularFile(sidecar))
+        {
+            return false;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar))))
+        {
+            if (input.readInt() != TOKENS_MAGIC || input.readInt() != TOKENS_VERSION)
+            {
+                return false;
+            }
+            String path = readString(input);
+            String savedRegex = readString(input);
+            if (!isValid(file, regex, path, savedRegex, input.readLong(), input.readLong(), input.readLong(), input.readLong()))
+            {
+                return false;
+            }
+            tokens.readFrom(input);
+            return true;
+        }
+        catch (EOFException | RuntimeException e)
+        { // Then the sidecar is truncated or corrupted
+            return false;
+        }
+    }
+
+    /**
+     * Saves the token index of the given log file into its sidecar, replacing the previous one.
+     */
+    static void saveTokens(Path file, String regex, TokenIndex tokens) throws IOException
+    {
+        Path sidecar = tokensSidecarOf(file);
+        Path temporary = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+        {
+            output.writeInt(TOKENS_MAGIC);
+            output.writeInt(TOKENS_VERSION);
+            writeKey(output, file, regex);
+            tokens.writeTo(output);
+        }
+        Files.move(temporary, sidecar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the key of the sidecars: the path of the file, the regex, the size and last modification time of the file and
+     * the checksum of its head.
+     */
+    private static void writeKey(DataOutputStream output, Path file, String regex) throws IOException
+    {
+        writeString(output, file.toRealPath().toString());
+        writeString(output, regex);
+        long size = Files.size(file);
+        long headLength = Math.min(size, HEAD_LENGTH);
+        output.writeLong(size);
+        output.writeLong(Files.getLastModifiedTime(file).toMillis());
+        output.writeLong(headLength);
+        output.writeLong(headChecksum(file, headLength));
+    }
+
+    /**
+     * Returns true if a sidecar saved with the given key still describes the log file: the file has only grown since.
+     */
+    private static boolean isValid(Path file, String regex, String path, String savedRegex, long size, long lastModified, long headLength,
+                                   long headChecksum)
+        throws IOException
+    {
+        long currentSize = Files.size(file);
+        if (!path.equals(file.toRealPath().toString()) || !savedRegex.equals(regex) || currentSize < size)
+        {
+            return false;
+        }
+        if (currentSize == size && lastModified != Files.getLastModifiedTime(file).toMillis())
+        { // Then the file has been rewritten in place
+            return false;
+        }
+        return headChecksum == headChecksum(file, headLength);
+    }
+
+    /**
+     * Returns the CRC32 of the first bytes of the file.
+     */
+    static long headChecksum(Path file, long length) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer head = ByteBuffer.allocate((int) length);
+            while (head.hasRemaining() && channel.read(head, head.position()) >= 0)
+            {}
+            CRC32 crc = new CRC32();
+            crc.update(head.array(), 0, head.position());
+            return crc.getValue();
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException
+    {
+        return new String(readBytes(input), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+}
@@ -0,0 +1,19 @@
+package it.csttech.core.logging;
+
+
+/**
+ * Receives the progress of the background indexing of a log file.
+ */
+public interface IndexProgressListener
+{
+
+    /**
+     * Called from the indexing thread every time a part of the file has been indexed, and once at the end.
+     * 
+     * @param indexedBytes the number of bytes of the file that have been indexed so far
+     * @param totalBytes the size of the file when the indexing started
+     * @param indexedMessages the number of messages registered so far
+     */
+    public void indexProgress(long indexedBytes, long totalBytes, int indexedMessages);
+
+}
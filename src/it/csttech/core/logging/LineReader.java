@@ -0,0 +1,362 @@
+package it.csttech.core.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Reads lines from a file through a single long-lived channel, scanning them inside a window of the file.
+ * By default the window is a reusable heap buffer filled from the channel: subclasses can provide the window in other ways.
+ * Lines are returned with their terminator ('\n', '\r' or "\r\n"), and bytes are decoded as ISO-8859-1,
+ * so that every character of the returned line maps to exactly one byte of the file.
+ */
+class LineReader implements Closeable
+{
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    protected final FileChannel channel;
+    private final int bufferSize;
+    private ByteBuffer heapBuffer; // allocated on first use: mapped readers may never need it
+    private byte[] scratch; // used to decode lines from windows that are not backed by an array
+
+    private ByteBuffer window;
+    private long windowStart; // file offset of the first byte of the window
+    private int windowLimit; // number of valid bytes in the window
+    private boolean windowAtEof; // true if the window content reaches the end of file
+    private long position;
+
+    LineReader(Path file) throws IOException
+    {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    LineReader(Path file, int bufferSize) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.bufferSize = bufferSize;
+        windowStart = -1;
+    }
+
+    /**
+     * Opens a reader of the given file, using the required access mode. Files with the .gz extension are read through
+     * their decompressed content, whatever the access mode.
+     */
+    static LineReader open(Path file, FileAccessMode accessMode) throws IOException
+    {
+        if (file.getFileName().toString().endsWith(".gz"))
+        {
+            return new GzipLineReader(file);
+        }
+        return accessMode == FileAccessMode.MAPPED ? new MappedLineReader(file) : new LineReader(file);
+    }
+
+    long position()
+    {
+        return position;
+    }
+
+    void position(long position)
+    {
+        this.position = position;
+    }
+
+    long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    /**
+     * Forgets the buffered content, so that bytes appended to the file after the last read are seen.
+     */
+    void invalidate()
+    {
+        window = null;
+        windowStart = -1;
+        windowLimit = 0;
+        windowAtEof = false;
+    }
+
+    /**
+     * Reads the line starting at the current position and moves the position to the beginning of the following one.
+     *
+     * @return the line, including its terminator, or null if the current position is at the end of file.
+     */
+    String readLine() throws IOException
+    {
+        StringBuilder spill = null; // only used by lines that do not fit into the window
+        boolean realigned = false;
+        while (ensureBuffered(position))
+        {
+            int from = (int) (position - windowStart);
+            int i = from;
+            while (i < windowLimit && !isTerminator(window.get(i)))
+            {
+                i++;
+            }
+
+            boolean terminated = i < windowLimit;
+            if ((!terminated || (window.get(i) == '\r' && i + 1 == windowLimit)) && !isWindowAtEof())
+            { // Then the line (or its "\r\n" terminator) continues after the window
+                if (from > 0 && spill == null && !realigned)
+                { // Load the window again starting at the beginning of the line: most lines fit into it
+                    realigned = true;
+                    fill(position);
+                    continue;
+                }
+                if (spill == null)
+                {
+                    spill = new StringBuilder(2 * (windowLimit - from));
+                }
+                appendTo(spill, from, windowLimit);
+                position = windowStart + windowLimit;
+                if (!terminated)
+                {
+                    continue;
+                }
+                if (ensureBuffered(position) && window.get((int) (position - windowStart)) == '\n')
+                { // The '\r' at the end of the window was followed by a '\n'
+                    spill.append('\n');
+                    position++;
+                }
+                return spill.toString();
+            }
+
+            int end = terminated ? i + 1 : windowLimit;
+            if (terminated && window.get(i) == '\r' && end < windowLimit && window.get(end) == '\n')
+            {
+                end++;
+            }
+            position = windowStart + end;
+            if (spill == null)
+            {
+                return decodeWindow(from, end);
+            }
+            appendTo(spill, from, end);
+            return spill.toString();
+        }
+        return spill == null ? null : spill.toString();
+    }
+
+    /**
+     * Reads the line ending at the current position and moves the position to the beginning of that line.
+     * The file is scanned backward one block at a time: the line is decoded only once its beginning has been found.
+     *
+     * @return the line, including its terminator, or null if the current position is at the beginning of file.
+     */
+    String prevLine() throws IOException
+    {
+        if (position <= 0)
+        {
+            return null;
+        }
+        long end = position;
+        long scan = end - 1;
+
+        // Skip the terminator of the line
+        ensureBufferedBackward(scan);
+        byte last = window.get((int) (scan - windowStart));
+        if (isTerminator(last))
+        {
+            scan--;
+            if (last == '\n' && scan >= 0 && ensureBufferedBackward(scan) && window.get((int) (scan - windowStart)) == '\r')
+            {
+                scan--;
+            }
+        }
+
+        // Look for the terminator of the previous line
+        while (scan >= 0)
+        {
+            ensureBufferedBackward(scan);
+            int i = (int) (scan - windowStart);
+            while (i >= 0 && !isTerminator(window.get(i)))
+            {
+                i--;
+            }
+            scan = windowStart + i;
+            if (i >= 0)
+            {
+                break;
+            }
+        }
+
+        position = scan + 1;
+        return decode(position, end);
+    }
+
+    /**
+     * Returns the offset of the first occurrence of the literals of the scanner at or after the given one, or -1 if there
+     * is none up to the end of file. The windows are scanned without decoding them, and each one starts before the end of
+     * the previous one by the length of the longest literal, so that an occurrence spanning both is found in the second.
+     * The current position is left unchanged.
+     */
+    long find(LiteralScanner scanner, long from) throws IOException
+    {
+        long offset = from;
+        while (ensureBuffered(offset))
+        {
+            int found = scanner.indexIn(window, (int) (offset - windowStart), windowLimit);
+            if (found >= 0)
+            {
+                return windowStart + found;
+            }
+            if (isWindowAtEof())
+            {
+                break;
+            }
+            offset = Math.max(offset + 1, windowStart + windowLimit - scanner.getMaxLength() + 1);
+            fill(offset);
+        }
+        return -1;
+    }
+
+    private static boolean isTerminator(byte b)
+    {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Decodes the bytes between the two offsets, which are expected to be in the file.
+     */
+    private String decode(long from, long to) throws IOException
+    {
+        if (from >= windowStart && to <= windowStart + windowLimit)
+        {
+            return decodeWindow((int) (from - windowStart), (int) (to - windowStart));
+        }
+        StringBuilder builder = new StringBuilder((int) (to - from));
+        for (long offset = from; offset < to && ensureBuffered(offset); offset = windowStart + windowLimit)
+        {
+            appendTo(builder, (int) (offset - windowStart), (int) Math.min(windowLimit, to - windowStart));
+        }
+        return builder.toString();
+    }
+
+    private String decodeWindow(int from, int to)
+    {
+        if (window.hasArray())
+        {
+            return new String(window.array(), window.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        if (scratch == null || scratch.length < to - from)
+        {
+            scratch = new byte[Math.max(to - from, 256)];
+        }
+        for (int i = from; i < to; i++)
+        {
+            scratch[i - from] = window.get(i);
+        }
+        return new String(scratch, 0, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private void appendTo(StringBuilder builder, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            builder.append((char) (window.get(i) & 0xFF));
+        }
+    }
+
+    /**
+     * Makes sure that the byte at the given offset is in the window.
+     *
+     * @return false if the offset is at (or after) the end of file.
+     */
+    private boolean ensureBuffered(long offset) throws IOException
+    {
+        if (windowStart >= 0 && offset >= windowStart && offset < windowStart + windowLimit)
+        {
+            return true;
+        }
+        if (windowStart >= 0 && offset == windowStart + windowLimit && isWindowAtEof())
+        {
+            return false;
+        }
+        fill(offset);
+        return offset >= windowStart && offset < windowStart + windowLimit;
+    }
+
+    /**
+     * Returns true if the window reaches the end of file. A window loaded at the end of file stops reaching it as soon as
+     * the file grows, so its size is checked again before trusting it.
+     */
+    private boolean isWindowAtEof() throws IOException
+    {
+        if (windowAtEof && windowStart + windowLimit < size())
+        {
+            windowAtEof = false;
+        }
+        return windowAtEof;
+    }
+
+    /**
+     * Makes sure that the byte at the given offset is in the window, loading the block that ends with it if needed.
+     *
+     * @return false if the offset is not in the file.
+     */
+    private boolean ensureBufferedBackward(long offset) throws IOException
+    {
+        if (windowStart >= 0 && offset >= windowStart && offset < windowStart + windowLimit)
+        {
+            return true;
+        }
+        fillBackward(offset);
+        return offset >= windowStart && offset < windowStart + windowLimit;
+    }
+
+    /**
+     * Loads a window that contains the given offset, used while moving forward: the window should start as close as
+     * possible to the offset. When the offset is at the end of file, the loaded window is empty.
+     */
+    protected void fill(long offset) throws IOException
+    {
+        if (heapBuffer == null)
+        {
+            heapBuffer = ByteBuffer.allocate(bufferSize);
+        }
+        heapBuffer.clear();
+        boolean atEof = false;
+        long readPosition = offset;
+        while (heapBuffer.hasRemaining())
+        {
+            int read = channel.read(heapBuffer, readPosition);
+            if (read < 0)
+            {
+                atEof = true;
+                break;
+            }
+            readPosition += read;
+        }
+        setWindow(heapBuffer, offset, heapBuffer.position(), atEof);
+    }
+
+    /**
+     * Loads a window that contains the given offset, used while moving backward: the window should end as close as
+     * possible after the offset.
+     */
+    protected void fillBackward(long offset) throws IOException
+    {
+        fill(Math.max(0, offset + 1 - bufferSize));
+    }
+
+    protected final void setWindow(ByteBuffer window, long start, int limit, boolean atEof)
+    {
+        this.window = window;
+        this.windowStart = start;
+        this.windowLimit = limit;
+        this.windowAtEof = atEof;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        invalidate();
+        channel.close();
+    }
+
+}
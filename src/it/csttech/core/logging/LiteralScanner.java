@@ -0,0 +1,369 @@
+package it.csttech.core.logging;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+
+/**
+ * Finds literals in the raw bytes of a log file, before any line is decoded: with the Boyer-Moore-Horspool algorithm for a
+ * single literal (the shortest ones are compared eight bytes at a time instead), and with an Aho-Corasick automaton for
+ * several. The bytes are compared as ISO-8859-1 characters, like the lines returned by a {@link LineReader}, optionally
+ * ignoring the case of the ASCII letters.
+ * An occurrence only tells where a search may match: it may span two lines, which the {@link SearchExpression} of the
+ * search does not accept, so the message holding it is still checked.
+ */
+final class LiteralScanner
+{
+    static final int MAX_LENGTH = 1024; // of all the literals together, which also bounds the states of the automaton
+
+    private static final int MIN_SHIFTED_LENGTH = 4; // of a literal for which Horspool is used
+    private static final int SCRATCH_SIZE = 64 * 1024;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final boolean ignoreCase;
+    private final int[] fold = new int[256]; // the value each byte is compared by
+    private final int maxLength;
+
+    private int[] pattern; // the single literal, folded
+    private int[] shifts; // how far the single literal moves on, by the folded byte under its last one
+
+    private int[] transitions; // the transitions of the automaton of several literals, by state * 256 + folded byte
+    private int[] lengths; // the length of the longest literal ending at each state, or 0
+
+    private byte[] scratch; // the bytes of a buffer that is not backed by an array, a chunk at a time
+
+    private LiteralScanner(List<String> literals, boolean ignoreCase)
+    {
+        this.ignoreCase = ignoreCase;
+        for (int b = 0; b < 256; b++)
+        {
+            fold[b] = ignoreCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+        }
+        List<int[]> folded = new ArrayList<>();
+        int longest = 1;
+        for (String literal : literals)
+        {
+            int[] bytes = foldedBytes(literal);
+            if (bytes != null)
+            { // Otherwise the literal has characters that ISO-8859-1 bytes cannot hold, and never occurs
+                folded.add(bytes);
+                longest = Math.max(longest, bytes.length);
+            }
+        }
+        maxLength = longest;
+        if (folded.size() == 1)
+        {
+            compileHorspool(folded.get(0));
+        }
+        else if (folded.size() > 1)
+        {
+            compileAhoCorasick(folded);
+        }
+    }
+
+    /**
+     * Returns the scanner of the occurrences a search expression needs: the expression itself if it is literal, or the
+     * alternatives of a regex made of literal alternatives only, such as "timeout|refused", ignoring the case of the
+     * ASCII letters if the regex starts with "(?i)" (which is what Pattern does without the UNICODE_CASE flag).
+     *
+     * @return the scanner, or null if the expression is empty, too long or not a list of literals
+     */
+    static LiteralScanner of(String expression, boolean regex)
+    {
+        if (expression.isEmpty() || expression.length() > MAX_LENGTH)
+        {
+            return null;
+        }
+        if (!regex)
+        {
+            return new LiteralScanner(Arrays.asList(expression), false);
+        }
+        boolean ignoreCase = expression.startsWith("(?i)");
+        String alternatives = ignoreCase ? expression.substring(4) : expression;
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i <= alternatives.length(); i++)
+        {
+            char c = i < alternatives.length() ? alternatives.charAt(i) : '|';
+            if (c == '|')
+            {
+                if (literal.length() == 0)
+                { // Then the regex matches the empty string everywhere
+                    return null;
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+            else if (c == '\\' && i + 1 < alternatives.length() && alternatives.charAt(i + 1) < 128
+                && !Character.isLetterOrDigit(alternatives.charAt(i + 1)))
+            { // A backslash before a character that is not a letter nor a digit quotes it
+                literal.append(alternatives.charAt(++i));
+            }
+            else if (METACHARACTERS.indexOf(c) >= 0)
+            {
+                return null;
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return new LiteralScanner(literals, ignoreCase);
+    }
+
+    /**
+     * Returns the length of the longest literal, by which the windows scanned one after the other must overlap.
+     */
+    int getMaxLength()
+    {
+        return maxLength;
+    }
+
+    /**
+     * Returns the index of the first byte of the first occurrence of a literal lying between the given indexes of the
+     * buffer, or -1 if there is none.
+     */
+    int indexIn(ByteBuffer bytes, int from, int to)
+    {
+        if (pattern == null && transitions == null)
+        {
+            return -1;
+        }
+        if (bytes.hasArray())
+        {
+            int offset = bytes.arrayOffset();
+            int found = indexIn(bytes.array(), offset + from, offset + to);
+            return found < 0 ? -1 : found - offset;
+        }
+        // Mapped or direct buffers are copied into the scratch array a chunk at a time, the chunks overlapping like windows
+        if (scratch == null)
+        {
+            scratch = new byte[Math.max(SCRATCH_SIZE, 2 * maxLength)];
+        }
+        ByteBuffer view = bytes.duplicate();
+        for (int start = from; start < to; start += scratch.length - (maxLength - 1))
+        {
+            int length = Math.min(scratch.length, to - start);
+            view.limit(start + length).position(start);
+            view.get(scratch, 0, length);
+            int found = indexIn(scratch, 0, length);
+            if (found >= 0)
+            {
+                return start + found;
+            }
+            if (start + length == to)
+            {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private int indexIn(byte[] bytes, int from, int to)
+    {
+        if (pattern == null)
+        {
+            return ahoCorasick(bytes, from, to);
+        }
+        return pattern.length < MIN_SHIFTED_LENGTH ? shortLiteral(bytes, from, to) : horspool(bytes, from, to);
+    }
+
+    private int[] foldedBytes(String literal)
+    {
+        int[] bytes = new int[literal.length()];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            char c = literal.charAt(i);
+            if (c > 0xFF)
+            {
+                return null;
+            }
+            bytes[i] = fold[c];
+        }
+        return bytes;
+    }
+
+    private void compileHorspool(int[] literal)
+    {
+        pattern = literal;
+        shifts = new int[256];
+        Arrays.fill(shifts, literal.length);
+        for (int i = 0; i < literal.length - 1; i++)
+        {
+            shifts[literal[i]] = literal.length - 1 - i;
+        }
+        for (int b = 0; b < 256; b++)
+        { // A byte is shifted by the shift of the value it is compared by
+            shifts[b] = shifts[fold[b]];
+        }
+    }
+
+    private int horspool(byte[] bytes, int from, int to)
+    {
+        int last = pattern.length - 1;
+        int lastByte = pattern[last];
+        for (int i = from + last; i < to; i += shifts[bytes[i] & 0xFF])
+        {
+            if (fold[bytes[i] & 0xFF] == lastByte && occursAt(bytes, i - last))
+            {
+                return i - last;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a literal too short for the shifts of Horspool to outrun their table lookups: the bytes are read eight at a
+     * time, and only the positions where both the first and the last byte of the literal are found are compared.
+     */
+    private int shortLiteral(byte[] bytes, int from, int to)
+    {
+        ByteBuffer words = ByteBuffer.wrap(bytes); // big endian: the first byte of a word is its highest one
+        int last = pattern.length - 1;
+        long firstWord = pattern[0] * ONES;
+        long lastWord = pattern[last] * ONES;
+        long firstCase = caseMaskOf(pattern[0]);
+        long lastCase = caseMaskOf(pattern[last]);
+        int i = from;
+        for (; i + last + 8 <= to; i += 8)
+        {
+            long found = zeroBytes((words.getLong(i) | firstCase) ^ firstWord)
+                & zeroBytes((words.getLong(i + last) | lastCase) ^ lastWord);
+            while (found != 0)
+            { // A flag may be wrong, above a right one: each position is compared
+                int k = Long.numberOfLeadingZeros(found) >>> 3;
+                if (occursAt(bytes, i + k))
+                {
+                    return i + k;
+                }
+                found &= ~(Long.MIN_VALUE >>> (k << 3));
+            }
+        }
+        for (; i + last < to; i++)
+        {
+            if (occursAt(bytes, i))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bits to set in each byte of a word so that it compares to the given folded byte: the lower case bit for
+     * a letter when the case is ignored, which then makes both cases of the letter equal to it and nothing else.
+     */
+    private long caseMaskOf(int b)
+    {
+        return ignoreCase && b >= 'a' && b <= 'z' ? ('a' - 'A') * ONES : 0;
+    }
+
+    /**
+     * Returns a word with the high bit set in the bytes that are zero in the given one, and possibly in bytes above them.
+     */
+    private static long zeroBytes(long word)
+    {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+    private boolean occursAt(byte[] bytes, int start)
+    {
+        for (int j = 0; j < pattern.length; j++)
+        {
+            if (fold[bytes[start + j] & 0xFF] != pattern[j])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the automaton of the literals: the trie of their bytes, completed with the failure transitions computed
+     * breadth first, so that each byte takes a single transition.
+     */
+    private void compileAhoCorasick(List<int[]> literals)
+    {
+        int states = 1;
+        for (int[] literal : literals)
+        {
+            states += literal.length;
+        }
+        transitions = new int[states * 256];
+        lengths = new int[states];
+        int count = 1;
+        for (int[] literal : literals)
+        {
+            int state = 0;
+            for (int b : literal)
+            {
+                if (transitions[state << 8 | b] == 0)
+                {
+                    transitions[state << 8 | b] = count++;
+                }
+                state = transitions[state << 8 | b];
+            }
+            lengths[state] = Math.max(lengths[state], literal.length);
+        }
+
+        int[] failures = new int[count];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int b = 0; b < 256; b++)
+        {
+            if (transitions[b] != 0)
+            {
+                queue.add(transitions[b]);
+            }
+        }
+        while (!queue.isEmpty())
+        {
+            int state = queue.poll();
+            lengths[state] = Math.max(lengths[state], lengths[failures[state]]);
+            for (int b = 0; b < 256; b++)
+            {
+                int next = transitions[state << 8 | b];
+                if (next != 0)
+                {
+                    failures[next] = transitions[failures[state] << 8 | b];
+                    queue.add(next);
+                }
+                else
+                {
+                    transitions[state << 8 | b] = transitions[failures[state] << 8 | b];
+                }
+            }
+        }
+        for (int b = 0; b < 256; b++)
+        { // A byte is taken by the transition of the value it is compared by
+            for (int state = 0; state < count; state++)
+            {
+                transitions[state << 8 | b] = transitions[state << 8 | fold[b]];
+            }
+        }
+    }
+
+    private int ahoCorasick(byte[] bytes, int from, int to)
+    {
+        int state = 0;
+        for (int i = from; i < to; i++)
+        {
+            while (state == 0 && i < to - 1 && transitions[bytes[i] & 0xFF] == 0)
+            { // The bytes that no literal starts with are skipped without going through the automaton
+                i++;
+            }
+            state = transitions[state << 8 | (bytes[i] & 0xFF)];
+            if (lengths[state] > 0)
+            {
+                return i + 1 - lengths[state];
+            }
+        }
+        return -1;
+    }
+
+}
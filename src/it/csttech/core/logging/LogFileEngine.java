@@ -0,0 +1,953 @@
+package it.csttech.core.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * The state of a log file shared by all its readers: the settings used to parse it, the registers (the starting position
+ * and line of each message found so far, see {@link MessageIndex}) with their sidecar file, the background indexer and
+ * the follower of the file.
+ * An engine is thread-safe, and any number of {@link LogFileParserImpl} cursors can page the same file at once through it
+ * (see {@link LogFileParserImpl#LogFileParserImpl(LogFileEngine)}): each cursor keeps its own position and reader, while
+ * the messages registered by one of them are seen by all the others. Reads of the registers take no lock.
+ */
+public class LogFileEngine implements Serializable, Closeable
+{
+    private static final long serialVersionUID = -3185466231764105523L;
+    private static final int MATCH_COUNTERS = 8;
+
+    private final String regex, timestampFormat, conversionPattern;
+    private final FileAccessMode accessMode;
+    private volatile Path file;
+    private volatile ZoneId zone = ZoneId.systemDefault();
+    private volatile long beginningOfMessages; //stores the actual beginning of messages in the input file (as character). Most likely it will be 0, unless the user provides a file that has been cut without care
+    private volatile int startingLineOfFirstMessage; //stores the actual beginning of messages in the input file (as line)
+    private volatile MessageIndex messageIndex; // the registers: entry k-1 stores the starting position and line of message k; null when spilled
+    private int savedMessages; // number of messages already stored in the sidecar file of the registers
+    private volatile int changes; // incremented when the file grows, is replaced or renamed, so that the cursors refresh their reader
+    private transient volatile long lastUsed; // System.nanoTime() of the last access to the registers
+
+    private transient volatile BackgroundIndexer backgroundIndexer;
+    private transient LogFollower follower;
+    private transient List<LogMessageListener> messageListeners;
+    private transient MessageCache messageCache;
+    private transient volatile boolean registersComplete; // true once the registers have been known to reach the end of file
+    private transient Map<String, MatchCounter> matchCounters;
+    private transient FieldIndex fieldIndex;
+    private transient boolean tokenIndexing; // true once the token index has been asked for
+    private transient TokenIndex tokenIndex;
+    private transient boolean trigramIndexing; // true once the trigram index has been asked for
+    private transient TrigramIndex trigramIndex;
+    private transient boolean bloomIndexing; // true once the Bloom filters have been asked for
+    private transient BloomIndex bloomIndex;
+    private transient volatile LogParserRegistry registry; // the registry handing out this engine, whose budget it counts in
+    private transient long checkedSize, checkedLastModified; // of the file when its content was last checked
+    private transient long checkedHeadLength, checkedHeadChecksum; // of the file when its content was last checked; 0 if never
+
+    public LogFileEngine(String filename)
+    {
+        this(filename, LogFileParserImpl.STANDARD_REGEX, LogFileParserImpl.STANDARD_TIMESTAMP);
+    }
+
+    public LogFileEngine(String filename, String regex, String timestampFormat)
+    {
+        this(filename, regex, timestampFormat, FileAccessMode.BUFFERED);
+    }
+
+    public LogFileEngine(String filename, String regex, String timestampFormat, FileAccessMode accessMode)
+    {
+        this(filename, regex, timestampFormat, accessMode, HeaderLayout.defaultConversionPattern(timestampFormat));
+    }
+
+    /**
+     * @param conversionPattern the log4j PatternLayout conversion pattern of the messages, such as
+     *            "%d{yyyy-MM-dd HH:mm:ss,SSS} %-5p [%t] %c - %m%n", used to split their first line into fields
+     */
+    public LogFileEngine(String filename, String regex, String timestampFormat, FileAccessMode accessMode, String conversionPattern)
+    {
+        this.regex = regex;
+        this.timestampFormat = timestampFormat;
+        this.accessMode = accessMode;
+        this.conversionPattern = conversionPattern;
+        file = Paths.get(filename);
+
+        if (!Files.exists(file))
+        {// Then the file doesn't exist
+            throw new IllegalArgumentException("This file does not exist");
+        }
+
+        try (LineReader reader = LineReader.open(file, accessMode))
+        {
+            beginningOfMessages = findFirstMessage(reader);
+            if (beginningOfMessages < 0)
+            { // Then it's EOF.
+                throw new IllegalArgumentException("This file does not contain any Log4j messages");
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("This file cannot be read: " + e);
+        }
+
+        startingLineOfFirstMessage = 0;
+        messageIndex = loadRegisters();
+        lastUsed = System.nanoTime();
+        checkContent();
+    }
+
+    /**
+     * Returns the position of the first line starting a message, or -1 if there is none.
+     */
+    private long findFirstMessage(LineReader reader) throws IOException
+    {
+        MessageStartDetector detector = newStartDetector();
+        long positionSaver;
+        String line;
+        do
+        {
+            positionSaver = reader.position();
+            line = reader.readLine();
+            if (line == null)
+            {
+                return -1;
+            }
+        }
+        while (!detector.matches(line)); // Start of message found!
+        return positionSaver;
+    }
+
+    Path getFile()
+    {
+        return file;
+    }
+
+    FileAccessMode getAccessMode()
+    {
+        return accessMode;
+    }
+
+    long getBeginningOfMessages()
+    {
+        return beginningOfMessages;
+    }
+
+    int getStartingLineOfFirstMessage()
+    {
+        return startingLineOfFirstMessage;
+    }
+
+    /**
+     * Returns the registers, loading them again from the sidecar file if they have been spilled.
+     */
+    MessageIndex getMessageIndex()
+    {
+        lastUsed = System.nanoTime();
+        MessageIndex index = messageIndex;
+        return index != null ? index : reloadRegisters();
+    }
+
+    private synchronized MessageIndex reloadRegisters()
+    {
+        if (messageIndex == null)
+        {
+            messageIndex = loadRegisters();
+        }
+        return messageIndex;
+    }
+
+    /**
+     * Returns the System.nanoTime() of the last access to the registers.
+     */
+    long getLastUsed()
+    {
+        return lastUsed;
+    }
+
+    int getChanges()
+    {
+        return changes;
+    }
+
+    ZoneId getTimeZone()
+    {
+        return zone;
+    }
+
+    /**
+     * Sets the time zone of the timestamps written in the file, unless the conversion pattern gives it.
+     * The system default zone is used if none is set.
+     */
+    public void setTimeZone(ZoneId zone)
+    {
+        this.zone = zone;
+    }
+
+    /**
+     * Returns the cache of the decoded messages, shared by all the cursors.
+     */
+    synchronized MessageCache getMessageCache()
+    {
+        if (messageCache == null)
+        {
+            messageCache = new MessageCache(MessageCache.DEFAULT_CAPACITY);
+        }
+        return messageCache;
+    }
+
+    /**
+     * Sets the estimated heap, in bytes, that the decoded messages kept for the pages read again may take (16 MB by
+     * default). A capacity of 0 disables the cache.
+     */
+    public void setMessageCacheCapacity(long capacity)
+    {
+        getMessageCache().setCapacity(capacity);
+    }
+
+    /**
+     * Returns the counter of the messages accepted by the given filter, starting or resuming its background scan if needed.
+     * The counters of the last {@value #MATCH_COUNTERS} filters are kept.
+     */
+    synchronized MatchCounter getMatchCounter(LogFilter filter)
+    {
+        if (matchCounters == null)
+        {
+            matchCounters = new LinkedHashMap<String, MatchCounter>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MatchCounter> eldest)
+                {
+                    if (size() > MATCH_COUNTERS)
+                    {
+                        eldest.getValue().cancel();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+        String key = filter.toString();
+        MatchCounter counter = matchCounters.get(key);
+        if (counter == null)
+        {
+            counter = new MatchCounter(this, filter);
+            matchCounters.put(key, counter);
+        }
+        counter.start();
+        return counter;
+    }
+
+    /**
+     * Returns the indexes of the level, thread and logger fields, starting or resuming their background scan if needed.
+     * The scan also registers the messages it reads.
+     */
+    synchronized FieldIndex getFieldIndex()
+    {
+        if (fieldIndex == null)
+        {
+            fieldIndex = new FieldIndex(this);
+        }
+        fieldIndex.start();
+        return fieldIndex;
+    }
+
+    /**
+     * Starts indexing the level, thread and logger fields of the messages on a background thread, so that the filters on
+     * them (see {@link LogFilter}) can jump from one accepted message to the next. This is done by the first such filter
+     * anyway: calling this method beforehand saves the wait.
+     */
+    public void startFieldIndexing()
+    {
+        getFieldIndex();
+    }
+
+    /**
+     * Returns an estimate of the heap used by the field indexes, in bytes.
+     */
+    public synchronized long getFieldIndexHeapFootprint()
+    {
+        return fieldIndex == null ? 0 : fieldIndex.heapFootprint();
+    }
+
+    /**
+     * Starts building the inverted index of the tokens of the messages on a background thread, or loads it from its
+     * sidecar file and resumes it if it has been saved by a previous engine (see {@link TokenIndex}). From then on, the
+     * literal searches of the cursors only read the messages containing the tokens of the literal, as far as the index
+     * reaches. The index takes from a few bytes to a few tens of bytes per message, so it is only built on request.
+     */
+    public synchronized void startTokenIndexing()
+    {
+        tokenIndexing = true;
+        getTokenIndex();
+    }
+
+    /**
+     * Returns the token index, resuming its background scan if needed, or null if it has not been asked for.
+     */
+    synchronized TokenIndex getTokenIndex()
+    {
+        if (!tokenIndexing)
+        {
+            return null;
+        }
+        if (tokenIndex == null)
+        {
+            tokenIndex = new TokenIndex(this);
+            try
+            {
+                if (!IndexFile.loadTokens(file, regex, tokenIndex))
+                {
+                    tokenIndex = new TokenIndex(this);
+                }
+            }
+            catch (IOException e)
+            {
+                System.out.println("I/O Exception: " + e);
+                tokenIndex = new TokenIndex(this);
+            }
+        }
+        tokenIndex.start();
+        return tokenIndex;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the token index, in bytes.
+     */
+    public synchronized long getTokenIndexHeapFootprint()
+    {
+        return tokenIndex == null ? 0 : tokenIndex.heapFootprint();
+    }
+
+    /**
+     * Starts building the trigram index of the messages on a background thread (see {@link TrigramIndex}). From then on,
+     * the searches of the cursors, regex or literal, only read the blocks of messages having the trigrams the expression
+     * requires, as far as the index reaches. The index is kept in memory only, so it is built again by each engine.
+     */
+    public synchronized void startTrigramIndexing()
+    {
+        trigramIndexing = true;
+        getTrigramIndex();
+    }
+
+    /**
+     * Returns the trigram index, resuming its background scan if needed, or null if it has not been asked for.
+     */
+    synchronized TrigramIndex getTrigramIndex()
+    {
+        if (!trigramIndexing)
+        {
+            return null;
+        }
+        if (trigramIndex == null)
+        {
+            trigramIndex = new TrigramIndex(this);
+        }
+        trigramIndex.start();
+        return trigramIndex;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the trigram index, in bytes.
+     */
+    public synchronized long getTrigramIndexHeapFootprint()
+    {
+        return trigramIndex == null ? 0 : trigramIndex.heapFootprint();
+    }
+
+    /**
+     * Starts computing the Bloom filters of the blocks of messages on a background thread, or loads them from the sidecar
+     * file of the registers and resumes them if they have been saved by a previous engine (see {@link BloomIndex}). From
+     * then on, the searches of the cursors skip the blocks whose filter does not have the trigrams of the expression. The
+     * filters take a few percent of the size of the file, which is much less than the trigram index, but they only skip
+     * whole blocks.
+     */
+    public synchronized void startBloomIndexing()
+    {
+        bloomIndexing = true;
+        getBloomIndex();
+    }
+
+    /**
+     * Returns the Bloom filters, resuming their background scan if needed, or null if they have not been asked for.
+     */
+    synchronized BloomIndex getBloomIndex()
+    {
+        if (!bloomIndexing)
+        {
+            return null;
+        }
+        if (bloomIndex == null)
+        {
+            getMessageIndex(); // the filters are only valid along with the registers saved with them
+            bloomIndex = new BloomIndex(this);
+            try
+            {
+                if (savedMessages == 0 || !IndexFile.loadFilters(file, regex, bloomIndex))
+                {
+                    bloomIndex = new BloomIndex(this);
+                }
+            }
+            catch (IOException e)
+            {
+                System.out.println("I/O Exception: " + e);
+                bloomIndex = new BloomIndex(this);
+            }
+        }
+        bloomIndex.start();
+        return bloomIndex;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the Bloom filters, in bytes.
+     */
+    public synchronized long getBloomIndexHeapFootprint()
+    {
+        return bloomIndex == null ? 0 : bloomIndex.heapFootprint();
+    }
+
+    /**
+     * Stops and drops the match counters and the field, token and trigram indexes and the Bloom filters, whose message
+     * numbers no longer hold.
+     */
+    private synchronized void dropFilterIndexes()
+    {
+        if (fieldIndex != null)
+        {
+            fieldIndex.cancel();
+            fieldIndex = null;
+        }
+        if (tokenIndex != null)
+        {
+            tokenIndex.cancel();
+            tokenIndex = null;
+        }
+        if (trigramIndex != null)
+        {
+            trigramIndex.cancel();
+            trigramIndex = null;
+        }
+        if (bloomIndex != null)
+        {
+            bloomIndex.cancel();
+            bloomIndex = null;
+        }
+        if (matchCounters != null)
+        {
+            for (MatchCounter counter : matchCounters.values())
+            {
+                counter.cancel();
+            }
+            matchCounters.clear();
+        }
+    }
+
+    /**
+     * Returns a new layout of the first line of the messages. Layouts are not thread-safe: each cursor has its own.
+     */
+    HeaderLayout newHeaderLayout()
+    {
+        return HeaderLayout.compile(conversionPattern, timestampFormat, zone);
+    }
+
+    /**
+     * Returns a new detector of the lines starting a message. Detectors are not thread-safe: each cursor has its own.
+     */
+    MessageStartDetector newStartDetector()
+    {
+        return MessageStartDetector.compile(regex);
+    }
+
+    /**
+     * Returns the registers saved in the sidecar file by a previous parser of the same file, if it is still valid, or else
+     * new registers holding only the first message. Only the messages appended after the sidecar was saved will have to be
+     * scanned.
+     */
+    private MessageIndex loadRegisters()
+    {
+        MessageIndex registers = new MessageIndex();
+        registers.add(beginningOfMessages, startingLineOfFirstMessage);
+        savedMessages = 0;
+        try (LineReader reader = LineReader.open(file, accessMode))
+        {
+            MessageIndex index = IndexFile.load(file, regex);
+            if (index == null || index.isEmpty() || index.position(0) != beginningOfMessages)
+            {
+                return registers;
+            }
+
+            reader.position(index.lastPosition());
+            String lastMessage = reader.readLine();
+            if (lastMessage == null || !newStartDetector().matches(lastMessage))
+            { // Then the file has been changed after its head
+                return registers;
+            }
+
+            savedMessages = index.size();
+            return index;
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+            return registers;
+        }
+    }
+
+    /**
+     * Releases the heap of the engine as far as it can be found again: clears the message cache, drops the indexes that are
+     * not being built (the token index and the Bloom filters once saved into their sidecars, from which they are loaded
+     * again when next asked for; the field and trigram indexes are built again), then saves the registers into the sidecar
+     * file and releases them, unless the file is being followed or indexed in the background. The registers are loaded
+     * again from the sidecar by the next access (see {@link #getMessageIndex()}): a cursor reading the file in the meantime
+     * keeps the registers it holds, and the messages it registers may have to be found again afterwards.
+     *
+     * @return the heap released, in bytes.
+     */
+    synchronized long spill()
+    {
+        long released = 0;
+        if (messageCache != null)
+        {
+            released += messageCache.getSize();
+            messageCache.clear();
+        }
+        saveIndex();
+        if (fieldIndex != null && !fieldIndex.isRunning())
+        {
+            released += fieldIndex.heapFootprint();
+            fieldIndex = null;
+        }
+        if (tokenIndex != null && !tokenIndex.isRunning() && !tokenIndex.isModified())
+        {
+            released += tokenIndex.heapFootprint();
+            tokenIndex = null;
+        }
+        if (trigramIndex != null && !trigramIndex.isRunning())
+        {
+            released += trigramIndex.heapFootprint();
+            trigramIndex = null;
+        }
+        if (bloomIndex != null && !bloomIndex.isRunning() && !bloomIndex.isModified())
+        {
+            released += bloomIndex.heapFootprint();
+            bloomIndex = null;
+        }
+
+        MessageIndex index = messageIndex;
+        if (index == null || (follower != null && follower.isRunning()) || (backgroundIndexer != null && !backgroundIndexer.isDone())
+            || fieldIndex != null || tokenIndex != null || trigramIndex != null || bloomIndex != null)
+        {
+            return released;
+        }
+        if (savedMessages < index.size())
+        { // Then the sidecar could not be written
+            return released;
+        }
+        messageIndex = null;
+        return released + index.heapFootprint();
+    }
+
+    /**
+     * Saves the registers into the sidecar file of the log file (see {@link IndexFile}), so that the next parser opened
+     * on the same file does not need to scan it again, with the Bloom filters if they are computed. Nothing is written if no
+     * new message has been registered and no block has been filtered. The token index, if it is built, is saved into its
+     * own sidecar as well.
+     * This method is also called by {@link #close()}.
+     */
+    public synchronized void saveIndex()
+    {
+        if (tokenIndex != null && tokenIndex.isModified())
+        {
+            try
+            {
+                IndexFile.saveTokens(file, regex, tokenIndex);
+            }
+            catch (IOException e)
+            {
+                System.out.println("I/O Exception: " + e);
+            }
+        }
+        MessageIndex index = messageIndex;
+        if (index == null)
+        { // Then the registers have been spilled, and they are already saved
+            return;
+        }
+        int registeredMessages = index.size();
+        if (registeredMessages <= savedMessages && (bloomIndex == null || !bloomIndex.isModified()))
+        {
+            return;
+        }
+        try
+        {
+            IndexFile.save(file, regex, index, bloomIndex);
+            savedMessages = registeredMessages;
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    /**
+     * Returns the number of messages whose position is stored in the registers.
+     */
+    public int getRegisteredMessages()
+    {
+        return getMessageIndex().size();
+    }
+
+    /**
+     * Returns an estimate of the heap used by the registers, in bytes, or 0 if they have been spilled.
+     */
+    public long getIndexHeapFootprint()
+    {
+        MessageIndex index = messageIndex;
+        return index == null ? 0 : index.heapFootprint();
+    }
+
+    /**
+     * Returns an estimate of the heap used by the engine, in bytes: the registers, the message cache and the field, token
+     * and trigram indexes and the Bloom filters.
+     */
+    public long getHeapFootprint()
+    {
+        long footprint = getIndexHeapFootprint() + getFieldIndexHeapFootprint() + getTokenIndexHeapFootprint()
+                         + getTrigramIndexHeapFootprint() + getBloomIndexHeapFootprint();
+        MessageCache cache = messageCache;
+        return cache == null ? footprint : footprint + cache.getSize();
+    }
+
+    /**
+     * Registers all the messages of the file, scanning it in parallel on the common {@link ForkJoinPool}.
+     *
+     * @see #buildIndex(ForkJoinPool)
+     */
+    public void buildIndex()
+    {
+        buildIndex(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Registers all the messages of the file, scanning it in parallel on the given pool, so that any message can then be
+     * reached without reading the ones before it. Only the part of the file after the last registered message is scanned.
+     */
+    public void buildIndex(ForkJoinPool pool)
+    {
+        MessageIndex index = getMessageIndex();
+        try (LineReader reader = LineReader.open(file, accessMode))
+        {
+            new ParallelIndexBuilder(file, accessMode, regex).build(pool, index.lastPosition(), index.lastLine(), reader.size(), index);
+            registersComplete();
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    /**
+     * Registers the messages starting between the last registered message and the given position, by scanning the lines
+     * for the headers of the messages, in parallel on the common {@link ForkJoinPool}, without assembling the messages.
+     */
+    void registerUpTo(long position)
+    {
+        MessageIndex index = getMessageIndex();
+        if (position <= index.lastPosition())
+        {
+            return;
+        }
+        try
+        {
+            new ParallelIndexBuilder(file, accessMode, regex).build(ForkJoinPool.commonPool(), index.lastPosition(), index.lastLine(), position, index);
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    /**
+     * Starts registering the messages of the file on a background thread, from the last registered message to the end of
+     * file. The cursors can be used in the meantime: requests for the messages already registered are served at once,
+     * while the others wait for the indexer to reach them. Nothing happens if the indexer is already running.
+     */
+    public void startBackgroundIndexing()
+    {
+        startBackgroundIndexing(null);
+    }
+
+    /**
+     * Starts registering the messages of the file on a background thread, notifying its progress to the given listener.
+     *
+     * @see #startBackgroundIndexing()
+     */
+    public synchronized void startBackgroundIndexing(IndexProgressListener listener)
+    {
+        if (backgroundIndexer != null && !backgroundIndexer.isDone())
+        {
+            return;
+        }
+        backgroundIndexer = new BackgroundIndexer(file, accessMode, regex, getMessageIndex(), listener);
+        backgroundIndexer.start();
+    }
+
+    /**
+     * Returns true if all the messages of the file have been registered, by {@link #buildIndex()}, by the background
+     * indexer, by the follower or by a cursor that read the file up to its end. Messages appended afterward are only
+     * registered if the file is followed.
+     */
+    public boolean isIndexComplete()
+    {
+        BackgroundIndexer indexer = backgroundIndexer;
+        return registersComplete || (indexer != null && indexer.isComplete());
+    }
+
+    /**
+     * Called when the registers have been found to reach the end of file.
+     */
+    void registersComplete()
+    {
+        if (registersComplete)
+        {
+            return;
+        }
+        registersComplete = true;
+        LogParserRegistry owner = registry;
+        if (owner != null)
+        { // The registers have grown up to the end of file: the budget of the registry may now be exceeded
+            owner.trim();
+        }
+    }
+
+    /**
+     * Called by the registry handing out this engine, so that the budget is enforced when the registers have grown.
+     */
+    void setRegistry(LogParserRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the fraction of the file scanned by the background indexer, between 0 and 1.
+     */
+    public double getIndexProgress()
+    {
+        BackgroundIndexer indexer = backgroundIndexer;
+        return indexer == null ? 0 : indexer.getProgress();
+    }
+
+    /**
+     * Waits for the background indexer, if it is running, to register the given number of messages.
+     */
+    void awaitRegisters(int count)
+    {
+        BackgroundIndexer indexer = backgroundIndexer;
+        if (indexer == null || getRegisteredMessages() >= count)
+        {
+            return;
+        }
+        try
+        {
+            indexer.awaitMessages(count);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (indexer.getFailure() != null)
+        {
+            System.out.println("I/O Exception: " + indexer.getFailure());
+        }
+    }
+
+    /**
+     * Registers a listener of the messages appended to the file while it is followed.
+     */
+    public void addMessageListener(LogMessageListener listener)
+    {
+        getMessageListeners().add(listener);
+    }
+
+    public void removeMessageListener(LogMessageListener listener)
+    {
+        getMessageListeners().remove(listener);
+    }
+
+    private synchronized List<LogMessageListener> getMessageListeners()
+    {
+        if (messageListeners == null)
+        {
+            messageListeners = new CopyOnWriteArrayList<>();
+        }
+        return messageListeners;
+    }
+
+    /**
+     * Starts following the file, polling it for growth every {@value LogFollower#DEFAULT_POLL_INTERVAL} milliseconds.
+     *
+     * @see #startFollowing(long)
+     */
+    public void startFollowing()
+    {
+        startFollowing(LogFollower.DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Starts following the file while it is being written: the appended messages are registered as soon as they appear,
+     * and the completed ones are pushed to the listeners (see {@link LogMessageListener}). The messages already in the
+     * file are registered first, on the same background thread. Nothing happens if the file is already followed.
+     */
+    public synchronized void startFollowing(long pollInterval)
+    {
+        if (follower != null && follower.isRunning())
+        {
+            return;
+        }
+        follower = new LogFollower(this, file, accessMode, regex, newHeaderLayout(), getMessageListeners(), pollInterval);
+        follower.start(getMessageIndex());
+    }
+
+    public synchronized void stopFollowing()
+    {
+        if (follower != null)
+        {
+            follower.stop();
+            follower = null;
+        }
+    }
+
+    public synchronized boolean isFollowing()
+    {
+        return follower != null && follower.isRunning();
+    }
+
+    /**
+     * Called when the file has been renamed (for instance by a rolling appender), so that the registers are kept and
+     * saved into the sidecar of the new name.
+     */
+    synchronized void renamed(Path file)
+    {
+        this.file = file;
+        savedMessages = 0;
+        if (tokenIndex != null)
+        {
+            tokenIndex.setModified();
+        }
+        changes++;
+    }
+
+    /**
+     * Called by the follower when the file has grown and the appended messages have been registered, so that the next
+     * read of the cursors sees the appended bytes.
+     */
+    synchronized void fileChanged()
+    {
+        registersComplete = true;
+        changes++;
+    }
+
+    /**
+     * Checks whether the file has been truncated or rewritten in place since the last check, that is whether it has shrunk
+     * or its head has changed, and if so resets the registers, so that the message cache and the indexes, whose message
+     * numbers no longer hold, are dropped as well. If the file has only grown, the registers are kept but no longer taken
+     * as complete, and the cursors are told to read the appended bytes. The head is only read again when the size or the
+     * modification time of the file has changed. Called by the cursors at each request; while the file is followed, the
+     * follower does this.
+     */
+    synchronized void checkContent()
+    {
+        if (follower != null && follower.isRunning())
+        {
+            return;
+        }
+        try
+        {
+            long size = Files.size(file);
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            if (checkedHeadLength > 0 && size == checkedSize && lastModified == checkedLastModified)
+            {
+                return;
+            }
+            long headLength = Math.min(size, IndexFile.HEAD_LENGTH);
+            long headChecksum = IndexFile.headChecksum(file, headLength);
+            long previousHead = headLength == checkedHeadLength ? headChecksum : IndexFile.headChecksum(file, checkedHeadLength);
+            boolean rewritten = checkedHeadLength > 0 && (size < checkedSize || previousHead != checkedHeadChecksum);
+            boolean grown = checkedHeadLength > 0 && !rewritten && size > checkedSize;
+            checkedSize = size;
+            checkedLastModified = lastModified;
+            checkedHeadLength = headLength;
+            checkedHeadChecksum = headChecksum;
+            if (rewritten)
+            {
+                long beginning;
+                try (LineReader reader = LineReader.open(file, accessMode))
+                {
+                    beginning = findFirstMessage(reader);
+                }
+                MessageIndex index = new MessageIndex();
+                index.add(beginning < 0 ? size : beginning, 0); // with no message left, the cursors find the end of file
+                resetRegisters(index, beginning < 0 ? size : beginning);
+            }
+            else if (grown)
+            { // The registers no longer reach the end of file, and the cursors have to read the appended bytes
+                registersComplete = false;
+                if (backgroundIndexer != null && backgroundIndexer.isDone())
+                { // A finished indexer no longer tells that the index is complete, and another one may index the rest
+                    backgroundIndexer = null;
+                }
+                changes++;
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    /**
+     * Called by the follower, or by {@link #checkContent()}, when the file has been truncated or replaced, with the registers
+     * of the new content.
+     */
+    synchronized void resetRegisters(MessageIndex index, long beginningOfMessages)
+    {
+        if (backgroundIndexer != null)
+        {
+            backgroundIndexer.cancel();
+        }
+        this.beginningOfMessages = beginningOfMessages;
+        startingLineOfFirstMessage = 0;
+        savedMessages = 0;
+        messageIndex = index;
+        registersComplete = false;
+        getMessageCache().clear();
+        dropFilterIndexes();
+        changes++;
+    }
+
+    /**
+     * Stops the follower and the background indexer, and saves the registers. The engine can still be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        stopFollowing();
+        if (backgroundIndexer != null)
+        {
+            backgroundIndexer.cancel();
+        }
+        saveIndex();
+        dropFilterIndexes();
+    }
+
+}
@@ -1,6 +1,7 @@
 package it.csttech.core.logging;
 
 import java.io.Serializable;
+import java.time.Instant;
 
 import it.csttech.core.data.Page;
 
@@ -38,6 +39,21 @@ public interface LogFileParser extends Serializable
      */
     public Page<LogMessage> filterPrev(String expression, boolean useRegex, long currentMessage, long pageSize);
 
+    /**
+     * Find the next page with only messages accepted by the filter, on the level, thread and logger of their header and on their text. Start filtering messages only record after 'currentMessage' rows.
+     */
+    public Page<LogMessage> filterNext(LogFilter filter, long currentMessage, long pageSize);
+
+    /**
+     * Find the previous page with only messages accepted by the filter, on the level, thread and logger of their header and on their text.
+     */
+    public Page<LogMessage> filterPrev(LogFilter filter, long currentMessage, long pageSize);
+
+    /**
+     * Returns the page starting at the first message logged at or after the given instant, with the required size.
+     */
+    public Page<LogMessage> pageAt(Instant instant, long pageSize);
+
     /**
      * Returns true if this parser has the timestamp field.
      */
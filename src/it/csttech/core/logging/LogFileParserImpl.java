@@ -1,47 +1,50 @@
 package it.csttech.core.logging;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import it.csttech.core.data.Page;
 import it.csttech.core.data.PageImpl;
 
 
-public class LogFileParserImpl implements LogFileParser
+public class LogFileParserImpl implements LogFileParser, Closeable
 {
     private static final long serialVersionUID = 8273119159030929670L;
 
-    private static final String STANDARD_REGEX = "^[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{3}";
-    private static final String STANDARD_TIMESTAMP = "yyyy-MM-dd HH:mm:ss,SSS";
+    static final String STANDARD_REGEX = "^[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2},[0-9]{3}";
+    static final String STANDARD_TIMESTAMP = "yyyy-MM-dd HH:mm:ss,SSS";
+    private static final long ESTIMATE_SAMPLE = 1024 * 1024; // bytes read to estimate the numbers of unregistered messages
 
     private boolean useRegisters;
 
-    private String regex, timestampFormat;
-    private Path file;
+    private final LogFileEngine engine;
+    private final boolean ownsEngine; // true if the engine has been created by this parser, which then closes it
     private long currentPosition;
-    private long beginningOfMessages; //stores the actual beginning of messages in the input file (as character). Most likely it will be 0, unless the user provides a file that has been cut without care
     private int currentLine, currentMessage;
-    private int startingLineOfFirstMessage; //stores the actual beginning of messages in the input file (as line). Most likely it will be 0, unless the user provides a file that has been cut without care
-    private List<Long> messageInitPositions;
-    private List<Integer> messageInitLines;
     public long pageBeginPosition, pageEndPosition; // these fields are involved in calculations based on general use of currentPosition without currentLine nor currentMessage
 
     private String orphanLine;
     private long orphanPosition;
 
+    private transient LineReader reader;
+    private transient Path readerFile; // the file the reader has been opened on
+    private transient int readerChanges; // the changes of the engine already seen by the reader
+    private transient HeaderLayout headerLayout;
+    private transient ZoneId headerLayoutZone;
+    private transient MessageStartDetector startDetector;
+    private transient PagePrefetcher prefetcher;
+    private transient long sampleFrom = -1, sampleTo, sampleFileSize, sampleMessages; // the sample used to estimate the number of messages
+    private transient double bytesPerMessage; // the average size of the messages, as last estimated
+    private transient long lastPageStart; // the messages before the last page returned, see getLastPageStart()
+
     public LogFileParserImpl(String filename)
     {
         this(filename, STANDARD_REGEX, STANDARD_TIMESTAMP, null);
@@ -59,45 +62,45 @@ public class LogFileParserImpl implements LogFileParser
 
     public LogFileParserImpl(String filename, String regex, String timestampFormat, Long currentPosition)
     {
-        this.timestampFormat = timestampFormat;
-        this.regex = regex;
-        file = Paths.get(filename);
+        this(filename, regex, timestampFormat, currentPosition, FileAccessMode.BUFFERED);
+    }
 
-        if (!Files.exists(file))
-        {// Then the file doesn't exist
-            throw new IllegalArgumentException("This file does not exist");
-        }
+    public LogFileParserImpl(String filename, String regex, String timestampFormat, Long currentPosition, FileAccessMode accessMode)
+    {
+        this(filename, regex, timestampFormat, currentPosition, accessMode, HeaderLayout.defaultConversionPattern(timestampFormat));
+    }
 
-        this.currentPosition = 0;
+    /**
+     * @param conversionPattern the log4j PatternLayout conversion pattern of the messages, such as
+     *            "%d{yyyy-MM-dd HH:mm:ss,SSS} %-5p [%t] %c - %m%n", used to split their first line into fields
+     */
+    public LogFileParserImpl(String filename, String regex, String timestampFormat, Long currentPosition, FileAccessMode accessMode,
+                             String conversionPattern)
+    {
+        this(new LogFileEngine(filename, regex, timestampFormat, accessMode, conversionPattern), currentPosition, true);
+    }
 
-        long positionSaver;
-        StringBuffer line = new StringBuffer();
-        do
-        {
-            positionSaver = this.currentPosition;
-            line = readLine();
-            if (line == null)
-            { // Then it's EOF.
-                throw new IllegalArgumentException("This file does not contain any Log4j messages");
-            }
-            else
-            {}
-        }
-        while (!isStartOfMessage(line)); // Start of message found!
+    /**
+     * Creates a cursor on the file of the given engine, starting at its first message. The registers of the engine are
+     * shared with the other cursors of the same file, so that a message registered by one of them is reached at once by
+     * all the others. A cursor is not thread-safe: each caller (for instance each web session) should have its own.
+     */
+    public LogFileParserImpl(LogFileEngine engine)
+    {
+        this(engine, 0L);
+    }
 
-        orphanLine = line.toString();
-        orphanPosition = this.currentPosition;
+    public LogFileParserImpl(LogFileEngine engine, Long currentPosition)
+    {
+        this(engine, currentPosition, false);
+    }
 
-        this.currentPosition = positionSaver;
-        startingLineOfFirstMessage = currentLine;
-        beginningOfMessages = positionSaver;
+    private LogFileParserImpl(LogFileEngine engine, Long currentPosition, boolean ownsEngine)
+    {
+        this.engine = engine;
+        this.ownsEngine = ownsEngine;
+        this.currentPosition = engine.getBeginningOfMessages();
         currentMessage = 0;
-        messageInitPositions = new ArrayList<Long>();
-        messageInitPositions.add(new Long(-1));
-        messageInitPositions.add(beginningOfMessages);
-        messageInitLines = new ArrayList<Integer>();
-        messageInitLines.add(new Integer(-1));
-        messageInitLines.add(startingLineOfFirstMessage);
         if (currentPosition == null || currentPosition < 0)
         {
             setCurrentPositionToEndOfFile();
@@ -106,66 +109,35 @@ public class LogFileParserImpl implements LogFileParser
         { // this.currentPosition ora coincide con beginningOfMessages.
             this.currentPosition = currentPosition;
         }
-        useRegisters = (this.currentPosition == beginningOfMessages);
+        useRegisters = (this.currentPosition == engine.getBeginningOfMessages());
+    }
+
+    /**
+     * Returns the engine of the file read by this parser.
+     */
+    public LogFileEngine getEngine()
+    {
+        return engine;
     }
 
     /**
      * This method reads a line from the file. It starts at the currentPosition and continues to read 
      * until it finds a '\n', '\r' or a suitable (Windows) combination of the two.
      * 
-     * @return the line as a StringBuffer, or null if at the currentPosition we are at the end of 
+     * @return the line as a String, or null if at the currentPosition we are at the end of 
      * file (EOF), in the spirit of the readLine method found in the BufferedReader class.
      * 
      * WARNING: when calling this method, one should be sure that no IOExceptions could occur.
      */
-    private StringBuffer readLine()
+    private String readLine()
     {
-        ByteBuffer byteBuffer;
-        StringBuffer line;
-
-        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ))
+        String line;
+        try
         {
-            fileChannel.position(currentPosition);
-            byteBuffer = ByteBuffer.allocate(1);
-            line = new StringBuffer();
-            int currentChar = -1;
-
-            while (fileChannel.read(byteBuffer) != -1)
-            {
-                byteBuffer.rewind(); // The position is set to zero and the mark is discarded.
-                currentChar = byteBuffer.get(byteBuffer.position());
-                line.append((char) currentChar);
-                if (currentChar == '\n' || currentChar == '\r')
-                {
-                    break;
-                }
-                else
-                {}
-            }
-
-            if (currentChar == -1)
-            { //Then it's the end of file; return null
-                return null;
-            }
-
-            if (currentChar == '\r')
-            {
-                fileChannel.read(byteBuffer);
-                byteBuffer.rewind();
-                char nextChar = (char) byteBuffer.get(byteBuffer.position());
-                if (nextChar == '\n')
-                { // Then we found a '\r' followed by a '\n'
-                      //                    we ignore it and increase the position by one
-                    line.append('\n');
-                }
-                else
-                { // Then we had only found a '\r' and the next character is not '\n';
-                      //                    Return to the previous position for the next read
-                    fileChannel.position(fileChannel.position() - 1);
-                }
-            }
-
-            currentPosition = fileChannel.position(); //update this object's position with the fileChannel position
+            LineReader reader = getReader();
+            reader.position(currentPosition);
+            line = reader.readLine();
+            currentPosition = reader.position(); //update this object's position with the reader position
         }
         catch (IOException e)
         { // Never(!) happens: main method should avoid any errors
@@ -179,81 +151,46 @@ public class LogFileParserImpl implements LogFileParser
         return line;
     }
 
-    private StringBuffer prevLine()
+    /**
+     * Returns the reader shared by all the reads of this parser, opening it on first use. The reader is refreshed when
+     * the engine reports that the file has changed.
+     */
+    private LineReader getReader() throws IOException
     {
-        if (currentPosition == 0)
+        Path file = engine.getFile();
+        if (reader != null && !file.equals(readerFile))
+        { // Then the file has been renamed
+            reader.close();
+            reader = null;
+        }
+        if (reader == null)
         {
-            return null;
+            readerChanges = engine.getChanges();
+            reader = LineReader.open(file, engine.getAccessMode());
+            readerFile = file;
         }
-        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ))
+        else if (readerChanges != engine.getChanges())
         {
+            readerChanges = engine.getChanges();
+            reader.invalidate();
+        }
+        return reader;
+    }
 
-            StringBuffer line = new StringBuffer();
-            StringBuffer eol = new StringBuffer();
-            int currentChar = -1;
-            ByteBuffer byteBuffer;
-
-            for (byte b = 0; b < 2; b++)
-            {
-
-                currentPosition--;
-                if (currentPosition < 0)
-                {
-                    break;
-                }
-                fileChannel.position(currentPosition);
-                byteBuffer = ByteBuffer.allocate(1);
-                fileChannel.read(byteBuffer);
-                byteBuffer.rewind();
-                currentChar = byteBuffer.get(byteBuffer.position());
-
-                if (currentChar == -1)
-                {
-                    break;
-                }
-                else
-                {
-                    eol.insert(0, (char) currentChar);
-                }
-            }
-
-            if (eol.length() < 2)
-            {
-                return eol;
-            }
-            else if ((eol.charAt(0) == '\r' || eol.charAt(0) == '\n') && (eol.charAt(0) == '\n' || eol.charAt(1) == '\r'))
-            {
-                currentPosition++;
-                return line.append(eol.charAt(1));
-            }
-            line.append(eol);
-
-            while (true)
-            {
-
-                currentPosition--;
-                if (currentPosition < 0)
-                {
-                    break;
-                }
-                fileChannel.position(currentPosition);
-                byteBuffer = ByteBuffer.allocate(1);
-                fileChannel.read(byteBuffer);
-                byteBuffer.rewind();
-                currentChar = byteBuffer.get(byteBuffer.position());
-
-                //System.out.println(currentChar);
-                if (currentChar == -1)
-                {
-                    break;
-                }
-                if (currentChar == '\n' || currentChar == '\r')
-                {
-                    currentPosition++;
-                    break;
-                }
-                line.insert(0, (char) currentChar);
-            }
+    /**
+     * This method reads the line ending at the currentPosition, and moves the currentPosition at its beginning.
+     * 
+     * @return the line as a String (including its terminator), or null if at the currentPosition we are at the 
+     * beginning of file (BOF).
+     */
+    private String prevLine()
+    {
+        try
+        {
+            LineReader reader = getReader();
+            reader.position(currentPosition);
+            String line = reader.prevLine();
+            currentPosition = reader.position();
             return line;
         }
         catch (IOException e)
@@ -273,16 +210,12 @@ public class LogFileParserImpl implements LogFileParser
     {
 
         currentMessage = useRegisters ? currentMessage + 1 : 0;
-        StringBuffer line = new StringBuffer();
+        String line;
         long positionSaver;
+        long messageInitPosition = currentPosition;
+        int messageInitLine = currentLine;
         List<String> lines = new ArrayList<>();
 
-        if (useRegisters)
-        {
-            addMessageReadInitPosition(currentPosition);
-            addMessageReadInitLine(currentLine);
-        }
-
         if (orphanLine != null)
         {
             currentLine = useRegisters ? currentLine + 1 : 0;
@@ -301,11 +234,16 @@ public class LogFileParserImpl implements LogFileParser
             else
             {
                 lines.add(String.valueOf(currentLine));
-                lines.add(line.toString());
+                lines.add(line);
                 positionSaver = currentPosition;
             }
         }
 
+        if (useRegisters)
+        { // The message has been found: it's safe to register its beginning (it would be the EOF otherwise)
+            addMessageReadInit(messageInitPosition, messageInitLine);
+        }
+
         positionSaver = currentPosition;
         while (true)
         {
@@ -313,16 +251,20 @@ public class LogFileParserImpl implements LogFileParser
             if (line == null)
             {
                 resetOrphans();
+                if (useRegisters)
+                { // Then the messages have been registered up to the end of file
+                    engine.registersComplete();
+                }
                 break;
             }
             else if (!isStartOfMessage(line))
             {
-                lines.add(line.toString());
+                lines.add(line);
                 positionSaver = currentPosition;
             }
             else
             {
-                orphanLine = line.toString();
+                orphanLine = line;
                 orphanPosition = currentPosition;
                 currentPosition = positionSaver;
                 currentLine = useRegisters ? currentLine - 1 : 0;
@@ -353,9 +295,8 @@ public class LogFileParserImpl implements LogFileParser
         {
             setFromRegisters(currentMessage - 1);
         }
-        StringBuffer line;
-        List<String> message = new ArrayList<>();
-        message.add(useRegisters ? messageInitLines.get(currentMessage).toString() : "0");
+        String line;
+        List<String> reversedLines = new ArrayList<>();
         do
         {
             line = prevLine();
@@ -363,52 +304,60 @@ public class LogFileParserImpl implements LogFileParser
             {
                 break;
             }
-            message.add(1, line.toString());
+            reversedLines.add(line);
         }
         while (!isStartOfMessage(line));
+        if (reversedLines.isEmpty())
+        {
+            return null;
+        }
+
+        List<String> message = new ArrayList<>(reversedLines.size() + 1);
+        message.add(useRegisters ? String.valueOf(getMessageInitLine(currentMessage)) : "0");
+        for (int i = reversedLines.size() - 1; i >= 0; i--)
+        { // Lines have been read backward: they are added to the message in the right order here
+            message.add(reversedLines.get(i));
+        }
         return message;
         //		}
 
     }
 
-    private LogMessage convertMessageFromListToLogMessage(List<String> message, boolean checkExpandRequired, String expression, boolean useRegex)
+    /**
+     * Reads the next message and decodes it. When the page is read by message number and without search expression, the
+     * message is taken from the cache of the engine if it is there, and it is added to the cache otherwise.
+     *
+     * @return the message, or null iff the EOF was already reached.
+     */
+    private LogMessage nextLogMessage(boolean checkExpandRequired, SearchExpression expression)
     {
-        int startRow = Integer.decode(message.get(0));
-        List<String> lines = new ArrayList<>();
-
-        StringBuffer firstLine = new StringBuffer(message.get(1));
-        Date timestamp = new SimpleDateFormat(timestampFormat).parse(firstLine.toString(), new ParsePosition(0));
-        firstLine = firstLine.delete(0, timestampFormat.length());
-
-        Pattern pattern = Pattern.compile("(FATAL|ERROR|WARN|INFO|DEBUG|TRACE)");
-        Matcher matcher = pattern.matcher(firstLine);
-        matcher.find();
-        String logLevel = firstLine.substring(matcher.start(), matcher.end());
-        firstLine = firstLine.delete(0, matcher.end());
-
-        pattern = Pattern.compile("\\[[^\\[\\]]*\\]");
-        matcher = pattern.matcher(firstLine);
-        matcher.find();
-        String threadName = firstLine.substring(matcher.start(), matcher.end());
-        threadName = threadName.substring(1, threadName.length() - 1);
-        firstLine = firstLine.delete(0, matcher.end());
-
-        pattern = Pattern.compile(" - ");
-        matcher = pattern.matcher(firstLine);
-        matcher.find();
-        String loggerName = firstLine.substring(1, matcher.end() - 3);
-        firstLine = firstLine.delete(0, matcher.end());
-
-        lines.add(firstLine.toString());
-
-        if (message.size() > 1)
-        {
-            for (int i = 2; i < message.size(); i++)
+        boolean cacheable = useRegisters && !checkExpandRequired;
+        int number = currentMessage; // the message starting at currentPosition
+        if (cacheable && number > 0 && number < getRegisteredMessages())
+        { // The following message is registered, so the position can be moved past this one without reading it
+            LogMessage cached = engine.getMessageCache().get(number);
+            if (cached != null)
             {
-                lines.add(message.get(i));
+                setFromRegisters(number + 1);
+                return cached;
             }
         }
+        List<String> message = nextMessage();
+        if (message == null)
+        {
+            return null;
+        }
+        LogMessage logMessage = convertMessageFromListToLogMessage(message, checkExpandRequired, expression);
+        if (cacheable && number > 0 && orphanLine != null)
+        { // Then the message is complete: the header of the following one has been read
+            engine.getMessageCache().put(number, logMessage);
+        }
+        return logMessage;
+    }
 
+    private LogMessage convertMessageFromListToLogMessage(List<String> message, boolean checkExpandRequired, SearchExpression expression)
+    {
+        int startRow = Integer.decode(message.get(0));
         boolean expandRequired;
         if (message.size() == 2 || !checkExpandRequired)
         {
@@ -416,88 +365,182 @@ public class LogFileParserImpl implements LogFileParser
         }
         else
         {
-            expandRequired = isExpressionFound(message.subList(1, message.size()), expression, useRegex);
+            expandRequired = expression.isFoundIn(message.subList(2, message.size()));
         }
+        return getHeaderLayout().toLogMessage(startRow, message.subList(1, message.size()), expandRequired);
+    }
+
+    /**
+     * Saves the registers of the engine into the sidecar file of the log file (see {@link LogFileEngine#saveIndex()}).
+     * This method is also called by {@link #close()}.
+     */
+    public void saveIndex()
+    {
+        engine.saveIndex();
+    }
 
-        return new LogMessage(startRow, timestamp, logLevel, threadName, loggerName, lines, expandRequired);
+    /**
+     * Returns the number of messages whose position is stored in the registers.
+     */
+    int getRegisteredMessages()
+    {
+        return engine.getRegisteredMessages();
     }
 
-    private Long getLastMessageInitPositionRead()
+    /**
+     * Returns the starting position of the given message (counting from 1), or -1 for message 0.
+     */
+    private long getMessageInitPosition(int messageNumber)
     {
-        return messageInitPositions.get(messageInitPositions.size() - 1);
+        return messageNumber == 0 ? -1 : engine.getMessageIndex().position(messageNumber - 1);
     }
 
-    private boolean addMessageReadInitPosition(Long value)
+    /**
+     * Returns the starting line of the given message (counting from 1), or -1 for message 0.
+     */
+    private int getMessageInitLine(int messageNumber)
     {
-        if (value > getLastMessageInitPositionRead())
-        {
-            messageInitPositions.add(value);
-            return true;
-        }
-        return false;
+        return messageNumber == 0 ? -1 : engine.getMessageIndex().line(messageNumber - 1);
     }
 
-    private Integer getLastMessageInitLineRead()
+    private boolean addMessageReadInit(long position, int line)
     {
-        return messageInitLines.get(messageInitLines.size() - 1);
+        return engine.getMessageIndex().addIfAfter(position, line);
     }
 
-    private boolean addMessageReadInitLine(Integer value)
+    /**
+     * Registers all the messages of the file (see {@link LogFileEngine#buildIndex()}).
+     */
+    public void buildIndex()
     {
-        if (value > getLastMessageInitLineRead())
-        {
-            messageInitLines.add(value);
-            return true;
-        }
-        return false;
+        engine.buildIndex();
+    }
+
+    /**
+     * @see LogFileEngine#buildIndex(ForkJoinPool)
+     */
+    public void buildIndex(ForkJoinPool pool)
+    {
+        engine.buildIndex(pool);
+    }
+
+    /**
+     * @see LogFileEngine#startBackgroundIndexing()
+     */
+    public void startBackgroundIndexing()
+    {
+        engine.startBackgroundIndexing();
+    }
+
+    /**
+     * @see LogFileEngine#startBackgroundIndexing(IndexProgressListener)
+     */
+    public void startBackgroundIndexing(IndexProgressListener listener)
+    {
+        engine.startBackgroundIndexing(listener);
+    }
+
+    public boolean isIndexComplete()
+    {
+        return engine.isIndexComplete();
+    }
+
+    public double getIndexProgress()
+    {
+        return engine.getIndexProgress();
+    }
+
+    /**
+     * @see LogFileEngine#addMessageListener(LogMessageListener)
+     */
+    public void addMessageListener(LogMessageListener listener)
+    {
+        engine.addMessageListener(listener);
+    }
+
+    public void removeMessageListener(LogMessageListener listener)
+    {
+        engine.removeMessageListener(listener);
+    }
+
+    /**
+     * @see LogFileEngine#startFollowing()
+     */
+    public void startFollowing()
+    {
+        engine.startFollowing();
+    }
+
+    /**
+     * @see LogFileEngine#startFollowing(long)
+     */
+    public void startFollowing(long pollInterval)
+    {
+        engine.startFollowing(pollInterval);
+    }
+
+    public void stopFollowing()
+    {
+        engine.stopFollowing();
+    }
+
+    public boolean isFollowing()
+    {
+        return engine.isFollowing();
+    }
+
+    /**
+     * Called when the file has been renamed (for instance by a rolling appender), so that the registers are kept and
+     * saved into the sidecar of the new name.
+     */
+    void renamed(Path file)
+    {
+        engine.renamed(file);
+    }
+
+    private void awaitRegisters(int count)
+    {
+        engine.awaitRegisters(count);
+    }
+
+    /**
+     * Returns an estimate of the heap used by the registers of this parser, in bytes.
+     */
+    public long getIndexHeapFootprint()
+    {
+        return engine.getIndexHeapFootprint();
     }
 
-    private boolean isStartOfMessage(StringBuffer line)
+    /**
+     * @see LogFileEngine#setTimeZone(ZoneId)
+     */
+    public void setTimeZone(ZoneId zone)
     {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(line);
-        return line == null ? false : matcher.find();
+        engine.setTimeZone(zone);
     }
 
-    private boolean isExpressionFound(List<String> message, String expression, boolean useRegex)
+    private HeaderLayout getHeaderLayout()
     {
-        Pattern pattern;
-        if (useRegex)
+        if (headerLayout == null || headerLayoutZone != engine.getTimeZone())
         {
-            pattern = Pattern.compile(expression);
-            Matcher matcher;
-            for (String line : message.subList(1, message.size()))
-            { // first element of message is just the starting row number and will be ignored.
-                matcher = pattern.matcher(line);
-                if (line == null)
-                {
-                    continue;
-                }
-                else
-                {
-                    if (matcher.find())
-                    {
-                        return true;
-                    }
-                }
-            }
-            return false;
+            headerLayoutZone = engine.getTimeZone();
+            headerLayout = engine.newHeaderLayout();
         }
-        else
+        return headerLayout;
+    }
+
+    private MessageStartDetector getStartDetector()
+    {
+        if (startDetector == null)
         {
-            for (String line : message.subList(1, message.size()))
-            { // first element of message is just the starting row number and will be ignored.
-                if (line.indexOf(expression) == -1)
-                {
-                    continue;
-                }
-                else
-                {
-                    return true;
-                }
-            }
-            return false;
+            startDetector = engine.newStartDetector();
         }
+        return startDetector;
+    }
+
+    private boolean isStartOfMessage(CharSequence line)
+    {
+        return getStartDetector().matches(line);
     }
 
     // Resetta le posizioni tramite i registri, il risultato sar� avere il cursore all'inizio del messaggio corrispondente.
@@ -505,8 +548,8 @@ public class LogFileParserImpl implements LogFileParser
     {
         resetOrphans();
         currentMessage = messageNumber;
-        currentLine = messageInitLines.get(currentMessage);
-        currentPosition = messageInitPositions.get(currentMessage);
+        currentLine = getMessageInitLine(currentMessage);
+        currentPosition = getMessageInitPosition(currentMessage);
     }
 
     /**
@@ -518,7 +561,10 @@ public class LogFileParserImpl implements LogFileParser
      */
     private boolean arePositionsSet(int messageNumber)
     {
-        if (messageNumber + 1 < messageInitPositions.size())
+        engine.checkContent();
+        useRegisters = true; // the cursor is positioned from the registers, whatever the previous request read by position
+        awaitRegisters(messageNumber + 1);
+        if (messageNumber < getRegisteredMessages())
         { //This happens if we have already stored all position info about the message referenced by the user; we exploit this
             setFromRegisters(messageNumber + 1);
             return true;
@@ -526,7 +572,7 @@ public class LogFileParserImpl implements LogFileParser
         else
         {
             //Then we need to navigate a section of the file
-            setFromRegisters(messageInitPositions.size() - 1);
+            setFromRegisters(getRegisteredMessages());
             for (int i = currentMessage; i <= messageNumber; i++)
             {
                 if (nextMessage() == null)
@@ -541,8 +587,17 @@ public class LogFileParserImpl implements LogFileParser
     @Override // Gi� unificato.
     public Page<LogMessage> nextPage(long currentMessage, long pageSize)
     {
+        boolean prefetch = prefetcher != null && currentMessage >= 0;
+        if (prefetch)
+        {
+            prefetcher.pageRequested(currentMessage + 1, currentMessage + pageSize);
+        }
         Page<LogMessage> result = findNext("", true, currentMessage, pageSize);
         pageEndPosition = useRegisters ? 0 : currentPosition;
+        if (prefetch && !result.getData().isEmpty())
+        {
+            prefetcher.pageServed(currentMessage + 1, currentMessage + result.getData().size(), true);
+        }
         return result;
     }
 
@@ -551,27 +606,42 @@ public class LogFileParserImpl implements LogFileParser
     {
         if (currentMessage < 0)
         {
+            engine.checkContent();
             useRegisters = false;
             currentPosition = pageBeginPosition;
             pageEndPosition = currentPosition;
             List<LogMessage> result = new ArrayList<>();
-            LogMessage message;
+            List<String> message;
             for (long l = 0; l < pageSize; l++)
             {
-                message = convertMessageFromListToLogMessage(prevMessage(), false, "", true);
+                message = prevMessage();
                 if (message == null)
                 {
-                    return generatePage(result, 1L, 1L, 1L, 1L);
+                    Collections.reverse(result);
+                    return generatePage(result, 1L, pageSize, 1L, 0, null); //BOF was reached: the page starts with the first message
                 }
                 else
                 {
-                    result.add(0, message);
+                    result.add(convertMessageFromListToLogMessage(message, false, null));
                 }
             }
+            Collections.reverse(result); //Messages have been read in reverse order: therefore we reorder them correctly here
             pageBeginPosition = currentPosition;
-            return generatePage(result, 1L, 1L, 1L, 1L);
+            return generatePage(result, 1L, pageSize, 0, pageBeginPosition, null);
+        }
+        boolean prefetch = prefetcher != null;
+        long first = Math.max(1, currentMessage - pageSize + 1);
+        if (prefetch)
+        {
+            prefetcher.pageRequested(first, currentMessage);
+        }
+        Page<LogMessage> result = pageSize > currentMessage ? findNext("", true, 0, currentMessage - 1, pageSize)
+                                                            : findPrev("", true, currentMessage - pageSize + 1, pageSize);
+        if (prefetch && !result.getData().isEmpty())
+        {
+            prefetcher.pageServed(first, first + result.getData().size() - 1, false);
         }
-        return pageSize > currentMessage ? findNext("", true, 0, currentMessage - 1) : findPrev("", true, currentMessage - pageSize + 1, pageSize);
+        return result;
     }
 
     /*
@@ -580,16 +650,29 @@ public class LogFileParserImpl implements LogFileParser
      */
     @Override
     public Page<LogMessage> findNext(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        return findNext(expression, useRegex, currentMessage, pageSize, pageSize);
+    }
+
+    /**
+     * Returns the next page starting at a message containing the given expression. When no index of the engine narrows
+     * the search, a literal expression, or a regex made of literal alternatives, is first looked for in the raw bytes of
+     * the file (see {@link LiteralScanner}), and only the message holding it is decoded and checked.
+     *
+     * @param pagingSize the size of the pages the file is divided into, for the page number and the total of pages
+     */
+    private Page<LogMessage> findNext(String expression, boolean useRegex, long currentMessage, long pageSize, long pagingSize)
     {
         if (currentMessage >= 0)
         {
             if (!arePositionsSet((int) currentMessage))
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //This only happens if the EOF was reached when setting the position given by the user
+                return generatePage(new ArrayList<LogMessage>(0), 0); //This only happens if the EOF was reached when setting the position given by the user
             }
         }
         else
         {
+            engine.checkContent();
             useRegisters = false;
             resetOrphans();
         }
@@ -599,35 +682,52 @@ public class LogFileParserImpl implements LogFileParser
         List<String> message;
         List<LogMessage> messageList = new ArrayList<>();
 
-        boolean checkExpandRequired = !expression.isEmpty();
+        SearchExpression search = SearchExpression.compile(expression, useRegex);
+        boolean checkExpandRequired = !search.isEmpty();
 
-        while (true)
-        {
-            pageBeginPosition = useRegisters ? 0 : currentPosition;
-            message = nextMessage();
-            if (message == null)
+        if (currentMessage >= 0 && !checkExpandRequired)
+        { // Any message matches: the first one may be in the cache
+            LogMessage logMessage = nextLogMessage(false, search);
+            if (logMessage == null)
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //EOF was reached while trying to match the expression and the messages
-            }
-            else if (isExpressionFound(message, expression, useRegex))
-            {
-                pageEndPosition = useRegisters ? 0 : currentPosition;
-                break;
+                return generatePage(new ArrayList<LogMessage>(0), 0); //EOF was reached
             }
+            messageList.add(logMessage);
         }
-
-        messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, expression, useRegex));
-
-        for (int counter = 1; counter < pageSize; counter++)
+        else
         {
-            message = nextMessage();
-            if (message == null)
-                break; //EOF was reached while populating messageList
-            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, expression, useRegex));
-        }
-        return generatePage(messageList, currentMessage, 1L, 1L, 1L);
-    }
-
+            MessageCandidates candidates = useRegisters ? candidatesOf(LogFilter.text(expression, useRegex)) : null;
+            LiteralScanner scanner = useRegisters && candidates == null ? LiteralScanner.of(expression, useRegex) : null;
+            while (true)
+            {
+                pageBeginPosition = useRegisters ? 0 : currentPosition;
+                message = (candidates != null && !skipToNextMatch(candidates)) || (scanner != null && !skipToLiteral(scanner))
+                    ? null : nextMessage();
+                if (message == null)
+                {
+                    return generatePage(new ArrayList<LogMessage>(0), 0); //EOF was reached while trying to match the expression and the messages
+                }
+                else if (search.isFoundIn(message.subList(1, message.size())))
+                {
+                    pageEndPosition = useRegisters ? 0 : currentPosition;
+                    break;
+                }
+            }
+            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, search));
+        }
+        long firstMessage = useRegisters ? this.currentMessage - 1 : 0; // the number of the message just read
+        long firstPosition = pageBeginPosition;
+
+        for (int counter = 1; counter < pageSize; counter++)
+        {
+            LogMessage logMessage = nextLogMessage(checkExpandRequired, search);
+            if (logMessage == null)
+                break; //EOF was reached while populating messageList
+            messageList.add(logMessage);
+        }
+        return generatePage(messageList, currentMessage, pagingSize, firstMessage, firstPosition, null);
+    }
+
     /*
      * 
      * @return the previous page starting at a message containing the given expression, which is empty if no messages are found
@@ -639,11 +739,12 @@ public class LogFileParserImpl implements LogFileParser
         {
             if (!arePositionsSet((int) currentMessage))
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //This only happens if the EOF was reached when setting the position given by the user
+                return generatePage(new ArrayList<LogMessage>(0), 0); //This only happens if the EOF was reached when setting the position given by the user
             }
         }
         else
         {
+            engine.checkContent();
             useRegisters = false;
             resetOrphans();
         }
@@ -652,33 +753,37 @@ public class LogFileParserImpl implements LogFileParser
 
         List<String> message;
         List<LogMessage> messageList = new ArrayList<>();
-        boolean checkExpandRequired = !expression.isEmpty();
+        SearchExpression search = SearchExpression.compile(expression, useRegex);
+        boolean checkExpandRequired = !search.isEmpty();
+        MessageCandidates candidates = useRegisters && checkExpandRequired ? candidatesOf(LogFilter.text(expression, useRegex)) : null;
 
         while (true)
         {
             pageEndPosition = useRegisters ? 0 : currentPosition;
-            message = prevMessage();
+            message = candidates != null && !skipToPreviousMatch(candidates) ? null : prevMessage();
             if (message == null)
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //BOF was reached while trying to match the expression and the messages
+                return generatePage(new ArrayList<LogMessage>(0), 0); //BOF was reached while trying to match the expression and the messages
             }
-            else if (isExpressionFound(message, expression, useRegex))
+            else if (search.isFoundIn(message.subList(1, message.size())))
             {
                 pageBeginPosition = useRegisters ? 0 : currentPosition;
                 break;
             }
         }
-        currentLine = useRegisters ? messageInitLines.get(this.currentMessage) : 0;
-        currentPosition = useRegisters ? messageInitPositions.get(this.currentMessage) : currentPosition;
+        currentLine = useRegisters ? getMessageInitLine(this.currentMessage) : 0;
+        currentPosition = useRegisters ? getMessageInitPosition(this.currentMessage) : currentPosition;
+
+        long firstMessage = useRegisters ? this.currentMessage : 0;
 
         for (int counter = 0; counter < pageSize; counter++)
         {
-            message = nextMessage();
-            if (message == null)
+            LogMessage logMessage = nextLogMessage(checkExpandRequired, search);
+            if (logMessage == null)
                 break; //EOF was reached while populating messageList
-            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, expression, useRegex));
+            messageList.add(logMessage);
         }
-        return generatePage(messageList, currentMessage, 1L, 1L, 1L);
+        return generatePage(messageList, currentMessage, pageSize, firstMessage, pageBeginPosition, null);
     }
 
     /*
@@ -687,17 +792,44 @@ public class LogFileParserImpl implements LogFileParser
      */
     @Override
     public Page<LogMessage> filterNext(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        return filterNext(LogFilter.text(expression, useRegex), currentMessage, pageSize);
+    }
+
+    /*
+     * 
+     * @return the previous filtered page, which is empty if no messages are found
+     */
+    @Override
+    public Page<LogMessage> filterPrev(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        return filterPrev(LogFilter.text(expression, useRegex), currentMessage, pageSize);
+    }
+
+    /**
+     * Returns the next page of the messages accepted by the filter. When the page is read by message number, the cursor
+     * jumps from one candidate to the next as far as the indexes of the engine reach, and only the candidates are read:
+     * the field indexes serve the level, thread and logger (see {@link LogFileEngine#startFieldIndexing()}), the token
+     * index, if it is built, a literal expression (see {@link LogFileEngine#startTokenIndexing()}), and the trigram index
+     * and the Bloom filters, if they are built, a literal or regex one (see {@link LogFileEngine#startTrigramIndexing()}
+     * and {@link LogFileEngine#startBloomIndexing()}).
+     *
+     * @return the next filtered page, which is empty if the end of file was reached when attempting to set the position given by the user
+     */
+    @Override
+    public Page<LogMessage> filterNext(LogFilter filter, long currentMessage, long pageSize)
     {
 
         if (currentMessage >= 0)
         {
             if (!arePositionsSet((int) currentMessage))
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //This only happens if the EOF was reached when setting the position given by the user
+                return generatePage(new ArrayList<LogMessage>(0), 0); //This only happens if the EOF was reached when setting the position given by the user
             }
         }
         else
         {
+            engine.checkContent();
             useRegisters = false;
             resetOrphans();
         }
@@ -707,56 +839,73 @@ public class LogFileParserImpl implements LogFileParser
         List<String> message;
         List<LogMessage> messageList = new ArrayList<>();
 
-        boolean checkExpandRequired = !expression.isEmpty();
+        SearchExpression search = SearchExpression.compile(filter.getExpression(), filter.isRegex());
+        boolean checkExpandRequired = !search.isEmpty();
+        MessageCandidates candidates = useRegisters ? candidatesOf(filter) : null;
 
+        long firstMessage = 0, firstPosition = 0;
         populate: for (int counter = 0; counter < pageSize; counter++)
         {
             while (true)
             {
-                message = nextMessage();
+                long messagePosition = 0;
+                if (candidates != null && !skipToNextMatch(candidates))
+                {
+                    message = null; //The indexes tell that no more messages are accepted up to the end of file
+                }
+                else
+                {
+                    messagePosition = orphanLine != null ? orphanPosition : currentPosition;
+                    message = nextMessage();
+                }
                 if (message == null)
                 {
                     if (counter == 0)
                     {
-                        return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //EOF was reached while trying to match the expression and the messages
+                        return generatePage(new ArrayList<LogMessage>(0), 0); //EOF was reached while trying to match the expression and the messages
                     }
                     else
                     {
                         break populate;
                     }
                 }
-                else if (isExpressionFound(message, expression, useRegex))
+                else if (filter.accepts(message.subList(1, message.size()), getHeaderLayout(), search))
                 {
                     if (counter == 0)
                     {
                         pageBeginPosition = useRegisters ? 0 : currentPosition;
+                        firstMessage = useRegisters ? this.currentMessage - 1 : 0;
+                        firstPosition = messagePosition;
                     }
                     break;
                 }
             }
-            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, expression, useRegex));
+            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, search));
         }
         pageEndPosition = useRegisters ? 0 : currentPosition;
-        return generatePage(messageList, currentMessage, 1L, 1L, 1L);
+        return generatePage(messageList, currentMessage, pageSize, firstMessage, firstPosition, filterCount(filter));
     }
 
-    /*
-     * 
+    /**
+     * Returns the previous page of the messages accepted by the filter, taking them from the field indexes of the engine
+     * when possible, as {@link #filterNext(LogFilter, long, long)} does.
+     *
      * @return the previous filtered page, which is empty if no messages are found
      */
     @Override
-    public Page<LogMessage> filterPrev(String expression, boolean useRegex, long currentMessage, long pageSize)
+    public Page<LogMessage> filterPrev(LogFilter filter, long currentMessage, long pageSize)
     {
 
         if (currentMessage >= 0)
         {
             if (!arePositionsSet((int) currentMessage))
             {
-                return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //This only happens if the EOF was reached when setting the position given by the user
+                return generatePage(new ArrayList<LogMessage>(0), 0); //This only happens if the EOF was reached when setting the position given by the user
             }
         }
         else
         {
+            engine.checkContent();
             useRegisters = false;
             resetOrphans();
         }
@@ -766,8 +915,11 @@ public class LogFileParserImpl implements LogFileParser
         List<String> message;
         List<LogMessage> messageList = new ArrayList<>();
 
-        boolean checkExpandRequired = !expression.isEmpty();
+        SearchExpression search = SearchExpression.compile(filter.getExpression(), filter.isRegex());
+        boolean checkExpandRequired = !search.isEmpty();
+        MessageCandidates candidates = useRegisters ? candidatesOf(filter) : null;
 
+        long firstMessage = 0, firstPosition = 0;
         int counter;
         populate: for (counter = 0; counter < pageSize; counter++)
         {
@@ -777,53 +929,566 @@ public class LogFileParserImpl implements LogFileParser
                 {
                     pageEndPosition = useRegisters ? 0 : currentPosition;
                 }
-                message = prevMessage();
+                message = candidates != null && !skipToPreviousMatch(candidates) ? null : prevMessage();
                 if (message == null)
                 {
                     if (counter == 0)
                     {
-                        return generatePage(new ArrayList<LogMessage>(0), 0, 1L, 1L, 1L); //BOF was reached while trying to match the expression and the messages
+                        return generatePage(new ArrayList<LogMessage>(0), 0); //BOF was reached while trying to match the expression and the messages
                     }
                     else
                     {
                         break populate;
                     }
                 }
-                else if (isExpressionFound(message, expression, useRegex))
+                else if (filter.accepts(message.subList(1, message.size()), getHeaderLayout(), search))
                 {
+                    firstMessage = useRegisters ? this.currentMessage - 1 : 0;
+                    firstPosition = currentPosition;
                     break;
                 }
             }
-            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, expression, useRegex));
+            messageList.add(convertMessageFromListToLogMessage(message, checkExpandRequired, search));
         }
         Collections.reverse(messageList); //Messages have already been read, but in reverse order: therefore we reorder them correctly here
         pageBeginPosition = useRegisters ? 0 : currentPosition;
-        return generatePage(messageList, currentMessage, 1L, 1L, 1L);
+        return generatePage(messageList, currentMessage, pageSize, firstMessage, firstPosition, filterCount(filter));
+
+    }
+
+    /**
+     * Returns the candidates of a filter given by the indexes of the engine: the field indexes for the fields it
+     * constrains, and the token and trigram indexes and the Bloom filters, if they are built, for its expression; null if
+     * no index narrows the search.
+     */
+    private MessageCandidates candidatesOf(LogFilter filter)
+    {
+        String expression = filter.getExpression();
+        MessageCandidates candidates = filter.hasFields() ? engine.getFieldIndex().candidatesOf(filter) : null;
+        TokenIndex tokens = filter.isRegex() || expression.isEmpty() ? null : engine.getTokenIndex();
+        if (tokens != null)
+        {
+            candidates = both(candidates, tokens.candidatesOf(expression));
+        }
+        TrigramIndex trigrams = expression.isEmpty() ? null : engine.getTrigramIndex();
+        if (trigrams != null)
+        {
+            candidates = both(candidates, trigrams.candidatesOf(expression, filter.isRegex()));
+        }
+        BloomIndex filters = expression.isEmpty() ? null : engine.getBloomIndex();
+        if (filters != null)
+        {
+            candidates = both(candidates, filters.candidatesOf(expression, filter.isRegex()));
+        }
+        return candidates;
+    }
+
+    private static MessageCandidates both(MessageCandidates first, MessageCandidates second)
+    {
+        return first == null || second == null ? (first == null ? second : first) : MessageCandidates.both(first, second);
+    }
+
+    /**
+     * Moves the cursor to the next candidate, if the candidates cover the message at the cursor; otherwise the cursor is
+     * left where it is, and the messages are read one by one.
+     *
+     * @return false iff the candidates tell that no more messages are accepted up to the end of file
+     */
+    private boolean skipToNextMatch(MessageCandidates candidates)
+    {
+        int covered = candidates.getCovered();
+        int number = currentMessage; // the message starting at the cursor
+        if (number > covered)
+        {
+            return true;
+        }
+        int next = candidates.next(number);
+        if (next < 0)
+        { // None of the messages covered is a candidate: the ones after them are read one by one
+            if (candidates.isComplete())
+            {
+                return false;
+            }
+            if (covered < getRegisteredMessages())
+            {
+                setFromRegisters(covered + 1);
+                return true;
+            }
+            setFromRegisters(covered);
+            return nextMessage() != null;
+        }
+        if (next > number)
+        {
+            setFromRegisters(next);
+        }
+        return true;
+    }
 
+    /**
+     * Moves the cursor to the message holding the next occurrence of the literals of the scanner, found in the raw bytes
+     * of the file, so that the messages in between are neither decoded nor checked. The message is found through the
+     * registers, which are first extended up to the occurrence by a scan of the headers if they do not reach it (see
+     * {@link LogFileEngine#registerUpTo(long)}).
+     *
+     * @return false iff the literals do not occur anymore up to the end of file
+     */
+    private boolean skipToLiteral(LiteralScanner scanner)
+    {
+        long offset;
+        try
+        {
+            offset = getReader().find(scanner, currentPosition);
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+            return false;
+        }
+        if (offset < 0)
+        {
+            return false;
+        }
+        int number = engine.getMessageIndex().find(offset) + 1; // the registered message starting before the offset
+        if (number >= getRegisteredMessages())
+        { // Then a message starting after the last registered one, but before the offset, may hold it
+            engine.registerUpTo(offset + 1);
+            number = engine.getMessageIndex().find(offset) + 1;
+        }
+        if (number > currentMessage)
+        {
+            setFromRegisters(number);
+        }
+        return true;
     }
 
-    private Page<LogMessage> generatePage(List<LogMessage> messageList, long currentMessage, long currentPage, long totalPages, long totalCount)
+    /**
+     * Moves the cursor so that {@link #prevMessage()} reads the previous candidate, if the candidates cover the message it
+     * would read otherwise.
+     *
+     * @return false iff the candidates tell that no earlier message is accepted
+     */
+    private boolean skipToPreviousMatch(MessageCandidates candidates)
+    {
+        int number = currentMessage - 2; // the message prevMessage() reads: the one before the message preceding the cursor
+        if (number < 1 || number > candidates.getCovered())
+        {
+            return true;
+        }
+        int previous = candidates.previous(number);
+        if (previous < 0)
+        {
+            return false;
+        }
+        currentMessage = previous + 2;
+        return true;
+    }
+
+    /**
+     * Returns the count of the messages accepted by a filter: the one of its field indexes for a filter on the fields alone,
+     * or else the one of a background counter (see {@link MatchCounter}); null if the filter accepts all the messages.
+     */
+    private FilterCount filterCount(LogFilter filter)
+    {
+        if (filter.acceptsAll())
+        {
+            return null;
+        }
+        return filter.getExpression().isEmpty() ? engine.getFieldIndex().countOf(filter) : engine.getMatchCounter(filter);
+    }
+
+    private PageImpl<LogMessage> generatePage(List<LogMessage> messageList, long currentMessage)
     {
         PageImpl<LogMessage> messagePage = new PageImpl<>();
 
         messagePage.setData(messageList);
         messagePage.setOffset(currentMessage);
-        messagePage.setCurrentPage(messageList.size() > 0 ? currentPage : 0L);
-        messagePage.setTotalCount(messageList.size() > 0 ? totalCount : 0L);
+        messagePage.setCurrentPage(0L);
+        messagePage.setTotalCount(0L);
         messagePage.setPageSize(messageList.size() > 0 ? messageList.size() : 25L);
-        messagePage.setTotalPages(totalPages);
+        messagePage.setTotalPages(0L);
         return messagePage;
     }
 
+    /**
+     * Returns a page of messages numbered among all the messages of the file, or among the ones matching a filter if a
+     * counter is given. The page number and the counts are flagged as estimated when the first message of the page has
+     * been read by position beyond the registers, or when the registers or the count of the filter do not reach the end of
+     * file yet (see {@link #getMessageCount()} and {@link #getMatchCount(LogFilter)}).
+     *
+     * @param pageSize the size of the pages the file is divided into
+     * @param firstMessage the number of the first message of the page, or 0 if it has been read by position
+     * @param firstPosition the starting position of the first message of the page, used when its number is not known
+     */
+    private PageImpl<LogMessage> generatePage(List<LogMessage> messageList, long currentMessage, long pageSize, long firstMessage,
+                                              long firstPosition, FilterCount filter)
+    {
+        PageImpl<LogMessage> messagePage = generatePage(messageList, currentMessage);
+        if (messageList.isEmpty() || pageSize <= 0)
+        {
+            return messagePage;
+        }
+        boolean estimated = false;
+        if (firstMessage <= 0)
+        {
+            long[] number = numberAt(firstPosition);
+            firstMessage = number[0];
+            estimated = number[1] != 0;
+        }
+        long[] count = countMessages();
+        long before = firstMessage - 1;
+        long total = count[0];
+        estimated |= count[1] != 0;
+        if (filter != null)
+        { // Then the pages are numbered among the matching messages
+            int scanned = filter.getScanned();
+            int matched = filter.getMatched();
+            count = countMatches(filter, total);
+            total = count[0];
+            estimated |= count[1] != 0;
+            if (before <= scanned)
+            {
+                before = filter.matchesUpTo((int) before);
+            }
+            else
+            {
+                estimated = true;
+                before = scanned == 0 ? 0 : Math.round((double) matched * before / scanned);
+            }
+        }
+        total = Math.max(total, before + messageList.size());
+        lastPageStart = before;
+        messagePage.setCurrentPage(before / pageSize + 1);
+        messagePage.setTotalCount(total);
+        messagePage.setTotalPages((total + pageSize - 1) / pageSize);
+        messagePage.setEstimated(estimated);
+        return messagePage;
+    }
+
+    /**
+     * Returns the number of messages, or of matching messages for a filtered page, before the first message of the last
+     * non-empty page returned by this parser.
+     */
+    long getLastPageStart()
+    {
+        return lastPageStart;
+    }
+
+    /**
+     * Returns the number of messages in the file. The count is exact once the registers reach the end of file (see
+     * {@link #isIndexComplete()}). Until then it is estimated from the average size of the messages registered so far, or
+     * of a sample of the file after them if they are too few, and it is refined as the registers grow.
+     */
+    public long getMessageCount()
+    {
+        return countMessages()[0];
+    }
+
+    /**
+     * Returns true if {@link #getMessageCount()} would return an estimate.
+     */
+    public boolean isMessageCountEstimated()
+    {
+        return countMessages()[1] != 0;
+    }
+
+    /**
+     * Returns the number of messages matching the given filter, counted on a background thread of the engine that is
+     * started by this call or by the first page of the filter. Until the count reaches the end of file (see
+     * {@link #isMatchCountComplete(String, boolean)}), the number is estimated from the proportion of matching messages
+     * among the ones counted so far.
+     */
+    public long getMatchCount(String expression, boolean useRegex)
+    {
+        return getMatchCount(LogFilter.text(expression, useRegex));
+    }
+
+    /**
+     * Returns true if the background count of the messages matching the given filter has reached the end of file.
+     */
+    public boolean isMatchCountComplete(String expression, boolean useRegex)
+    {
+        return isMatchCountComplete(LogFilter.text(expression, useRegex));
+    }
+
+    /**
+     * Returns the number of messages accepted by the given filter, as {@link #getMatchCount(String, boolean)} does. A filter
+     * on the fields alone is counted by the field indexes, without reading the messages again.
+     */
+    public long getMatchCount(LogFilter filter)
+    {
+        FilterCount count = filterCount(filter);
+        return count == null ? getMessageCount() : countMatches(count, getMessageCount())[0];
+    }
+
+    public boolean isMatchCountComplete(LogFilter filter)
+    {
+        FilterCount count = filterCount(filter);
+        return count == null ? !isMessageCountEstimated() : count.isComplete();
+    }
+
+    /**
+     * Returns the number of messages matching a filter among the given number of messages of the file, and 1 if it is
+     * estimated or 0 if it is exact.
+     */
+    private static long[] countMatches(FilterCount filter, long messages)
+    {
+        if (filter.isComplete())
+        {
+            return new long[] { filter.getMatched(), 0 };
+        }
+        int matched = filter.getMatched();
+        int scanned = filter.getScanned();
+        return new long[] { scanned == 0 ? 0 : Math.max(matched, Math.round((double) matched * messages / scanned)), 1 };
+    }
+
+    /**
+     * Returns the number of messages of the file, and 1 if it is estimated or 0 if it is exact.
+     */
+    private long[] countMessages()
+    {
+        if (engine.isIndexComplete())
+        {
+            return new long[] { getRegisteredMessages(), 0 };
+        }
+        MessageIndex messageIndex = engine.getMessageIndex();
+        int registered = messageIndex.size();
+        long lastPosition = messageIndex.lastPosition();
+        long size;
+        try
+        {
+            size = getReader().size();
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+            return new long[] { registered, 1 };
+        }
+        long registeredBytes = lastPosition - engine.getBeginningOfMessages();
+        if (registeredBytes >= ESTIMATE_SAMPLE && registered > 1)
+        { // The registered messages are a large enough sample
+            bytesPerMessage = (double) registeredBytes / (registered - 1);
+            return new long[] { registered - 1 + Math.max(1, Math.round((size - lastPosition) / bytesPerMessage)), 1 };
+        }
+        if (sampleFrom != lastPosition || sampleFileSize != size)
+        { // The messages after the registered ones are counted over a sample of the file, once for each state of the registers
+            sampleFrom = lastPosition;
+            sampleFileSize = size;
+            sampleTo = Math.min(size, lastPosition + ESTIMATE_SAMPLE);
+            sampleMessages = countMessagesAndLines(lastPosition, sampleTo)[0];
+            bytesPerMessage = (double) (sampleTo - lastPosition) / Math.max(1, sampleMessages);
+        }
+        if (sampleTo >= size)
+        { // Then the sample reaches the end of file
+            return new long[] { registered - 1 + sampleMessages, 0 };
+        }
+        return new long[] { registered - 1 + sampleMessages + Math.round((size - sampleTo) / bytesPerMessage), 1 };
+    }
+
+    /**
+     * Returns the number of the message starting at the given position, and 1 if it is estimated or 0 if it is exact.
+     * The number is exact if the message is registered or close to the last registered one, and estimated from the
+     * average size of the messages otherwise.
+     */
+    private long[] numberAt(long position)
+    {
+        MessageIndex messageIndex = engine.getMessageIndex();
+        int entry = messageIndex.find(position);
+        if (entry >= 0 && messageIndex.position(entry) == position)
+        { // Entry k-1 stores message k
+            return new long[] { entry + 1, 0 };
+        }
+        if (position <= messageIndex.lastPosition())
+        {
+            return new long[] { Math.max(1, entry + 1), 1 };
+        }
+        if (position - messageIndex.lastPosition() <= ESTIMATE_SAMPLE)
+        { // Close enough to the registers to count the messages in between
+            return new long[] { messageIndex.size() + countMessagesAndLines(messageIndex.lastPosition(), position)[0], 0 };
+        }
+        countMessages(); // sets the average size of the messages
+        long after = bytesPerMessage > 0 ? Math.round((position - messageIndex.lastPosition()) / bytesPerMessage) : 0;
+        return new long[] { messageIndex.size() + Math.max(1, after), 1 };
+    }
+
+    /**
+     * Returns the last messages of the file, reading it backward from the end only as far as the page needs.
+     * The offset of the page (the number of messages before it) and the starting rows of the messages are exact when the
+     * first message of the page is registered. Otherwise they are estimated from the average size of the messages
+     * registered so far, and the page is flagged as estimated: they become exact once the registers reach the end of the
+     * file, for instance after {@link #startBackgroundIndexing()}.
+     */
     public Page<LogMessage> getLastMessages(long size)
     {
-        long begin = System.currentTimeMillis();
-        while (nextMessage() != null)
-        {}
-        long end = System.currentTimeMillis();
-        double time = ((double) end - begin) / 1000;
-        System.out.println(time);
-        return prevPage(currentMessage - 2, size);
+        engine.checkContent();
+        if (!setCurrentPositionToEndOfFile())
+        {
+            return generatePage(new ArrayList<LogMessage>(0), 0);
+        }
+        long endOfFile = currentPosition;
+
+        // Read the messages backward, by position only: the registers are not involved
+        boolean registerMode = useRegisters;
+        useRegisters = false;
+        resetOrphans();
+        List<List<String>> messages = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        int lineCount = 0;
+        MessageIndex messageIndex = engine.getMessageIndex();
+        long beginningOfMessages = engine.getBeginningOfMessages();
+        while (messages.size() < size && currentPosition > beginningOfMessages)
+        {
+            List<String> message = prevMessage();
+            if (message == null)
+            {
+                break;
+            }
+            messages.add(message);
+            positions.add(currentPosition);
+            lineCount += message.size() - 1;
+        }
+        useRegisters = registerMode;
+        Collections.reverse(messages);
+        Collections.reverse(positions);
+        pageBeginPosition = currentPosition;
+        pageEndPosition = endOfFile;
+        if (messages.isEmpty())
+        {
+            return generatePage(new ArrayList<LogMessage>(0), 0);
+        }
+
+        // Number the first message of the page, then the following ones from it
+        long firstPosition = positions.get(0);
+        int entry = messageIndex.find(firstPosition);
+        boolean estimated = false;
+        long messagesBefore;
+        long row;
+        if (entry >= 0 && messageIndex.position(entry) == firstPosition)
+        {
+            messagesBefore = entry;
+            row = messageIndex.line(entry) + 1;
+        }
+        else
+        { // Count the messages after the last registered one, up to the page if it is close enough, or estimate the rest
+            long lastPosition = messageIndex.lastPosition();
+            long sampleEnd = lastPosition - beginningOfMessages < ESTIMATE_SAMPLE ? Math.min(firstPosition, lastPosition + ESTIMATE_SAMPLE)
+                                                                                  : lastPosition;
+            long[] counts = countMessagesAndLines(lastPosition, sampleEnd);
+            messagesBefore = getRegisteredMessages() - 1 + counts[0];
+            row = messageIndex.lastLine() + counts[1] + 1;
+            if (sampleEnd < firstPosition)
+            {
+                estimated = true;
+                long knownLines = row - 1 - engine.getStartingLineOfFirstMessage();
+                double bytesPerMessage = (double) (sampleEnd - beginningOfMessages) / messagesBefore;
+                double bytesPerLine = (double) (sampleEnd - beginningOfMessages) / knownLines;
+                messagesBefore += Math.round((firstPosition - sampleEnd) / bytesPerMessage);
+                row += Math.round((firstPosition - sampleEnd) / bytesPerLine);
+            }
+        }
+
+        List<LogMessage> messageList = new ArrayList<>(messages.size());
+        for (List<String> message : messages)
+        {
+            message.set(0, String.valueOf(row));
+            messageList.add(convertMessageFromListToLogMessage(message, false, null));
+            row += message.size() - 1;
+        }
+        PageImpl<LogMessage> page = generatePage(messageList, messagesBefore, size, messagesBefore + 1, firstPosition, null);
+        page.setEstimated(estimated || page.isEstimated());
+        if (prefetcher != null && !estimated)
+        {
+            prefetcher.pageServed(messagesBefore + 1, messagesBefore + messageList.size(), false);
+        }
+        return page;
+    }
+
+    /**
+     * Starts decoding ahead, on a pool of daemon threads, the page following each page read by message number, in the
+     * direction of the reading (see {@link #startPrefetching(ExecutorService, int)}).
+     */
+    public void startPrefetching()
+    {
+        startPrefetching(PagePrefetcher.defaultExecutor(), PagePrefetcher.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Starts decoding ahead, on the given executor, the pages that are likely to be asked next: after nextPage() the
+     * following ones, after prevPage() and getLastMessages() the preceding ones. They are kept in the message cache of the
+     * engine, so that the next request does not read the file. Pages read by position are not prefetched.
+     *
+     * @param depth the number of pages decoded ahead
+     */
+    public void startPrefetching(ExecutorService executor, int depth)
+    {
+        stopPrefetching();
+        prefetcher = new PagePrefetcher(engine, executor, depth);
+    }
+
+    public void stopPrefetching()
+    {
+        if (prefetcher != null)
+        {
+            try
+            {
+                prefetcher.close();
+            }
+            catch (IOException e)
+            {
+                System.out.println("I/O Exception: " + e);
+            }
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * Returns the number of pages requested since prefetching was started that had been entirely prefetched.
+     */
+    public long getPrefetchHits()
+    {
+        return prefetcher == null ? 0 : prefetcher.getHits();
+    }
+
+    /**
+     * Returns the number of pages requested since prefetching was started that had not been entirely prefetched.
+     */
+    public long getPrefetchMisses()
+    {
+        return prefetcher == null ? 0 : prefetcher.getMisses();
+    }
+
+    /**
+     * Returns the fraction of the pages requested that had been entirely prefetched, between 0 and 1.
+     */
+    public double getPrefetchHitRate()
+    {
+        long requests = getPrefetchHits() + getPrefetchMisses();
+        return requests == 0 ? 0 : (double) getPrefetchHits() / requests;
+    }
+
+    /**
+     * Counts the messages and the lines starting between the two positions, the first one being the beginning of a line.
+     * 
+     * @return the number of messages and the number of lines
+     */
+    private long[] countMessagesAndLines(long from, long to)
+    {
+        long[] counts = new long[2];
+        try
+        {
+            LineReader reader = getReader();
+            reader.position(from);
+            String line;
+            while (reader.position() < to && (line = reader.readLine()) != null)
+            {
+                counts[0] += isStartOfMessage(line) ? 1 : 0;
+                counts[1]++;
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+        return counts;
     }
 
     @SuppressWarnings("unused")
@@ -844,45 +1509,68 @@ public class LogFileParserImpl implements LogFileParser
     @Override
     public boolean hasTimestamp()
     {
-        return true;
+        return getHeaderLayout().has(HeaderLayout.Field.TIMESTAMP);
     }
 
     @Override
     public boolean hasLogLevel()
     {
-        return true;
+        return getHeaderLayout().has(HeaderLayout.Field.LEVEL);
     }
 
     @Override
     public boolean hasThreadName()
     {
-        return true;
+        return getHeaderLayout().has(HeaderLayout.Field.THREAD);
     }
 
     @Override
     public boolean hasLoggerName()
     {
-        return true;
+        return getHeaderLayout().has(HeaderLayout.Field.LOGGER);
     }
 
     @Override
     public boolean hasMessage()
     {
-        return true;
+        return getHeaderLayout().has(HeaderLayout.Field.MESSAGE);
     }
 
     @SuppressWarnings("unused")
     private void testingRegisters()
     {
         System.out.println("messageInitPositions:");
-        for (Long l : messageInitPositions)
+        for (int i = 1; i <= getRegisteredMessages(); i++)
         {
-            System.out.println(l);
+            System.out.println(getMessageInitPosition(i));
         }
         System.out.println("\nmessageInitLines:");
-        for (Integer i : messageInitLines)
+        for (int i = 1; i <= getRegisteredMessages(); i++)
         {
-            System.out.println(i);
+            System.out.println(getMessageInitLine(i));
+        }
+    }
+
+    /**
+     * Saves the registers and releases the file handle held by this parser, closing also the engine if it has been created
+     * by this parser. The parser can still be used afterwards: the file is opened again when needed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        stopPrefetching();
+        if (ownsEngine)
+        {
+            engine.close();
+        }
+        else
+        {
+            engine.saveIndex();
+        }
+        if (reader != null)
+        {
+            reader.close();
+            reader = null;
         }
     }
 
@@ -893,11 +1581,54 @@ public class LogFileParserImpl implements LogFileParser
         return setCurrentPositionToEndOfFile() ? prevPage(-1, size) : null;
     }
 
+    /**
+     * Returns the starting position of the first message logged at or after the given instant, or the size of the file if
+     * there is none, without reading the messages before it (see {@link TimeSeeker}). Returns -1 if the file cannot be read.
+     */
+    public long seekToTime(Instant instant)
+    {
+        try
+        {
+            LineReader reader = getReader();
+            TimeSeeker seeker = new TimeSeeker(reader, getStartDetector(), getHeaderLayout());
+            return seeker.seek(engine.getBeginningOfMessages(), reader.size(), instant.toEpochMilli());
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the page starting at the first message logged at or after the given instant. When that message is already
+     * registered, the page is the same that {@link #nextPage(long, long)} returns for it; otherwise the page is read by
+     * position, as {@link #getLastPage(long)} does, and the following pages can be read with nextPage(-1, size).
+     */
+    @Override
+    public Page<LogMessage> pageAt(Instant instant, long pageSize)
+    {
+        long position = seekToTime(instant);
+        if (position < 0)
+        {
+            return generatePage(new ArrayList<LogMessage>(0), 0);
+        }
+        MessageIndex messageIndex = engine.getMessageIndex();
+        int entry = messageIndex.find(position);
+        if (useRegisters && entry >= 0 && messageIndex.position(entry) == position)
+        { // Entry k-1 stores message k, which is read after message k-1
+            return nextPage(entry, pageSize);
+        }
+        pageBeginPosition = position;
+        pageEndPosition = position;
+        return nextPage(-1, pageSize);
+    }
+
     private boolean setCurrentPositionToEndOfFile()
     {
-        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ))
+        try
         {
-            currentPosition = fileChannel.size();
+            currentPosition = getReader().size();
             pageBeginPosition = currentPosition;
             pageEndPosition = currentPosition;
             return true;
@@ -0,0 +1,191 @@
+package it.csttech.core.logging;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * A structured filter of the messages of a log file: the accepted values of the level, thread and logger fields of the
+ * header, and an expression to be found in the text of the message. A message is accepted if it has one of the accepted
+ * values of each field constrained and contains the expression, if any; field values are compared exactly.
+ * Filters on the fields are served from the field indexes of the file (see {@link LogFileParserImpl#filterNext(LogFilter,
+ * long, long)}), so they neither read the messages they skip nor match text that merely looks like a level.
+ * A filter is immutable: the and... methods return a new one.
+ */
+public final class LogFilter implements Serializable
+{
+    private static final long serialVersionUID = 4012870417593626405L;
+
+    private static final LogFilter ALL = new LogFilter(null, null, null, "", false);
+
+    private final Set<String> levels, threads, loggers; // null if the field is not constrained
+    private final String expression;
+    private final boolean useRegex;
+
+    private LogFilter(Set<String> levels, Set<String> threads, Set<String> loggers, String expression, boolean useRegex)
+    {
+        this.levels = levels;
+        this.threads = threads;
+        this.loggers = loggers;
+        this.expression = expression;
+        this.useRegex = useRegex;
+    }
+
+    /**
+     * Returns the filter accepting the messages logged at one of the given levels, such as "ERROR".
+     */
+    public static LogFilter level(String... levels)
+    {
+        return ALL.andLevel(levels);
+    }
+
+    /**
+     * Returns the filter accepting the messages logged by one of the given threads.
+     */
+    public static LogFilter thread(String... threads)
+    {
+        return ALL.andThread(threads);
+    }
+
+    /**
+     * Returns the filter accepting the messages logged by one of the given loggers.
+     */
+    public static LogFilter logger(String... loggers)
+    {
+        return ALL.andLogger(loggers);
+    }
+
+    /**
+     * Returns the filter accepting the messages containing the given expression, as the filter methods taking a string do.
+     */
+    public static LogFilter text(String expression, boolean useRegex)
+    {
+        return ALL.andText(expression, useRegex);
+    }
+
+    public LogFilter andLevel(String... levels)
+    {
+        return new LogFilter(setOf(levels), threads, loggers, expression, useRegex);
+    }
+
+    public LogFilter andThread(String... threads)
+    {
+        return new LogFilter(levels, setOf(threads), loggers, expression, useRegex);
+    }
+
+    public LogFilter andLogger(String... loggers)
+    {
+        return new LogFilter(levels, threads, setOf(loggers), expression, useRegex);
+    }
+
+    public LogFilter andText(String expression, boolean useRegex)
+    {
+        return new LogFilter(levels, threads, loggers, expression == null ? "" : expression, useRegex);
+    }
+
+    private static Set<String> setOf(String... values)
+    {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(values)));
+    }
+
+    /**
+     * Returns the accepted levels, or null if the level is not constrained.
+     */
+    public Set<String> getLevels()
+    {
+        return levels;
+    }
+
+    public Set<String> getThreads()
+    {
+        return threads;
+    }
+
+    public Set<String> getLoggers()
+    {
+        return loggers;
+    }
+
+    public String getExpression()
+    {
+        return expression;
+    }
+
+    public boolean isRegex()
+    {
+        return useRegex;
+    }
+
+    /**
+     * Returns true if at least one field of the header is constrained.
+     */
+    public boolean hasFields()
+    {
+        return levels != null || threads != null || loggers != null;
+    }
+
+    /**
+     * Returns true if this filter accepts all the messages.
+     */
+    boolean acceptsAll()
+    {
+        return !hasFields() && expression.isEmpty();
+    }
+
+    /**
+     * Returns true if the given message is accepted by the fields of this filter (the expression is not checked, since it
+     * is matched against the lines as read from the file).
+     */
+    public boolean acceptsFields(LogMessage message)
+    {
+        return accepts(levels, message.getLogLevel()) && accepts(threads, message.getThreadName()) && accepts(loggers, message.getLoggerName());
+    }
+
+    /**
+     * Returns true if the message made of the given lines, as read from the file, is accepted by this filter.
+     *
+     * @param layout the layout used to split the first line into its fields
+     * @param search the compiled expression of this filter
+     */
+    boolean accepts(List<String> lines, HeaderLayout layout, SearchExpression search)
+    {
+        if (hasFields())
+        {
+            if (!layout.tokenize(lines.get(0)) || !accepts(levels, layout.get(HeaderLayout.Field.LEVEL))
+                || !accepts(threads, layout.get(HeaderLayout.Field.THREAD)) || !accepts(loggers, layout.get(HeaderLayout.Field.LOGGER)))
+            {
+                return false;
+            }
+        }
+        return search.isFoundIn(lines);
+    }
+
+    private static boolean accepts(Set<String> values, String value)
+    {
+        return values == null || (value != null && values.contains(value));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return toString().hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof LogFilter && toString().equals(object.toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LogFilter [levels=" + levels + ", threads=" + threads + ", loggers=" + loggers + ", expression=" + expression + ", useRegex="
+               + useRegex + "]";
+    }
+
+}
@@ -0,0 +1,223 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Follows a log file that is still being written, on a background thread: the file is polled for growth, only the
+ * appended bytes are scanned, the new messages are registered, and the completed ones are pushed to the listeners.
+ * A message is held back until the header of the following one is written, since more lines can still be appended to
+ * it, and so is a trailing line without terminator. If the file is truncated or replaced, the registers of the engine
+ * are reset and the new content is followed from its beginning.
+ */
+final class LogFollower implements Runnable
+{
+    static final long DEFAULT_POLL_INTERVAL = 200; // milliseconds
+
+    private final LogFileEngine engine;
+    private final Path file;
+    private final FileAccessMode accessMode;
+    private final String regex;
+    private final HeaderLayout layout;
+    private final List<LogMessageListener> listeners;
+    private final long pollInterval;
+
+    private volatile boolean stopped;
+    private Thread thread;
+
+    // The scan state: the next line to read, and the message read so far (held back until the next header)
+    private MessageIndex index; // null after a truncation, until the first message of the new content is found
+    private long position;
+    private int line;
+    private List<String> pendingLines;
+    private int pendingLine;
+    private long pushFrom; // messages completed by a header starting before this position are not pushed
+
+    LogFollower(LogFileEngine engine, Path file, FileAccessMode accessMode, String regex, HeaderLayout layout,
+                List<LogMessageListener> listeners, long pollInterval)
+    {
+        this.engine = engine;
+        this.file = file;
+        this.accessMode = accessMode;
+        this.regex = regex;
+        this.layout = layout;
+        this.listeners = listeners;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Starts following the file from the last registered message: the messages already in the file are registered, but
+     * only the ones completed after this call are pushed.
+     */
+    void start(MessageIndex index)
+    {
+        this.index = index;
+        position = index.lastPosition();
+        line = index.lastLine();
+        try
+        {
+            pushFrom = Files.size(file);
+        }
+        catch (IOException e)
+        {
+            pushFrom = Long.MAX_VALUE;
+        }
+        thread = new Thread(this, "log-follower-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop()
+    {
+        stopped = true;
+        if (thread != null)
+        {
+            thread.interrupt();
+        }
+    }
+
+    boolean isRunning()
+    {
+        return thread != null && thread.isAlive() && !stopped;
+    }
+
+    @Override
+    public void run()
+    {
+        MessageStartDetector detector = MessageStartDetector.compile(regex);
+        LineReader reader = null;
+        Object fileKey = null;
+        try
+        {
+            while (!stopped)
+            {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                boolean replaced = fileKey != null && attributes.fileKey() != null && !fileKey.equals(attributes.fileKey());
+                if (reader == null || replaced || attributes.size() < position)
+                {
+                    if (reader != null)
+                    { // Then the file has been truncated, or replaced by a new one
+                        reader.close();
+                        reset();
+                    }
+                    reader = LineReader.open(file, accessMode);
+                    fileKey = attributes.fileKey();
+                }
+                if (attributes.size() > position)
+                {
+                    reader.invalidate();
+                    scan(reader, detector);
+                    engine.fileChanged();
+                }
+                Thread.sleep(pollInterval);
+            }
+        }
+        catch (InterruptedException | ClosedByInterruptException e)
+        { // Then the follower has been stopped
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    System.out.println("I/O Exception: " + e);
+                }
+            }
+        }
+    }
+
+    private void reset()
+    {
+        index = null;
+        position = 0;
+        line = 0;
+        pendingLines = null;
+        pushFrom = 0;
+        for (LogMessageListener listener : listeners)
+        {
+            try
+            {
+                listener.logTruncated();
+            }
+            catch (RuntimeException e)
+            { // A failing listener must neither stop the follower nor keep the others from being notified
+                System.out.println("Listener Exception: " + e);
+            }
+        }
+    }
+
+    /**
+     * Reads the complete lines appended since the last scan.
+     */
+    private void scan(LineReader reader, MessageStartDetector detector) throws IOException
+    {
+        List<LogMessage> completed = new ArrayList<>();
+        reader.position(position);
+        String text;
+        while (!stopped && (text = reader.readLine()) != null)
+        {
+            char last = text.charAt(text.length() - 1);
+            if (last != '\n' && (last != '\r' || reader.position() == reader.size()))
+            { // Then the line is still being written, or its "\r\n" terminator may be
+                break;
+            }
+
+            if (detector.matches(text))
+            {
+                if (pendingLines != null && position >= pushFrom)
+                {
+                    completed.add(layout.toLogMessage(pendingLine + 1, pendingLines, false));
+                }
+                if (index == null)
+                { // The first message of a new content
+                    index = new MessageIndex();
+                    index.add(position, 0);
+                    line = 0;
+                    engine.resetRegisters(index, position);
+                }
+                index.addIfAfter(position, line);
+                pendingLines = new ArrayList<>();
+                pendingLine = line;
+            }
+            if (pendingLines != null)
+            {
+                pendingLines.add(text);
+            }
+            position = reader.position();
+            line += index == null ? 0 : 1;
+        }
+
+        if (!completed.isEmpty())
+        {
+            completed = Collections.unmodifiableList(completed);
+            for (LogMessageListener listener : listeners)
+            {
+                try
+                {
+                    listener.messagesAppended(completed);
+                }
+                catch (RuntimeException e)
+                { // A failing listener must neither stop the follower nor keep the others from being notified
+                    System.out.println("Listener Exception: " + e);
+                }
+            }
+        }
+    }
+
+}
@@ -7,7 +7,12 @@ import java.util.List;
 public class LogMessage
 {
 
-    private final Date timestamp;
+    /**
+     * The value of {@link #getTimestampMillis()} for the messages without timestamp.
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final long timestampMillis;
 
     private final String logLevel;
 
@@ -27,12 +32,17 @@ public class LogMessage
     }
 
     public LogMessage(long startRow, Date timestamp, String logLevel, String threadName, String loggerName, List<String> lines, boolean expandRequired)
+    {
+        this(startRow, timestamp == null ? NO_TIMESTAMP : timestamp.getTime(), logLevel, threadName, loggerName, lines, expandRequired);
+    }
+
+    public LogMessage(long startRow, long timestampMillis, String logLevel, String threadName, String loggerName, List<String> lines, boolean expandRequired)
     {
         if (lines == null || lines.isEmpty())
             throw new IllegalArgumentException("At least one line is required to build a message");
 
         this.startRow = startRow;
-        this.timestamp = timestamp;
+        this.timestampMillis = timestampMillis;
         this.logLevel = logLevel;
         this.threadName = threadName;
         this.loggerName = loggerName;
@@ -45,9 +55,20 @@ public class LogMessage
         return startRow;
     }
 
+    /**
+     * Returns the timestamp of this message as a new Date, or null if the message has no timestamp.
+     */
     public Date getTimestamp()
     {
-        return timestamp;
+        return timestampMillis == NO_TIMESTAMP ? null : new Date(timestampMillis);
+    }
+
+    /**
+     * Returns the timestamp of this message in milliseconds since the epoch, or {@link #NO_TIMESTAMP}.
+     */
+    public long getTimestampMillis()
+    {
+        return timestampMillis;
     }
 
     public String getLogLevel()
@@ -0,0 +1,25 @@
+package it.csttech.core.logging;
+
+import java.util.List;
+
+
+/**
+ * Receives the messages appended to a followed log file (see {@link LogFileParserImpl#startFollowing()}).
+ * Listeners are called from the thread that follows the file.
+ */
+public interface LogMessageListener
+{
+
+    /**
+     * Called with the messages completed since the last call, in file order. A message is complete once the header of the
+     * following one has been written.
+     */
+    public void messagesAppended(List<LogMessage> messages);
+
+    /**
+     * Called when the file has been truncated or replaced: the messages received so far are gone, and numbering restarts
+     * from the beginning of the new content.
+     */
+    public void logTruncated();
+
+}
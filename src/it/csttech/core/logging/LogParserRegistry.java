@@ -0,0 +1,259 @@
+package it.csttech.core.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Hands out parsers that share one {@link LogFileEngine} per log file, so that the registers of a file are built once
+ * however many users open it. Engines are keyed by the canonical path and the identity of the file (its file key, where
+ * the file system has one) together with the parsing settings: a file replaced under the same name gets a new engine.
+ * The heap of all the engines (their registers, message caches and indexes) is kept within a budget: when it is exceeded,
+ * the least recently used engines drop their caches and indexes and spill their registers to their sidecar files, from
+ * which they are loaded again on their next use.
+ * A registry is thread-safe; {@link #getDefault()} returns the one shared by the whole process.
+ */
+public class LogParserRegistry implements Closeable
+{
+    public static final long DEFAULT_HEAP_BUDGET = 256L * 1024 * 1024;
+
+    private static final LogParserRegistry defaultRegistry = new LogParserRegistry(DEFAULT_HEAP_BUDGET);
+
+    private final Map<String, LogFileEngine> engines = new HashMap<>();
+    private volatile long heapBudget;
+
+    private long hits, misses, spills, spilledBytes;
+
+    public LogParserRegistry(long heapBudget)
+    {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Returns the registry shared by the whole process, with a budget of {@value #DEFAULT_HEAP_BUDGET} bytes.
+     */
+    public static LogParserRegistry getDefault()
+    {
+        return defaultRegistry;
+    }
+
+    public long getHeapBudget()
+    {
+        return heapBudget;
+    }
+
+    /**
+     * Sets the heap that all the engines may take, in bytes, and spills engines if it is exceeded.
+     */
+    public void setHeapBudget(long heapBudget)
+    {
+        this.heapBudget = heapBudget;
+        trim();
+    }
+
+    /**
+     * Returns a new parser of the given file, positioned at its first message, using the standard regex and timestamp format.
+     */
+    public LogFileParserImpl open(String filename)
+    {
+        return open(filename, LogFileParserImpl.STANDARD_REGEX, LogFileParserImpl.STANDARD_TIMESTAMP);
+    }
+
+    public LogFileParserImpl open(String filename, String regex, String timestampFormat)
+    {
+        return open(filename, regex, timestampFormat, FileAccessMode.BUFFERED, HeaderLayout.defaultConversionPattern(timestampFormat));
+    }
+
+    /**
+     * Returns a new parser of the given file, positioned at its first message. The parser is a cursor on the engine of the
+     * file shared through this registry: closing it does not close the engine.
+     */
+    public LogFileParserImpl open(String filename, String regex, String timestampFormat, FileAccessMode accessMode,
+                                  String conversionPattern)
+    {
+        return new LogFileParserImpl(getEngine(filename, regex, timestampFormat, accessMode, conversionPattern));
+    }
+
+    /**
+     * Returns the engine of the given file, creating it if no engine with the same settings is registered for it.
+     *
+     * @throws IllegalArgumentException if the file does not exist or does not contain any message
+     */
+    public LogFileEngine getEngine(String filename, String regex, String timestampFormat, FileAccessMode accessMode,
+                                   String conversionPattern)
+    {
+        Path file = Paths.get(filename);
+        String path, identity;
+        try
+        {
+            path = file.toRealPath().toString();
+            Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            identity = fileKey == null ? "" : fileKey.toString();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("This file does not exist");
+        }
+        String prefix = path + '\n';
+        String key = prefix + identity + '\n' + regex + '\n' + timestampFormat + '\n' + accessMode + '\n' + conversionPattern;
+
+        LogFileEngine engine;
+        synchronized (this)
+        {
+            engine = engines.get(key);
+            if (engine != null)
+            {
+                hits++;
+            }
+            else
+            {
+                misses++;
+                for (Iterator<Map.Entry<String, LogFileEngine>> i = engines.entrySet().iterator(); i.hasNext();)
+                {
+                    Map.Entry<String, LogFileEngine> entry = i.next();
+                    if (entry.getKey().startsWith(prefix) && !entry.getKey().startsWith(prefix + identity + '\n'))
+                    { // Then the file has been replaced: the engine of its previous content is dropped
+                        close(entry.getValue());
+                        i.remove();
+                    }
+                }
+                engine = new LogFileEngine(path, regex, timestampFormat, accessMode, conversionPattern);
+                engine.setRegistry(this);
+                engines.put(key, engine);
+            }
+        }
+        trim(); // on a hit as well, since the engines grow while they are used
+        return engine;
+    }
+
+    /**
+     * Spills the least recently used engines (see {@link LogFileEngine#spill()}) until all the engines fit into the budget.
+     * This method is called whenever an engine is handed out and whenever the registers of an engine reach the end of its
+     * file, but the engines also grow while the files are read: it can be called from time to time to enforce the budget.
+     */
+    public synchronized void trim()
+    {
+        long footprint = getHeapFootprint();
+        if (footprint <= heapBudget)
+        {
+            return;
+        }
+        List<LogFileEngine> byLastUse = new ArrayList<>(engines.values());
+        Collections.sort(byLastUse, new Comparator<LogFileEngine>()
+        {
+            @Override
+            public int compare(LogFileEngine a, LogFileEngine b)
+            {
+                return Long.compare(a.getLastUsed() - b.getLastUsed(), 0);
+            }
+        });
+        for (LogFileEngine engine : byLastUse)
+        {
+            if (footprint <= heapBudget)
+            {
+                break;
+            }
+            long released = engine.spill();
+            if (released > 0)
+            {
+                footprint -= released;
+                spills++;
+                spilledBytes += released;
+            }
+        }
+    }
+
+    /**
+     * Returns the heap used by all the engines, in bytes (see {@link LogFileEngine#getHeapFootprint()}).
+     */
+    public synchronized long getHeapFootprint()
+    {
+        long footprint = 0;
+        for (LogFileEngine engine : engines.values())
+        {
+            footprint += engine.getHeapFootprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * Returns the number of requests served by an engine already registered.
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests that created a new engine.
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of times an engine has been spilled to keep within the budget.
+     */
+    public synchronized long getSpills()
+    {
+        return spills;
+    }
+
+    /**
+     * Returns the heap released by spilling engines so far, in bytes.
+     */
+    public synchronized long getSpilledBytes()
+    {
+        return spilledBytes;
+    }
+
+    public synchronized int getEngineCount()
+    {
+        return engines.size();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "LogParserRegistry [engines=" + engines.size() + ", heapFootprint=" + getHeapFootprint() + ", heapBudget=" + heapBudget
+               + ", hits=" + hits + ", misses=" + misses + ", spills=" + spills + ", spilledBytes=" + spilledBytes + "]";
+    }
+
+    private static void close(LogFileEngine engine)
+    {
+        try
+        {
+            engine.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    /**
+     * Closes all the engines, saving their registers, and empties the registry.
+     */
+    @Override
+    public synchronized void close()
+    {
+        for (LogFileEngine engine : engines.values())
+        {
+            close(engine);
+        }
+        engines.clear();
+    }
+
+}
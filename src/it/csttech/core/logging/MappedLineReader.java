@@ -0,0 +1,104 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A {@link LineReader} that scans the file through memory-mapped windows instead of copying it into a heap buffer.
+ * Windows are aligned to half of their size and the most recently used ones are kept, so that going back and forth
+ * around the same area reuses the same mappings; files larger than 2 GB are read one window at a time.
+ * If the file cannot be mapped, the reader falls back to the heap buffer of {@link LineReader}.
+ */
+class MappedLineReader extends LineReader
+{
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int CACHED_WINDOWS = 4;
+
+    private final int windowSize;
+    private final int alignment;
+    private final Map<Long, MappedByteBuffer> mappings; // by start offset, in access order
+    private boolean mappingFailed;
+
+    MappedLineReader(Path file) throws IOException
+    {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLineReader(Path file, int windowSize) throws IOException
+    {
+        super(file);
+        this.windowSize = windowSize;
+        this.alignment = Math.max(1, windowSize / 2);
+        this.mappings = new LinkedHashMap<Long, MappedByteBuffer>(CACHED_WINDOWS * 2, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest)
+            { // the mapping itself is released by the garbage collector
+                return size() > CACHED_WINDOWS;
+            }
+        };
+    }
+
+    @Override
+    void invalidate()
+    {
+        super.invalidate();
+        mappings.clear(); // the file may have grown after the last mapping
+    }
+
+    @Override
+    protected void fill(long offset) throws IOException
+    {
+        // The window starts at most 'alignment' bytes before the offset, so at least half of it follows the offset
+        map(offset - offset % alignment, offset);
+    }
+
+    @Override
+    protected void fillBackward(long offset) throws IOException
+    {
+        // The window ends at least 'alignment' bytes after its start, so at least half of it precedes the offset
+        long start = offset - offset % alignment - alignment;
+        map(Math.max(0, start), offset);
+    }
+
+    private void map(long start, long offset) throws IOException
+    {
+        if (mappingFailed)
+        {
+            super.fill(offset);
+            return;
+        }
+        long size = channel.size();
+        long length = Math.min(windowSize, size - start);
+        if (length <= 0)
+        {
+            super.fill(offset);
+            return;
+        }
+        MappedByteBuffer mapping = mappings.get(start);
+        if (mapping == null || mapping.capacity() < length)
+        {
+            try
+            {
+                mapping = channel.map(MapMode.READ_ONLY, start, length);
+                mappings.put(start, mapping);
+            }
+            catch (IOException e)
+            { // Then the platform refused to map the file (e.g. out of address space): go on with the heap buffer
+                mappingFailed = true;
+                mappings.clear();
+                super.fill(offset);
+                return;
+            }
+        }
+        setWindow(mapping, start, mapping.capacity(), start + mapping.capacity() >= size);
+    }
+
+}
@@ -0,0 +1,165 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * Counts, on a background thread, the messages of a log file accepted by a filter, so that the pages of a filter can
+ * tell how many pages there are and which one they are. The numbers of the matching messages are kept in a
+ * bit set: the matches up to any message already scanned are counted without reading the file again.
+ * When the file grows, the count is resumed from the last message scanned, which may have been incomplete.
+ */
+final class MatchCounter implements Runnable, FilterCount
+{
+    private final LogFileEngine engine;
+    private final LogFilter filter;
+
+    private final BitSet matches = new BitSet(); // bit k is set if message k matches
+    private int scanned; // messages scanned so far, counting from 1
+    private int matched;
+    private long lastStart = -1; // starting position of the last message scanned, from which a resumed scan starts
+    private int changes; // the changes of the engine seen by the last scan
+
+    private volatile boolean running, cancelled;
+    private volatile IOException failure;
+
+    MatchCounter(LogFileEngine engine, LogFilter filter)
+    {
+        this.engine = engine;
+        this.filter = filter;
+    }
+
+    /**
+     * Starts scanning the file, from its beginning or from the last message scanned, unless the scan is already running or
+     * the file has not changed since the last one.
+     */
+    synchronized void start()
+    {
+        if (running || cancelled || (lastStart >= 0 && changes == engine.getChanges() && failure == null))
+        {
+            return;
+        }
+        running = true;
+        failure = null;
+        Thread thread = new Thread(this, "log-counter-" + engine.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    @Override
+    public synchronized boolean isComplete()
+    {
+        return !running && !cancelled && lastStart >= 0 && failure == null && changes == engine.getChanges();
+    }
+
+    @Override
+    public synchronized int getScanned()
+    {
+        return scanned;
+    }
+
+    @Override
+    public synchronized int getMatched()
+    {
+        return matched;
+    }
+
+    @Override
+    public synchronized int matchesUpTo(int messages)
+    {
+        return messages >= scanned ? matched : matches.get(1, messages + 1).cardinality();
+    }
+
+    @Override
+    public void run()
+    {
+        long position;
+        int number;
+        synchronized (this)
+        {
+            changes = engine.getChanges();
+            if (lastStart < 0)
+            {
+                position = engine.getBeginningOfMessages();
+                number = 0;
+            }
+            else
+            { // The last message may have grown: it is scanned again
+                position = lastStart;
+                number = scanned - 1;
+                if (matches.get(scanned))
+                {
+                    matches.clear(scanned);
+                    matched--;
+                }
+                scanned = number;
+            }
+        }
+        SearchExpression search = SearchExpression.compile(filter.getExpression(), filter.isRegex());
+        HeaderLayout layout = engine.newHeaderLayout();
+        MessageStartDetector detector = engine.newStartDetector();
+        try (LineReader reader = LineReader.open(engine.getFile(), engine.getAccessMode()))
+        {
+            reader.position(position);
+            List<String> lines = null;
+            long start = position;
+            String text;
+            while (!cancelled)
+            {
+                long lineStart = reader.position();
+                text = reader.readLine();
+                if (text == null || detector.matches(text))
+                {
+                    if (lines != null)
+                    {
+                        scanned(++number, start, filter.accepts(lines, layout, search));
+                    }
+                    if (text == null)
+                    {
+                        break;
+                    }
+                    lines = new ArrayList<>();
+                    start = lineStart;
+                }
+                if (lines != null)
+                {
+                    lines.add(text);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+
+    private synchronized void scanned(int number, long start, boolean match)
+    {
+        if (match)
+        {
+            matches.set(number);
+            matched++;
+        }
+        scanned = number;
+        lastStart = start;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "MatchCounter [filter=" + filter + ", scanned=" + scanned + ", matched=" + matched + ", complete=" + isComplete() + "]";
+    }
+
+}
@@ -0,0 +1,359 @@
+package it.csttech.core.logging;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * A compressed set of message numbers, in the manner of Roaring bitmaps: the numbers are split by their upper 16 bits
+ * into chunks of 65536, and each chunk is stored as a sorted array of its lower 16 bits while it holds up to
+ * {@value #ARRAY_MAX} numbers, or as a bitmap of 8 KB beyond. A value found in a few messages takes a few bytes per
+ * message, a value found in most of them about one bit per message.
+ * Numbers are expected to be added in increasing order, as they are while a file is read, but any order is accepted.
+ * A bitmap is thread-safe: it can be read while the indexer is adding to it.
+ */
+final class MessageBitmap
+{
+    static final int ARRAY_MAX = 4096; // beyond this, a bitmap takes less room than an array
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[4]; // the upper 16 bits of the numbers of each chunk, sorted
+    private Object[] chunks = new Object[4]; // a char[] of the lower bits, or a long[] bitmap
+    private int[] cardinalities = new int[4];
+    private int size; // chunks in use
+    private int cardinality;
+
+    synchronized void add(int number)
+    {
+        char key = (char) (number >>> 16);
+        char low = (char) number;
+        int chunk = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+        if (chunk < 0)
+        {
+            chunk = -chunk - 1;
+            insertChunk(chunk, key);
+        }
+        Object data = chunks[chunk];
+        int count = cardinalities[chunk];
+        if (data instanceof long[])
+        {
+            long[] words = (long[]) data;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0)
+            {
+                return;
+            }
+            words[low >>> 6] |= bit;
+        }
+        else
+        {
+            char[] values = (char[]) data;
+            int at = count > 0 && values[count - 1] < low ? -count - 1 : Arrays.binarySearch(values, 0, count, low);
+            if (at >= 0)
+            {
+                return;
+            }
+            at = -at - 1;
+            if (count == ARRAY_MAX)
+            { // Then the chunk is turned into a bitmap
+                long[] words = new long[BITMAP_WORDS];
+                for (int i = 0; i < count; i++)
+                {
+                    words[values[i] >>> 6] |= 1L << values[i];
+                }
+                words[low >>> 6] |= 1L << low;
+                chunks[chunk] = words;
+            }
+            else
+            {
+                if (count == values.length)
+                {
+                    values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+                    chunks[chunk] = values;
+                }
+                System.arraycopy(values, at, values, at + 1, count - at);
+                values[at] = low;
+            }
+        }
+        cardinalities[chunk] = count + 1;
+        cardinality++;
+    }
+
+    private void insertChunk(int chunk, char key)
+    {
+        if (size == keys.length)
+        {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+            cardinalities = Arrays.copyOf(cardinalities, size * 2);
+        }
+        System.arraycopy(keys, chunk, keys, chunk + 1, size - chunk);
+        System.arraycopy(chunks, chunk, chunks, chunk + 1, size - chunk);
+        System.arraycopy(cardinalities, chunk, cardinalities, chunk + 1, size - chunk);
+        keys[chunk] = key;
+        chunks[chunk] = new char[4];
+        cardinalities[chunk] = 0;
+        size++;
+    }
+
+    synchronized boolean contains(int number)
+    {
+        int chunk = Arrays.binarySearch(keys, 0, size, (char) (number >>> 16));
+        if (chunk < 0)
+        {
+            return false;
+        }
+        char low = (char) number;
+        Object data = chunks[chunk];
+        if (data instanceof long[])
+        {
+            return (((long[]) data)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) data, 0, cardinalities[chunk], low) >= 0;
+    }
+
+    synchronized int cardinality()
+    {
+        return cardinality;
+    }
+
+    /**
+     * Returns the smallest number of the set that is not less than the given one, or -1 if there is none.
+     */
+    synchronized int next(int from)
+    {
+        if (from < 0)
+        {
+            from = 0;
+        }
+        char key = (char) (from >>> 16);
+        int chunk = Arrays.binarySearch(keys, 0, size, key);
+        if (chunk < 0)
+        {
+            chunk = -chunk - 1;
+        }
+        for (; chunk < size; chunk++)
+        {
+            int low = keys[chunk] == key ? (char) from : 0;
+            int found = nextInChunk(chunk, low);
+            if (found >= 0)
+            {
+                return keys[chunk] << 16 | found;
+            }
+        }
+        return -1;
+    }
+
+    private int nextInChunk(int chunk, int low)
+    {
+        Object data = chunks[chunk];
+        if (data instanceof long[])
+        {
+            long[] words = (long[]) data;
+            int word = low >>> 6;
+            long bits = words[word] & (-1L << low);
+            while (true)
+            {
+                if (bits != 0)
+                {
+                    return word * 64 + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word == BITMAP_WORDS)
+                {
+                    return -1;
+                }
+                bits = words[word];
+            }
+        }
+        char[] values = (char[]) data;
+        int count = cardinalities[chunk];
+        int at = Arrays.binarySearch(values, 0, count, (char) low);
+        if (at < 0)
+        {
+            at = -at - 1;
+        }
+        return at < count ? values[at] : -1;
+    }
+
+    /**
+     * Returns the largest number of the set that is not greater than the given one, or -1 if there is none.
+     */
+    synchronized int previous(int from)
+    {
+        if (from < 0)
+        {
+            return -1;
+        }
+        char key = (char) (from >>> 16);
+        int chunk = Arrays.binarySearch(keys, 0, size, key);
+        if (chunk < 0)
+        {
+            chunk = -chunk - 2;
+        }
+        for (; chunk >= 0; chunk--)
+        {
+            int low = keys[chunk] == key ? (char) from : 0xFFFF;
+            int found = previousInChunk(chunk, low);
+            if (found >= 0)
+            {
+                return keys[chunk] << 16 | found;
+            }
+        }
+        return -1;
+    }
+
+    private int previousInChunk(int chunk, int low)
+    {
+        Object data = chunks[chunk];
+        if (data instanceof long[])
+        {
+            long[] words = (long[]) data;
+            int word = low >>> 6;
+            long bits = words[word] & (-1L >>> (63 - (low & 63)));
+            while (true)
+            {
+                if (bits != 0)
+                {
+                    return word * 64 + 63 - Long.numberOfLeadingZeros(bits);
+                }
+                if (--word < 0)
+                {
+                    return -1;
+                }
+                bits = words[word];
+            }
+        }
+        char[] values = (char[]) data;
+        int count = cardinalities[chunk];
+        int at = Arrays.binarySearch(values, 0, count, (char) low);
+        if (at < 0)
+        {
+            at = -at - 2;
+        }
+        return at >= 0 ? values[at] : -1;
+    }
+
+    /**
+     * Returns how many numbers of the set are not greater than the given one.
+     */
+    synchronized int rank(int upTo)
+    {
+        if (upTo < 0)
+        {
+            return 0;
+        }
+        char key = (char) (upTo >>> 16);
+        int rank = 0;
+        for (int chunk = 0; chunk < size && keys[chunk] <= key; chunk++)
+        {
+            if (keys[chunk] < key)
+            {
+                rank += cardinalities[chunk];
+                continue;
+            }
+            int low = (char) upTo;
+            Object data = chunks[chunk];
+            if (data instanceof long[])
+            {
+                long[] words = (long[]) data;
+                int word = low >>> 6;
+                for (int i = 0; i < word; i++)
+                {
+                    rank += Long.bitCount(words[i]);
+                }
+                rank += Long.bitCount(words[word] & (-1L >>> (63 - (low & 63))));
+            }
+            else
+            {
+                int at = Arrays.binarySearch((char[]) data, 0, cardinalities[chunk], (char) low);
+                rank += at >= 0 ? at + 1 : -at - 1;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Writes the chunks of this bitmap as they are stored: an array chunk takes 2 bytes per number, a bitmap chunk 8 KB.
+     */
+    synchronized void writeTo(DataOutput output) throws IOException
+    {
+        output.writeInt(size);
+        for (int chunk = 0; chunk < size; chunk++)
+        {
+            output.writeChar(keys[chunk]);
+            output.writeInt(cardinalities[chunk]);
+            Object data = chunks[chunk];
+            if (data instanceof long[])
+            {
+                for (long word : (long[]) data)
+                {
+                    output.writeLong(word);
+                }
+            }
+            else
+            {
+                char[] values = (char[]) data;
+                for (int i = 0; i < cardinalities[chunk]; i++)
+                {
+                    output.writeChar(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a bitmap written by {@link #writeTo(DataOutput)}.
+     */
+    static MessageBitmap readFrom(DataInput input) throws IOException
+    {
+        MessageBitmap bitmap = new MessageBitmap();
+        int size = input.readInt();
+        bitmap.keys = new char[Math.max(4, size)];
+        bitmap.chunks = new Object[bitmap.keys.length];
+        bitmap.cardinalities = new int[bitmap.keys.length];
+        for (int chunk = 0; chunk < size; chunk++)
+        {
+            bitmap.keys[chunk] = input.readChar();
+            int count = input.readInt();
+            bitmap.cardinalities[chunk] = count;
+            if (count > ARRAY_MAX)
+            {
+                long[] words = new long[BITMAP_WORDS];
+                for (int i = 0; i < BITMAP_WORDS; i++)
+                {
+                    words[i] = input.readLong();
+                }
+                bitmap.chunks[chunk] = words;
+            }
+            else
+            {
+                char[] values = new char[Math.max(4, count)];
+                for (int i = 0; i < count; i++)
+                {
+                    values[i] = input.readChar();
+                }
+                bitmap.chunks[chunk] = values;
+            }
+            bitmap.cardinality += count;
+        }
+        bitmap.size = size;
+        return bitmap;
+    }
+
+    /**
+     * Returns an estimate of the heap used by this bitmap, in bytes.
+     */
+    synchronized long heapFootprint()
+    {
+        long footprint = 64 + keys.length * 2L + chunks.length * 8L + cardinalities.length * 4L;
+        for (int chunk = 0; chunk < size; chunk++)
+        {
+            Object data = chunks[chunk];
+            footprint += 16 + (data instanceof long[] ? BITMAP_WORDS * 8L : ((char[]) data).length * 2L);
+        }
+        return footprint;
+    }
+
+}
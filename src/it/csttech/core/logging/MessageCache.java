@@ -0,0 +1,112 @@
+package it.csttech.core.logging;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A cache of decoded messages, keyed by message number (counting from 1), so that paging back and forth over the same
+ * messages does not read and decode them again. The least recently used messages are evicted when the estimated size of
+ * the cached messages exceeds the capacity.
+ * Only complete messages are cached, that is messages followed by the header of another one: their content cannot change
+ * while the file grows. The cache is cleared when the registers are reset, since the numbers then refer to a new content.
+ * A cache is thread-safe.
+ */
+final class MessageCache
+{
+    static final long DEFAULT_CAPACITY = 16L * 1024 * 1024; // bytes
+
+    private final Map<Integer, LogMessage> messages = new LinkedHashMap<>(1024, 0.75f, true);
+    private long capacity;
+    private long size; // estimated heap taken by the cached messages, in bytes
+    private long hits, misses;
+
+    MessageCache(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    synchronized LogMessage get(int number)
+    {
+        LogMessage message = messages.get(number);
+        if (message == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return message;
+    }
+
+    synchronized void put(int number, LogMessage message)
+    {
+        if (capacity <= 0)
+        {
+            return;
+        }
+        LogMessage previous = messages.put(number, message);
+        if (previous != null)
+        {
+            size -= sizeOf(previous);
+        }
+        size += sizeOf(message);
+        evict();
+    }
+
+    synchronized void setCapacity(long capacity)
+    {
+        this.capacity = capacity;
+        evict();
+    }
+
+    private void evict()
+    {
+        Iterator<LogMessage> eldest = messages.values().iterator();
+        while (size > capacity && eldest.hasNext())
+        {
+            size -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear()
+    {
+        messages.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the estimated heap taken by the cached messages, in bytes.
+     */
+    synchronized long getSize()
+    {
+        return size;
+    }
+
+    synchronized long getHits()
+    {
+        return hits;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns a rough estimate of the heap taken by a message and its entry in the cache.
+     */
+    private static long sizeOf(LogMessage message)
+    {
+        long size = 128;
+        for (String line : message.getFullMessage())
+        {
+            size += 48 + 2 * line.length();
+        }
+        return size;
+    }
+
+}
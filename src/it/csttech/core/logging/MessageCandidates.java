@@ -0,0 +1,85 @@
+package it.csttech.core.logging;
+
+
+/**
+ * The messages of a log file that may be accepted by a search, as told by an index of the file (see {@link FieldIndex},
+ * {@link TokenIndex}, {@link TrigramIndex} and {@link BloomIndex}): among the first messages the index covers, every
+ * accepted message is a candidate, while the candidates still have to be read and checked. The cursors jump from one
+ * candidate to the next, and read the messages beyond the covered ones one by one.
+ * Candidates are a snapshot of the index taken when they are asked for: they do not change as the index grows.
+ */
+interface MessageCandidates
+{
+    /**
+     * Returns the number of first messages covered, counting from 1.
+     */
+    int getCovered();
+
+    /**
+     * Returns true if the covered messages are all the messages of the file.
+     */
+    boolean isComplete();
+
+    /**
+     * Returns the first candidate not before the given message, or -1 if there is none among the covered messages.
+     */
+    int next(int from);
+
+    /**
+     * Returns the last candidate not after the given message, or -1 if there is none.
+     */
+    int previous(int from);
+
+    /**
+     * Returns the candidates of both the given ones, which cover the messages covered by both.
+     */
+    static MessageCandidates both(final MessageCandidates first, final MessageCandidates second)
+    {
+        return new MessageCandidates()
+        {
+            @Override
+            public int getCovered()
+            {
+                return Math.min(first.getCovered(), second.getCovered());
+            }
+
+            @Override
+            public boolean isComplete()
+            {
+                return first.isComplete() && second.isComplete();
+            }
+
+            @Override
+            public int next(int from)
+            {
+                int candidate = first.next(from);
+                while (candidate > 0 && candidate <= getCovered())
+                {
+                    int other = second.next(candidate);
+                    if (other == candidate || other < 0)
+                    {
+                        return other;
+                    }
+                    candidate = first.next(other);
+                }
+                return -1;
+            }
+
+            @Override
+            public int previous(int from)
+            {
+                int candidate = first.previous(Math.min(from, getCovered()));
+                while (candidate > 0)
+                {
+                    int other = second.previous(candidate);
+                    if (other == candidate || other < 0)
+                    {
+                        return other;
+                    }
+                    candidate = first.previous(other);
+                }
+                return -1;
+            }
+        };
+    }
+}
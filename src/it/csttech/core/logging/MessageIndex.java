@@ -0,0 +1,266 @@
+package it.csttech.core.logging;
+
+import java.util.Arrays;
+
+
+/**
+ * The starting positions and lines of the messages of a log file, in file order, stored as primitives.
+ * Entries are grouped in blocks of {@value #BLOCK_SIZE}: a full block keeps the position and line of its first entry,
+ * and stores every entry as a residual from them, bit-packed with the smallest width that fits the whole block.
+ * On a typical log file this costs 3-4 bytes per message, instead of the 40+ bytes of boxed lists.
+ * Entries are read in O(1) by number and in O(log n) by position.
+ * <p>
+ * Entries can be read while another thread is appending: appends are serialized, and each one is published by the
+ * volatile size, so that readers never need to lock. A block is never modified after being packed, and the tail block
+ * is replaced (not cleared) when it gets full.
+ */
+final class MessageIndex
+{
+    static final int BLOCK_SIZE = 128;
+    private static final int BLOCK_SHIFT = 7;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    // Full blocks
+    private long[] basePositions = new long[16];
+    private int[] baseLines = new int[16];
+    private byte[] positionWidths = new byte[16];
+    private byte[] lineWidths = new byte[16];
+    private long[][] residuals = new long[16][];
+    private volatile int blocks;
+
+    // The last block, not full yet
+    private volatile Tail tail = new Tail();
+
+    private volatile int size;
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Appends an entry. Positions and lines are expected to grow with the entry number.
+     */
+    synchronized void add(long position, int line)
+    {
+        Tail last = tail;
+        int offset = size & BLOCK_MASK;
+        last.positions[offset] = position;
+        last.lines[offset] = line;
+        if (offset == BLOCK_MASK)
+        {
+            packTail(last);
+        }
+        size++;
+    }
+
+    /**
+     * Appends an entry only if its position follows the last one, which makes it safe for several threads to register
+     * the same messages.
+     *
+     * @return true if the entry has been added.
+     */
+    synchronized boolean addIfAfter(long position, int line)
+    {
+        if (size > 0 && position <= lastPosition())
+        {
+            return false;
+        }
+        add(position, line);
+        return true;
+    }
+
+    long position(int entry)
+    {
+        int block = entry >>> BLOCK_SHIFT;
+        int offset = entry & BLOCK_MASK;
+        Tail last = tail; // read before 'blocks': a new tail is published after the block it replaces
+        if (block >= blocks)
+        {
+            return last.positions[offset];
+        }
+        return basePositions[block] + unpack(residuals[block], offset, positionWidths[block]);
+    }
+
+    int line(int entry)
+    {
+        int block = entry >>> BLOCK_SHIFT;
+        int offset = entry & BLOCK_MASK;
+        Tail last = tail;
+        if (block >= blocks)
+        {
+            return last.lines[offset];
+        }
+        int positionWords = 2 * positionWidths[block]; // BLOCK_SIZE residuals of w bits take 2 * w longs
+        return baseLines[block] + (int) unpack(residuals[block], positionWords, offset, lineWidths[block]);
+    }
+
+    long lastPosition()
+    {
+        return position(size - 1);
+    }
+
+    int lastLine()
+    {
+        return line(size - 1);
+    }
+
+    /**
+     * Returns the number of the last entry whose position is lower than or equal to the given one, or -1 if there is none.
+     */
+    int find(long position)
+    {
+        int size = this.size;
+        if (size == 0 || position < position(0))
+        {
+            return -1;
+        }
+
+        // Find the block, then the entry inside the block
+        int fullBlocks = (size - 1) >>> BLOCK_SHIFT; // blocks that are full for this size, whether already packed or not
+        int low = 0;
+        if (fullBlocks == 0 || position >= position(fullBlocks << BLOCK_SHIFT))
+        {
+            low = fullBlocks;
+        }
+        else
+        {
+            int high = fullBlocks - 1;
+            while (low < high)
+            {
+                int middle = (low + high + 1) >>> 1;
+                if (position(middle << BLOCK_SHIFT) <= position)
+                {
+                    low = middle;
+                }
+                else
+                {
+                    high = middle - 1;
+                }
+            }
+        }
+
+        int first = low << BLOCK_SHIFT;
+        int last = Math.min(size, first + BLOCK_SIZE) - 1;
+        while (first < last)
+        {
+            int middle = (first + last + 1) >>> 1;
+            if (position(middle) <= position)
+            {
+                first = middle;
+            }
+            else
+            {
+                last = middle - 1;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns an estimate of the heap used by this index, in bytes.
+     */
+    long heapFootprint()
+    {
+        int blocks = this.blocks;
+        long footprint = 64; // this object
+        footprint += 16 + 8L * basePositions.length;
+        footprint += 16 + 4L * baseLines.length;
+        footprint += 16 + positionWidths.length + 16 + lineWidths.length;
+        footprint += 16 + 8L * residuals.length;
+        for (int i = 0; i < blocks; i++)
+        {
+            footprint += 16 + 8L * residuals[i].length;
+        }
+        footprint += 16 + 8L * BLOCK_SIZE + 16 + 4L * BLOCK_SIZE;
+        return footprint;
+    }
+
+    private void packTail(Tail last)
+    {
+        if (blocks == basePositions.length)
+        {
+            int capacity = blocks * 2;
+            basePositions = Arrays.copyOf(basePositions, capacity);
+            baseLines = Arrays.copyOf(baseLines, capacity);
+            positionWidths = Arrays.copyOf(positionWidths, capacity);
+            lineWidths = Arrays.copyOf(lineWidths, capacity);
+            residuals = Arrays.copyOf(residuals, capacity);
+        }
+
+        long basePosition = last.positions[0];
+        int baseLine = last.lines[0];
+        int positionWidth = width(last.positions[BLOCK_MASK] - basePosition);
+        int lineWidth = width((long) last.lines[BLOCK_MASK] - baseLine);
+
+        long[] bits = new long[2 * (positionWidth + lineWidth)];
+        for (int i = 0; i < BLOCK_SIZE; i++)
+        {
+            pack(bits, 0, i, positionWidth, last.positions[i] - basePosition);
+            pack(bits, 2 * positionWidth, i, lineWidth, (long) last.lines[i] - baseLine);
+        }
+
+        basePositions[blocks] = basePosition;
+        baseLines[blocks] = baseLine;
+        positionWidths[blocks] = (byte) positionWidth;
+        lineWidths[blocks] = (byte) lineWidth;
+        residuals[blocks] = bits;
+        blocks++;
+        tail = new Tail();
+    }
+
+    private static final class Tail
+    {
+        private final long[] positions = new long[BLOCK_SIZE];
+        private final int[] lines = new int[BLOCK_SIZE];
+    }
+
+    private static int width(long maxValue)
+    {
+        return 64 - Long.numberOfLeadingZeros(maxValue);
+    }
+
+    private static void pack(long[] bits, int firstWord, int index, int width, long value)
+    {
+        if (width == 0)
+        {
+            return;
+        }
+        long bitPosition = (long) index * width;
+        int word = firstWord + (int) (bitPosition >>> 6);
+        int shift = (int) (bitPosition & 63);
+        bits[word] |= value << shift;
+        if (shift + width > 64)
+        {
+            bits[word + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    private static long unpack(long[] bits, int index, int width)
+    {
+        return unpack(bits, 0, index, width);
+    }
+
+    private static long unpack(long[] bits, int firstWord, int index, int width)
+    {
+        if (width == 0)
+        {
+            return 0;
+        }
+        long bitPosition = (long) index * width;
+        int word = firstWord + (int) (bitPosition >>> 6);
+        int shift = (int) (bitPosition & 63);
+        long value = bits[word] >>> shift;
+        if (shift + width > 64)
+        {
+            value |= bits[word + 1] << (64 - shift);
+        }
+        return width == 64 ? value : value & ((1L << width) - 1);
+    }
+
+}
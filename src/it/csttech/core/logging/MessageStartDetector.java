@@ -0,0 +1,139 @@
+package it.csttech.core.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Recognizes the lines that start a message, using the regex given to the parser.
+ * Anchored regexes made only of digits and literal characters, such as "^[0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}",
+ * are turned into a fixed-width check of the first characters of the line. Any other regex is compiled once, and its
+ * matcher is reused for all the lines, so an instance must not be shared between threads.
+ */
+final class MessageStartDetector
+{
+    private static final char DIGIT = '\uFFFF'; // stands for any digit in the fixed-width prefix
+
+    private final char[] prefix; // null if the regex is not a fixed-width prefix
+    private final Matcher matcher;
+
+    private MessageStartDetector(char[] prefix, Pattern pattern)
+    {
+        this.prefix = prefix;
+        this.matcher = prefix == null ? pattern.matcher("") : null;
+    }
+
+    static MessageStartDetector compile(String regex)
+    {
+        char[] prefix = fixedPrefix(regex);
+        return new MessageStartDetector(prefix, prefix == null ? Pattern.compile(regex) : null);
+    }
+
+    boolean matches(CharSequence line)
+    {
+        if (line == null)
+        {
+            return false;
+        }
+        if (prefix == null)
+        {
+            return matcher.reset(line).find();
+        }
+        if (line.length() < prefix.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++)
+        {
+            char c = line.charAt(i);
+            if (prefix[i] == DIGIT ? c < '0' || c > '9' : c != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the characters that a line must start with to match the given regex (with {@link #DIGIT} for any digit),
+     * or null if the regex is not such a fixed-width prefix.
+     */
+    private static char[] fixedPrefix(String regex)
+    {
+        if (!regex.startsWith("^"))
+        {
+            return null;
+        }
+        List<Character> prefix = new ArrayList<>();
+        int length = regex.length();
+        int i = 1;
+        while (i < length)
+        {
+            char c = regex.charAt(i);
+            char element;
+            if (regex.startsWith("[0-9]", i))
+            {
+                element = DIGIT;
+                i += 5;
+            }
+            else if (regex.startsWith("\\d", i))
+            {
+                element = DIGIT;
+                i += 2;
+            }
+            else if (c == '\\' && i + 1 < length && isEscapedLiteral(regex.charAt(i + 1)))
+            {
+                element = regex.charAt(i + 1);
+                i += 2;
+            }
+            else if (Character.isLetterOrDigit(c) || c == ' ' || c == '-' || c == ':' || c == ',' || c == '/' || c == '_'
+                     || c == '=' || c == '@' || c == '#' || c == '<' || c == '>' || c == '\'' || c == '"')
+            {
+                element = c;
+                i++;
+            }
+            else
+            {
+                return null;
+            }
+
+            int repetitions = 1;
+            if (i < length && regex.charAt(i) == '{')
+            {
+                int close = regex.indexOf('}', i);
+                if (close < 0)
+                {
+                    return null;
+                }
+                try
+                {
+                    repetitions = Integer.parseInt(regex.substring(i + 1, close));
+                }
+                catch (NumberFormatException e)
+                { // Then it is a range such as {1,2}
+                    return null;
+                }
+                i = close + 1;
+            }
+            for (int r = 0; r < repetitions; r++)
+            {
+                prefix.add(element);
+            }
+        }
+
+        char[] result = new char[prefix.size()];
+        for (int j = 0; j < result.length; j++)
+        {
+            result[j] = prefix.get(j);
+        }
+        return result;
+    }
+
+    private static boolean isEscapedLiteral(char c)
+    {
+        return "\\.[]{}()*+?^$|-/ ,:".indexOf(c) >= 0;
+    }
+
+}
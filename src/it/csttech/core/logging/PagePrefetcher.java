@@ -0,0 +1,188 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Decodes ahead, on a background executor, the pages a cursor is likely to ask for next: the following ones after a page
+ * read forward, the preceding ones after a page read backward. The messages are put into the cache of the engine (see
+ * {@link MessageCache}), from which the next request of the cursor takes them without reading the file.
+ * A prefetch still running when the cursor jumps elsewhere is cancelled. Prefetches are read through a cursor of their
+ * own, so they never move the position of the cursor they serve.
+ */
+final class PagePrefetcher
+{
+    static final int DEFAULT_DEPTH = 1;
+    private static final int CHUNK = 16; // messages read between two checks for cancellation
+
+    private static ExecutorService defaultExecutor;
+
+    private final LogFileEngine engine;
+    private final ExecutorService executor;
+    private final int depth; // pages read ahead
+    private final Object cursorLock = new Object();
+    private LogFileParserImpl cursor; // used by one task at a time, under cursorLock
+
+    private Task task; // the last prefetch issued
+    private long hits, misses, issued, cancelled;
+
+    PagePrefetcher(LogFileEngine engine, ExecutorService executor, int depth)
+    {
+        this.engine = engine;
+        this.executor = executor;
+        this.depth = depth;
+    }
+
+    /**
+     * Returns the executor used when none is given: a pool of daemon threads shared by all the cursors.
+     */
+    static synchronized ExecutorService defaultExecutor()
+    {
+        if (defaultExecutor == null)
+        {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "log-prefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * A prefetch of the messages between two numbers (counting from 1, both included).
+     */
+    private final class Task implements Runnable
+    {
+        private final long first, last;
+        private volatile boolean cancelled, done;
+        private Future<?> future;
+
+        private Task(long first, long last)
+        {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (cursorLock)
+            {
+                if (cursor == null)
+                {
+                    cursor = new LogFileParserImpl(engine);
+                }
+                for (long from = first; from <= last && !cancelled; from += CHUNK)
+                {
+                    if (cursor.nextPage(from - 1, Math.min(CHUNK, last - from + 1)).getData().isEmpty())
+                    { // Then the end of file has been reached
+                        break;
+                    }
+                }
+            }
+            done = !cancelled;
+        }
+    }
+
+    /**
+     * Called before a page is read, with the numbers of its first and last message, to count the prefetch hits.
+     */
+    synchronized void pageRequested(long first, long last)
+    {
+        if (task != null && task.done && first >= task.first && last <= task.last)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+    }
+
+    /**
+     * Called after a page has been read, with the numbers of its first and last message: issues the prefetch of the pages
+     * that follow it in the given direction, cancelling the previous one if it is for other pages.
+     */
+    synchronized void pageServed(long first, long last, boolean forward)
+    {
+        long size = last - first + 1;
+        long from = forward ? last + 1 : Math.max(1, first - depth * size);
+        long to = forward ? last + depth * size : first - 1;
+        if (to < from || (task != null && task.first == from && task.last == to))
+        {
+            return;
+        }
+        cancel();
+        task = new Task(from, to);
+        task.future = executor.submit(task);
+        issued++;
+    }
+
+    /**
+     * Cancels the prefetch running, if any. The task is not interrupted, since an interrupt would close the file channel of
+     * its cursor: it stops at its next check.
+     */
+    synchronized void cancel()
+    {
+        if (task != null && !task.done && !task.future.isDone())
+        {
+            task.cancelled = true;
+            task.future.cancel(false);
+            cancelled++;
+        }
+    }
+
+    synchronized long getHits()
+    {
+        return hits;
+    }
+
+    synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    synchronized long getIssued()
+    {
+        return issued;
+    }
+
+    synchronized long getCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Cancels the prefetch running and releases the file handle of the cursor used by the prefetches.
+     */
+    void close() throws IOException
+    {
+        cancel();
+        synchronized (cursorLock)
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+                cursor = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "PagePrefetcher [depth=" + depth + ", hits=" + hits + ", misses=" + misses + ", issued=" + issued + ", cancelled="
+               + cancelled + "]";
+    }
+
+}
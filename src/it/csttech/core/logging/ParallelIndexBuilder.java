@@ -0,0 +1,166 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Finds the beginning of all the messages in a section of a log file, splitting it into byte ranges that are scanned
+ * in parallel on a {@link ForkJoinPool}.
+ * Each range handles the lines starting inside it: a line crossing the end of a range is read by that range up to its
+ * end, and skipped by the following one. Line numbers are counted per range, and turned into global line numbers once
+ * all the ranges are done, so the result is the same that {@link LogFileParserImpl} would get reading the messages one
+ * by one.
+ */
+final class ParallelIndexBuilder
+{
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final Path file;
+    private final FileAccessMode accessMode;
+    private final String regex;
+    private final long chunkSize;
+
+    ParallelIndexBuilder(Path file, FileAccessMode accessMode, String regex)
+    {
+        this(file, accessMode, regex, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelIndexBuilder(Path file, FileAccessMode accessMode, String regex, long chunkSize)
+    {
+        this.file = file;
+        this.accessMode = accessMode;
+        this.regex = regex;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Appends to the index all the messages found between the two positions.
+     *
+     * @param from the beginning of a message, whose starting line is 'fromLine'
+     * @param to the end of the section to scan, usually the size of the file
+     */
+    void build(ForkJoinPool pool, long from, int fromLine, long to, MessageIndex index) throws IOException
+    {
+        List<Chunk> chunks;
+        try
+        {
+            chunks = pool.invoke(new ScanTask(from, to));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+
+        int line = fromLine;
+        for (Chunk chunk : chunks)
+        {
+            for (int i = 0; i < chunk.count; i++)
+            {
+                index.addIfAfter(chunk.positions[i], line + chunk.lines[i]);
+            }
+            line += chunk.lineCount;
+        }
+    }
+
+    /**
+     * Scans the lines starting in [begin, end).
+     */
+    private Chunk scan(long begin, long end) throws IOException
+    {
+        Chunk chunk = new Chunk();
+        MessageStartDetector detector = MessageStartDetector.compile(regex);
+        try (LineReader reader = LineReader.open(file, accessMode))
+        {
+            if (begin > 0)
+            { // Reading the line that contains the previous byte moves the reader to the first line starting at or after 'begin'
+                reader.position(begin - 1);
+                reader.readLine();
+            }
+
+            String line;
+            while (reader.position() < end)
+            {
+                long lineStart = reader.position();
+                line = reader.readLine();
+                if (line == null)
+                {
+                    break;
+                }
+                if (detector.matches(line))
+                {
+                    chunk.add(lineStart, chunk.lineCount);
+                }
+                chunk.lineCount++;
+            }
+        }
+        return chunk;
+    }
+
+    private final class ScanTask extends RecursiveTask<List<Chunk>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long begin, end;
+
+        ScanTask(long begin, long end)
+        {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected List<Chunk> compute()
+        {
+            if (end - begin <= chunkSize)
+            {
+                try
+                {
+                    List<Chunk> result = new ArrayList<>(1);
+                    result.add(scan(begin, end));
+                    return result;
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            long middle = begin + (end - begin) / 2;
+            ScanTask right = new ScanTask(middle, end);
+            right.fork();
+            List<Chunk> result = new ScanTask(begin, middle).compute();
+            result.addAll(right.join());
+            return result;
+        }
+    }
+
+    /**
+     * The messages found in a byte range, with their starting lines counted from the first line of the range.
+     */
+    private static final class Chunk
+    {
+        private long[] positions = new long[64];
+        private int[] lines = new int[64];
+        private int count;
+        private int lineCount;
+
+        void add(long position, int line)
+        {
+            if (count == positions.length)
+            {
+                positions = Arrays.copyOf(positions, count * 2);
+                lines = Arrays.copyOf(lines, count * 2);
+            }
+            positions[count] = position;
+            lines[count] = line;
+            count++;
+        }
+    }
+
+}
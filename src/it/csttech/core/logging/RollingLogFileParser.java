@@ -0,0 +1,676 @@
+package it.csttech.core.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.csttech.core.data.Page;
+import it.csttech.core.data.PageImpl;
+
+
+/**
+ * A parser of the set of files written by a log4j RollingFileAppender (app.log, then app.log.1 ... app.log.N from the
+ * newest to the oldest, possibly compressed as app.log.N.gz), seen as a single log whose messages are numbered from the first one of the oldest file.
+ * Each file is read by its own {@link LogFileParserImpl}, whose registers are saved next to the file: a rolled file does
+ * not change anymore, so its messages are counted once, and a request only reads the files it covers.
+ * The set is checked for a new roll before each request. Files are recognized by their identity rather than by their
+ * name, so after a roll the parser of app.log, with its registers, simply becomes the parser of app.log.1.
+ * The offsets of the pages are numbers of messages in the whole set, while the starting rows of the messages are counted
+ * within their own file.
+ */
+public class RollingLogFileParser implements LogFileParser, Closeable
+{
+    private static final long serialVersionUID = 5390166710295273871L;
+
+    private final Path file; // the active file, the one being written
+    private final String regex, timestampFormat, conversionPattern;
+    private final FileAccessMode accessMode;
+
+    private transient List<Member> members; // from the oldest file to the active one
+
+    /**
+     * A file of the set.
+     */
+    private static final class Member
+    {
+        private Path path;
+        private final Object identity;
+        private final LogFileParserImpl parser;
+        private int messages = -1; // counted once the file has been rolled, -1 until then
+
+        private Member(Path path, Object identity, LogFileParserImpl parser)
+        {
+            this.path = path;
+            this.identity = identity;
+            this.parser = parser;
+        }
+    }
+
+    public RollingLogFileParser(String filename)
+    {
+        this(filename, LogFileParserImpl.STANDARD_REGEX, LogFileParserImpl.STANDARD_TIMESTAMP);
+    }
+
+    public RollingLogFileParser(String filename, String regex, String timestampFormat)
+    {
+        this(filename, regex, timestampFormat, FileAccessMode.BUFFERED);
+    }
+
+    public RollingLogFileParser(String filename, String regex, String timestampFormat, FileAccessMode accessMode)
+    {
+        this(filename, regex, timestampFormat, accessMode, HeaderLayout.defaultConversionPattern(timestampFormat));
+    }
+
+    /**
+     * @param filename the active file of the set, such as app.log
+     */
+    public RollingLogFileParser(String filename, String regex, String timestampFormat, FileAccessMode accessMode,
+                                String conversionPattern)
+    {
+        this.regex = regex;
+        this.timestampFormat = timestampFormat;
+        this.accessMode = accessMode;
+        this.conversionPattern = conversionPattern;
+        file = Paths.get(filename);
+
+        if (!Files.exists(file))
+        {// Then the file doesn't exist
+            throw new IllegalArgumentException("This file does not exist");
+        }
+        refresh();
+    }
+
+    /**
+     * Returns the rolled file with the given number, which may have been compressed, or null if there is none.
+     */
+    private Path rolledFile(int number)
+    {
+        Path rolled = file.resolveSibling(file.getFileName() + "." + number);
+        if (Files.exists(rolled))
+        {
+            return rolled;
+        }
+        rolled = rolled.resolveSibling(rolled.getFileName() + ".gz");
+        return Files.exists(rolled) ? rolled : null;
+    }
+
+    /**
+     * Brings the members up to date with the files of the set: the parsers of the files already known are kept, even if
+     * the files have been renamed by a roll, the ones of the deleted files are closed, and new files get a new parser.
+     */
+    private void refresh()
+    {
+        List<Path> paths = new ArrayList<>();
+        for (Path rolled = rolledFile(1); rolled != null; rolled = rolledFile(paths.size() + 1))
+        {
+            paths.add(rolled);
+        }
+        Collections.reverse(paths);
+        if (Files.exists(file))
+        {
+            paths.add(file);
+        }
+
+        List<Member> previous = members == null ? Collections.<Member>emptyList() : members;
+        List<Member> current = new ArrayList<>(paths.size());
+        for (Path path : paths)
+        {
+            Object identity = identityOf(path);
+            if (identity == null)
+            {
+                continue;
+            }
+            Member member = null;
+            for (Member m : previous)
+            {
+                if (m.identity.equals(identity))
+                {
+                    member = m;
+                }
+            }
+            try
+            {
+                if (member == null)
+                {
+                    member = new Member(path, identity, new LogFileParserImpl(path.toString(), regex, timestampFormat, 0L,
+                                                                              accessMode, conversionPattern));
+                }
+                else if (!member.path.equals(path))
+                { // Then the file has been rolled
+                    member.parser.renamed(path);
+                    member.path = path;
+                }
+                current.add(member);
+            }
+            catch (IllegalArgumentException e)
+            { // Then the file does not contain any message yet
+            }
+        }
+
+        for (Member member : previous)
+        {
+            if (!current.contains(member))
+            {
+                close(member);
+            }
+        }
+        members = current;
+    }
+
+    /**
+     * Returns an identity of the file that does not change when it is renamed: its file key, where the file system has
+     * one, or else its first line.
+     */
+    private Object identityOf(Path path)
+    {
+        try
+        {
+            Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            if (key != null)
+            {
+                return key;
+            }
+            try (LineReader reader = LineReader.open(path, accessMode))
+            {
+                return reader.readLine();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of messages in the given member. The active file is counted again at each call, since it grows;
+     * the rolled ones only once.
+     */
+    private int count(int member)
+    {
+        Member m = members.get(member);
+        if (m.messages >= 0)
+        {
+            return m.messages;
+        }
+        m.parser.buildIndex();
+        int messages = m.parser.getRegisteredMessages();
+        if (member < members.size() - 1)
+        {
+            m.messages = messages;
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the number of messages in the given member, and 1 if it is estimated or 0 if it is exact. Unlike
+     * {@link #count(int)}, the member is not indexed: until its registers reach its end, the count is estimated (see
+     * {@link LogFileParserImpl#getMessageCount()}).
+     */
+    private long[] estimate(int member)
+    {
+        Member m = members.get(member);
+        if (m.messages >= 0)
+        {
+            return new long[] { m.messages, 0 };
+        }
+        long messages = m.parser.getMessageCount();
+        if (m.parser.isMessageCountEstimated())
+        {
+            return new long[] { messages, 1 };
+        }
+        if (member < members.size() - 1)
+        {
+            m.messages = (int) messages;
+        }
+        return new long[] { messages, 0 };
+    }
+
+    private long countAll()
+    {
+        long messages = 0;
+        for (int i = 0; i < members.size(); i++)
+        {
+            messages += count(i);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the member holding the given message of the set, and the number of messages before it in that member.
+     * A message past the end of the set is located in the active file.
+     */
+    private long[] locate(long message)
+    {
+        long before = 0;
+        int last = members.size() - 1;
+        for (int i = 0; i < last; i++)
+        {
+            if (message < before + parser(i).getRegisteredMessages())
+            { // Then the member holds the message, whether or not it has been indexed to its end
+                return new long[] { i, message - before };
+            }
+            int messages = count(i);
+            if (message < before + messages)
+            {
+                return new long[] { i, message - before };
+            }
+            before += messages;
+        }
+        return new long[] { last, message - before };
+    }
+
+    private LogFileParserImpl parser(int member)
+    {
+        return members.get(member).parser;
+    }
+
+    /**
+     * Appends to the list the messages that follow the given member, up to the size of the page.
+     */
+    private void fillFrom(int member, List<LogMessage> messageList, long pageSize)
+    {
+        for (int i = member; i < members.size() && messageList.size() < pageSize; i++)
+        {
+            messageList.addAll(parser(i).nextPage(0, pageSize - messageList.size()).getData());
+        }
+    }
+
+    @Override
+    public synchronized Page<LogMessage> nextPage(long currentMessage, long pageSize)
+    {
+        return nextPage(currentMessage, pageSize, pageSize);
+    }
+
+    /**
+     * @param pagingSize the size of the pages the set is divided into, for the page number and the total of pages
+     */
+    private Page<LogMessage> nextPage(long currentMessage, long pageSize, long pagingSize)
+    {
+        refresh();
+        currentMessage = Math.max(0, currentMessage);
+        List<LogMessage> messageList = new ArrayList<>();
+        if (members.isEmpty() || pageSize <= 0)
+        {
+            return generatePage(messageList, currentMessage);
+        }
+        long[] location = locate(currentMessage);
+        int member = (int) location[0];
+        messageList.addAll(parser(member).nextPage(location[1], pageSize).getData());
+        fillFrom(member + 1, messageList, pageSize);
+        return generatePage(messageList, currentMessage, pagingSize, currentMessage, false, null);
+    }
+
+    /**
+     * Returns the page of the messages preceding the given one; a negative number stands for the end of the set, whose
+     * last messages are read backward from the end of the members (see {@link LogFileParserImpl#getLastMessages(long)}),
+     * without counting them.
+     */
+    @Override
+    public synchronized Page<LogMessage> prevPage(long currentMessage, long pageSize)
+    {
+        refresh();
+        if (currentMessage >= 0)
+        {
+            long first = Math.max(0, currentMessage - pageSize);
+            return nextPage(first, currentMessage - first, pageSize);
+        }
+        List<LogMessage> messageList = new ArrayList<>();
+        long before = 0;
+        boolean estimated = false;
+        for (int i = members.size() - 1; i >= 0 && messageList.size() < pageSize; i--)
+        {
+            Page<LogMessage> page = parser(i).getLastMessages(pageSize - messageList.size());
+            if (!page.getData().isEmpty())
+            { // The page starts in this member, unless an earlier one is needed to fill it
+                long[] count = countBefore(i, null);
+                before = count[0] + parser(i).getLastPageStart();
+                estimated = page.isEstimated() || count[1] != 0;
+                messageList.addAll(0, page.getData());
+            }
+        }
+        return generatePage(messageList, before, pageSize, before, estimated, null);
+    }
+
+    @Override
+    public synchronized Page<LogMessage> findNext(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        refresh();
+        currentMessage = Math.max(0, currentMessage);
+        List<LogMessage> messageList = new ArrayList<>();
+        if (members.isEmpty())
+        {
+            return generatePage(messageList, 0);
+        }
+        long[] location = locate(currentMessage);
+        for (int i = (int) location[0]; i < members.size(); i++)
+        {
+            Page<LogMessage> found = parser(i).findNext(expression, useRegex, i == location[0] ? location[1] : 0, pageSize);
+            if (!found.getData().isEmpty())
+            {
+                messageList.addAll(found.getData());
+                long[] count = countBefore(i, null);
+                long before = count[0] + parser(i).getLastPageStart();
+                fillFrom(i + 1, messageList, pageSize);
+                return generatePage(messageList, currentMessage, pageSize, before, found.isEstimated() || count[1] != 0, null);
+            }
+        }
+        return generatePage(messageList, 0); //EOF was reached while trying to match the expression
+    }
+
+    /**
+     * Finds the last message matching the expression before the given one, where a negative number stands for the end of
+     * the set, and returns the page starting with it.
+     */
+    @Override
+    public synchronized Page<LogMessage> findPrev(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        refresh();
+        List<LogMessage> messageList = new ArrayList<>();
+        if (members.isEmpty())
+        {
+            return generatePage(messageList, 0);
+        }
+        long[] location = currentMessage < 0 ? new long[] { members.size() - 1, -1 } : locate(currentMessage);
+        int member = (int) location[0];
+        long local = location[1]; // -1 when the member is searched from its end
+        while (member >= 0)
+        {
+            Page<LogMessage> found = null;
+            if (local < 0)
+            { // The backward search of a member only looks before the message it starts from: check the last one first
+                local = count(member);
+                found = local > 0 ? parser(member).findNext(expression, useRegex, local - 1, pageSize) : null;
+            }
+            if ((found == null || found.getData().isEmpty()) && local > 0)
+            {
+                found = parser(member).findPrev(expression, useRegex, local, pageSize);
+            }
+            if (found != null && !found.getData().isEmpty())
+            {
+                messageList.addAll(found.getData());
+                long[] count = countBefore(member, null);
+                long before = count[0] + parser(member).getLastPageStart();
+                fillFrom(member + 1, messageList, pageSize);
+                return generatePage(messageList, currentMessage, pageSize, before, found.isEstimated() || count[1] != 0, null);
+            }
+            member--;
+            local = -1;
+        }
+        return generatePage(messageList, 0); //BOF was reached while trying to match the expression
+    }
+
+    @Override
+    public Page<LogMessage> filterNext(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        return filterNext(LogFilter.text(expression, useRegex), currentMessage, pageSize);
+    }
+
+    @Override
+    public synchronized Page<LogMessage> filterNext(LogFilter filter, long currentMessage, long pageSize)
+    {
+        refresh();
+        currentMessage = Math.max(0, currentMessage);
+        List<LogMessage> messageList = new ArrayList<>();
+        if (members.isEmpty())
+        {
+            return generatePage(messageList, 0);
+        }
+        long[] location = locate(currentMessage);
+        long before = 0;
+        boolean estimated = false;
+        for (int i = (int) location[0]; i < members.size() && messageList.size() < pageSize; i++)
+        {
+            long from = i == location[0] ? location[1] : 0;
+            Page<LogMessage> page = parser(i).filterNext(filter, from, pageSize - messageList.size());
+            if (messageList.isEmpty() && !page.getData().isEmpty())
+            { // The page starts in this member
+                long[] count = countBefore(i, filter);
+                before = count[0] + parser(i).getLastPageStart();
+                estimated = page.isEstimated() || count[1] != 0;
+            }
+            messageList.addAll(page.getData());
+        }
+        return generatePage(messageList, messageList.isEmpty() ? 0 : currentMessage, pageSize, before, estimated, filter);
+    }
+
+    @Override
+    public Page<LogMessage> filterPrev(String expression, boolean useRegex, long currentMessage, long pageSize)
+    {
+        return filterPrev(LogFilter.text(expression, useRegex), currentMessage, pageSize);
+    }
+
+    /**
+     * Returns the last messages accepted by the filter before the given one, where a negative number stands for the end
+     * of the set.
+     */
+    @Override
+    public synchronized Page<LogMessage> filterPrev(LogFilter filter, long currentMessage, long pageSize)
+    {
+        refresh();
+        List<LogMessage> messageList = new ArrayList<>();
+        if (members.isEmpty())
+        {
+            return generatePage(messageList, 0);
+        }
+        long[] location = currentMessage < 0 ? new long[] { members.size() - 1, -1 } : locate(currentMessage);
+        int member = (int) location[0];
+        long local = location[1]; // -1 when the member is searched from its end
+        long before = 0;
+        boolean estimated = false;
+        while (member >= 0 && messageList.size() < pageSize)
+        {
+            Page<LogMessage> last = null;
+            if (local < 0)
+            { // The backward search of a member only looks before the message it starts from: check the last one first
+                local = count(member);
+                last = local > 0 ? parser(member).filterNext(filter, local - 1, 1) : null;
+            }
+            long remaining = pageSize - messageList.size() - (last == null ? 0 : last.getData().size());
+            Page<LogMessage> page = local > 0 && remaining > 0 ? parser(member).filterPrev(filter, local, remaining) : null;
+            List<LogMessage> found = new ArrayList<>();
+            if (page != null)
+            {
+                found.addAll(page.getData());
+            }
+            if (last != null)
+            {
+                found.addAll(last.getData());
+            }
+            if (!found.isEmpty())
+            { // The page starts in this member, unless an earlier one has matching messages too
+                long[] count = countBefore(member, filter);
+                before = count[0] + parser(member).getLastPageStart(); // of the first of the two pages that is not empty
+                estimated = (page != null && page.isEstimated()) || (last != null && last.isEstimated()) || count[1] != 0;
+                messageList.addAll(0, found);
+            }
+            member--;
+            local = -1;
+        }
+        return generatePage(messageList, messageList.isEmpty() ? 0 : currentMessage, pageSize, before, estimated, filter);
+    }
+
+    /**
+     * Returns the page starting at the first message logged at or after the given instant. Since the files of the set are
+     * sorted by time, the page is in the first file that has such a message, and the files before it are not counted to
+     * number the page (see {@link #countBefore(int, LogFilter)}).
+     */
+    @Override
+    public synchronized Page<LogMessage> pageAt(Instant instant, long pageSize)
+    {
+        refresh();
+        List<LogMessage> messageList = new ArrayList<>();
+        for (int i = 0; i < members.size(); i++)
+        {
+            Page<LogMessage> page = parser(i).pageAt(instant, pageSize);
+            if (!page.getData().isEmpty())
+            { // Then the file has messages logged at or after the instant
+                messageList.addAll(page.getData());
+                long[] count = countBefore(i, null);
+                long before = count[0] + parser(i).getLastPageStart();
+                fillFrom(i + 1, messageList, pageSize);
+                return generatePage(messageList, before, pageSize, before, page.isEstimated() || count[1] != 0, null);
+            }
+        }
+        return generatePage(messageList, 0);
+    }
+
+    private PageImpl<LogMessage> generatePage(List<LogMessage> messageList, long currentMessage)
+    {
+        PageImpl<LogMessage> messagePage = new PageImpl<>();
+
+        messagePage.setData(messageList);
+        messagePage.setOffset(currentMessage);
+        messagePage.setCurrentPage(0L);
+        messagePage.setTotalCount(0L);
+        messagePage.setPageSize(messageList.size() > 0 ? messageList.size() : 25L);
+        messagePage.setTotalPages(0L);
+        return messagePage;
+    }
+
+    /**
+     * Returns a page of messages numbered among all the messages of the set, or among the ones accepted by the filter if
+     * one is given.
+     *
+     * @param before the number of messages, or of accepted messages, before the first message of the page
+     * @param estimated true if the position of the page is an estimate
+     */
+    private Page<LogMessage> generatePage(List<LogMessage> messageList, long currentMessage, long pageSize, long before,
+                                          boolean estimated, LogFilter filter)
+    {
+        PageImpl<LogMessage> messagePage = generatePage(messageList, currentMessage);
+        if (messageList.isEmpty() || pageSize <= 0)
+        {
+            return messagePage;
+        }
+        if (filter != null && filter.acceptsAll())
+        { // An empty filter matches all the messages
+            filter = null;
+        }
+        long[] count = countBefore(members.size(), filter);
+        estimated |= count[1] != 0;
+        long total = Math.max(count[0], before + messageList.size());
+        messagePage.setCurrentPage(before / pageSize + 1);
+        messagePage.setTotalCount(total);
+        messagePage.setTotalPages((total + pageSize - 1) / pageSize);
+        messagePage.setEstimated(estimated);
+        return messagePage;
+    }
+
+    /**
+     * Returns the number of messages in the members before the given one, or of the ones accepted by the filter if one is
+     * given (see {@link LogFileParserImpl#getMatchCount(LogFilter)}), and 1 if it is estimated or 0 if it is exact. No member
+     * is indexed to number a page: the members not indexed yet are estimated (see {@link #estimate(int)}).
+     */
+    private long[] countBefore(int member, LogFilter filter)
+    {
+        long messages = 0;
+        long estimated = 0;
+        for (int i = 0; i < member; i++)
+        {
+            if (filter == null || filter.acceptsAll())
+            {
+                long[] count = estimate(i);
+                messages += count[0];
+                estimated |= count[1];
+            }
+            else
+            {
+                messages += parser(i).getMatchCount(filter);
+                estimated |= parser(i).isMatchCountComplete(filter) ? 0 : 1;
+            }
+        }
+        return new long[] { messages, estimated };
+    }
+
+    /**
+     * Returns the number of messages in the whole set.
+     */
+    public synchronized long getMessageCount()
+    {
+        refresh();
+        return countAll();
+    }
+
+    /**
+     * Returns the files of the set, from the oldest to the active one.
+     */
+    public synchronized List<Path> getFiles()
+    {
+        refresh();
+        List<Path> files = new ArrayList<>(members.size());
+        for (Member member : members)
+        {
+            files.add(member.path);
+        }
+        return files;
+    }
+
+    private LogFileParserImpl activeParser()
+    {
+        return members.isEmpty() ? null : members.get(members.size() - 1).parser;
+    }
+
+    @Override
+    public synchronized boolean hasTimestamp()
+    {
+        return activeParser() == null || activeParser().hasTimestamp();
+    }
+
+    @Override
+    public synchronized boolean hasLogLevel()
+    {
+        return activeParser() == null || activeParser().hasLogLevel();
+    }
+
+    @Override
+    public synchronized boolean hasThreadName()
+    {
+        return activeParser() == null || activeParser().hasThreadName();
+    }
+
+    @Override
+    public synchronized boolean hasLoggerName()
+    {
+        return activeParser() == null || activeParser().hasLoggerName();
+    }
+
+    @Override
+    public synchronized boolean hasMessage()
+    {
+        return activeParser() == null || activeParser().hasMessage();
+    }
+
+    private void close(Member member)
+    {
+        try
+        {
+            member.parser.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("I/O Exception: " + e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (members != null)
+        {
+            for (Member member : members)
+            {
+                close(member);
+            }
+            members = null;
+        }
+    }
+
+}
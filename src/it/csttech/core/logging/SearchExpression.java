@@ -0,0 +1,53 @@
+package it.csttech.core.logging;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * The expression of a search or filter request, compiled once for all the messages it is checked against.
+ * An empty expression matches every message without looking at it. The matcher of a regex is reused, so an instance
+ * must not be shared between threads.
+ */
+final class SearchExpression
+{
+    private final String text;
+    private final Matcher matcher; // null for plain text
+
+    private SearchExpression(String text, boolean useRegex)
+    {
+        this.text = text;
+        this.matcher = useRegex && !text.isEmpty() ? Pattern.compile(text).matcher("") : null;
+    }
+
+    static SearchExpression compile(String expression, boolean useRegex)
+    {
+        return new SearchExpression(expression, useRegex);
+    }
+
+    boolean isEmpty()
+    {
+        return text.isEmpty();
+    }
+
+    /**
+     * Returns true if the expression is found in at least one of the given lines.
+     */
+    boolean isFoundIn(List<String> lines)
+    {
+        if (text.isEmpty())
+        {
+            return !lines.isEmpty();
+        }
+        for (String line : lines)
+        {
+            if (line != null && (matcher == null ? line.indexOf(text) >= 0 : matcher.reset(line).find()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
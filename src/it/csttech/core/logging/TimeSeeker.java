@@ -0,0 +1,159 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+
+
+/**
+ * Finds the first message logged at or after a given time, with a binary search on the byte offsets of the file.
+ * Each probe jumps into the middle of the range, resyncs to the next line that starts a message and decodes its timestamp,
+ * so that only a few blocks of the file are read. Timestamps are expected to grow with the position, except for small
+ * local disorders (messages of different threads written slightly out of order): the search ends with a linear scan of a
+ * small range, followed by a bounded backward scan that moves the result to an earlier message logged after the time.
+ */
+final class TimeSeeker
+{
+    private static final long SCAN_THRESHOLD = 64 * 1024; // size of the range scanned linearly at the end of the search
+    private static final int LOCAL_SCAN_MESSAGES = 64; // messages checked backward from the result
+    private static final long OUT_OF_ORDER_TOLERANCE = 1000; // milliseconds
+
+    private final LineReader reader;
+    private final MessageStartDetector detector;
+    private final HeaderLayout layout;
+
+    // The last message found by nextHeader()
+    private long headerPosition;
+    private long headerTime;
+
+    TimeSeeker(LineReader reader, MessageStartDetector detector, HeaderLayout layout)
+    {
+        this.reader = reader;
+        this.detector = detector;
+        this.layout = layout;
+    }
+
+    /**
+     * Returns the starting position of the first message logged at or after the given time, looking at the messages that
+     * start between the two positions.
+     *
+     * @param from the beginning of a message
+     * @param to the end of the range, usually the size of the file
+     * @return the position of the message, or 'to' if all the messages have been logged before the time.
+     */
+    long seek(long from, long to, long time) throws IOException
+    {
+        reader.position(from);
+        if (!nextHeader(to))
+        {
+            return to;
+        }
+        if (headerTime >= time)
+        {
+            return headerPosition;
+        }
+
+        // The message at 'low' has been logged before the time, and the ones starting after 'high' are not
+        long low = headerPosition;
+        long high = to;
+        while (high - low > SCAN_THRESHOLD)
+        {
+            long middle = low + (high - low) / 2;
+            resync(middle);
+            if (!nextHeader(high) || headerTime >= time)
+            {
+                high = middle;
+            }
+            else
+            {
+                low = headerPosition;
+            }
+        }
+
+        reader.position(low);
+        do
+        {
+            if (!nextHeader(to))
+            {
+                return to;
+            }
+        }
+        while (headerTime < time);
+        return scanBackward(from, headerPosition, time);
+    }
+
+    /**
+     * Looks for messages logged at or after the time among the ones preceding the given result, and returns the
+     * earliest one.
+     */
+    private long scanBackward(long from, long result, long time) throws IOException
+    {
+        reader.position(result);
+        int visited = 0;
+        String line;
+        while (visited < LOCAL_SCAN_MESSAGES && reader.position() > from && (line = reader.prevLine()) != null)
+        {
+            long lineTime = timeOf(line);
+            if (lineTime == TimestampDecoder.NO_TIMESTAMP)
+            {
+                continue;
+            }
+            visited++;
+            if (lineTime >= time)
+            {
+                result = reader.position();
+            }
+            else if (lineTime < time - OUT_OF_ORDER_TOLERANCE)
+            {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the reader to the beginning of the first line starting at or after the given position.
+     */
+    private void resync(long position) throws IOException
+    {
+        reader.position(position - 1);
+        reader.readLine();
+    }
+
+    /**
+     * Reads lines from the current position of the reader up to the first message with a timestamp.
+     *
+     * @return false if there is no such message starting before the limit.
+     */
+    private boolean nextHeader(long limit) throws IOException
+    {
+        while (reader.position() < limit)
+        {
+            long position = reader.position();
+            String line = reader.readLine();
+            if (line == null)
+            {
+                return false;
+            }
+            long time = timeOf(line);
+            if (time != TimestampDecoder.NO_TIMESTAMP)
+            {
+                headerPosition = position;
+                headerTime = time;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the timestamp of the given line, or {@link TimestampDecoder#NO_TIMESTAMP} if it does not start a message.
+     */
+    private long timeOf(String line)
+    {
+        if (!detector.matches(line))
+        {
+            return TimestampDecoder.NO_TIMESTAMP;
+        }
+        return layout.tokenize(line) ? layout.getTimestampMillis() : layout.parseTimestamp(line);
+    }
+
+}
@@ -0,0 +1,216 @@
+package it.csttech.core.logging;
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+
+
+/**
+ * Decodes the timestamps of the messages into epoch milliseconds, with a SimpleDateFormat-like pattern and a time zone.
+ * Consecutive messages are usually logged within the same minute: when the pattern has a fixed width and ends its time
+ * with seconds and milliseconds ("ss" and "SSS"), the value of the last decoded minute is cached, and a timestamp that
+ * only differs from the previous one in those digits is decoded without parsing the rest.
+ * An instance is not thread-safe, since it keeps the cache and the end of the last decoded timestamp.
+ */
+final class TimestampDecoder
+{
+    static final long NO_TIMESTAMP = LogMessage.NO_TIMESTAMP;
+
+    private final DateTimeFormatter formatter;
+    private final ZoneId zone;
+    private final int width; // the length of every formatted timestamp, or -1 if it can change
+    private final int secondsOffset, millisOffset; // offsets of "ss" and "SSS", or -1 if the cache cannot be used
+
+    private final char[] cachedText;
+    private boolean cacheValid;
+    private long cachedMinute; // epoch milliseconds of the beginning of the cached minute
+    private int end;
+
+    TimestampDecoder(String pattern, ZoneId zone)
+    {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+        this.zone = zone;
+
+        int width = 0, secondsOffset = -1, millisOffset = -1;
+        int length = pattern.length();
+        int i = 0;
+        while (i < length && width >= 0)
+        {
+            char c = pattern.charAt(i);
+            if (c == '\'')
+            { // Quoted text, where '' stands for a quote
+                int close = i + 1;
+                while (close < length && pattern.charAt(close) != '\'')
+                {
+                    close++;
+                }
+                width += close == i + 1 ? 1 : close - i - 1;
+                i = close + 1;
+                continue;
+            }
+            if (!Character.isLetter(c))
+            {
+                width++;
+                i++;
+                continue;
+            }
+            int count = 1;
+            while (i + count < length && pattern.charAt(i + count) == c)
+            {
+                count++;
+            }
+            i += count;
+            if (c == 's' && count == 2)
+            {
+                secondsOffset = secondsOffset == -1 ? width : -2;
+            }
+            if (c == 'S' && count == 3)
+            {
+                millisOffset = millisOffset == -1 ? width : -2;
+            }
+            int fieldWidth = fieldWidth(c, count);
+            width = fieldWidth < 0 ? -1 : width + fieldWidth;
+        }
+        this.width = width;
+        boolean cacheable = width >= 0 && secondsOffset >= 0 && millisOffset >= 0;
+        this.secondsOffset = cacheable ? secondsOffset : -1;
+        this.millisOffset = cacheable ? millisOffset : -1;
+        this.cachedText = cacheable ? new char[width] : null;
+    }
+
+    /**
+     * Returns the length of a field of the pattern, or -1 if it depends on the date.
+     */
+    private static int fieldWidth(char letter, int count)
+    {
+        switch (letter)
+        {
+            case 'y':
+            case 'u':
+                return count == 2 ? 2 : Math.max(count, 4);
+            case 'M':
+            case 'd':
+            case 'H':
+            case 'h':
+            case 'k':
+            case 'K':
+            case 'm':
+            case 's':
+                return count == 2 ? 2 : -1; // single letters are not padded, and longer ones are texts
+            case 'S':
+                return count;
+            case 'D':
+                return count == 3 ? 3 : -1;
+            case 'Z':
+                return count <= 3 ? 5 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the length of every timestamp, or -1 if it depends on the date.
+     */
+    int width()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the offset following the last decoded timestamp.
+     */
+    int end()
+    {
+        return end;
+    }
+
+    /**
+     * Decodes the timestamp starting at the given offset of the text.
+     *
+     * @return the timestamp in epoch milliseconds, or {@link #NO_TIMESTAMP} if the text does not start with a valid one.
+     */
+    long decode(CharSequence text, int start)
+    {
+        if (cachedText != null && start + width <= text.length())
+        {
+            int seconds = digits(text, start + secondsOffset, 2);
+            int millis = digits(text, start + millisOffset, 3);
+            if (seconds >= 0 && seconds < 60 && millis >= 0)
+            {
+                if (cacheValid && sameMinute(text, start))
+                {
+                    end = start + width;
+                    return cachedMinute + seconds * 1000 + millis;
+                }
+                long timestamp = parse(text, start);
+                if (timestamp != NO_TIMESTAMP)
+                {
+                    for (int i = 0; i < width; i++)
+                    {
+                        cachedText[i] = text.charAt(start + i);
+                    }
+                    cachedMinute = timestamp - seconds * 1000 - millis;
+                    cacheValid = true;
+                }
+                return timestamp;
+            }
+        }
+        return parse(text, start);
+    }
+
+    private boolean sameMinute(CharSequence text, int start)
+    {
+        for (int i = 0; i < width; i++)
+        {
+            if (cachedText[i] != text.charAt(start + i) && (i < secondsOffset || i >= secondsOffset + 2)
+                && (i < millisOffset || i >= millisOffset + 3))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int digits(CharSequence text, int offset, int count)
+    {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++)
+        {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private long parse(CharSequence text, int start)
+    {
+        try
+        {
+            ParsePosition position = new ParsePosition(start);
+            TemporalAccessor parsed = formatter.parse(text, position);
+            LocalDate date = parsed.query(TemporalQueries.localDate());
+            LocalTime time = parsed.query(TemporalQueries.localTime());
+            ZoneId parsedZone = parsed.query(TemporalQueries.zone());
+            ZonedDateTime timestamp = ZonedDateTime.of(date == null ? LocalDate.of(1970, 1, 1) : date,
+                                                       time == null ? LocalTime.MIDNIGHT : time,
+                                                       parsedZone == null ? zone : parsedZone);
+            end = position.getIndex();
+            return timestamp.toInstant().toEpochMilli();
+        }
+        catch (DateTimeException | IndexOutOfBoundsException e)
+        {
+            return NO_TIMESTAMP;
+        }
+    }
+
+}
@@ -0,0 +1,556 @@
+package it.csttech.core.logging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The inverted index of the tokens of a log file: for each token found in the lines of the messages, the numbers of the
+ * messages containing it. A token is a maximal run of letters, digits and underscores. Logs are full of tokens found in a
+ * single message, such as identifiers and timestamps, so the tokens are stored one after the other in a shared array of
+ * characters, found through an open addressing table of their numbers, and a token keeps the number of its message
+ * until it is found in a second one, when it gets a {@link MessageBitmap}.
+ * The tokens longer than {@value #MAX_TOKEN_LENGTH} characters, and the new tokens once the index holds
+ * {@value #MAX_TOKENS} of them, are not indexed: the messages having one are kept apart, and are candidates of any
+ * search for a token that is not indexed.
+ * The index is built on a background thread, which also registers the messages it reads into the registers of the
+ * engine, it is resumed when the file grows, and it is saved next to the log file (see {@link IndexFile}) so that a
+ * restarted application only scans the part appended since.
+ * A literal search is turned into the tokens a matching message must contain (see {@link #candidatesOf(String)}), so
+ * that only the messages containing all of them are read and checked.
+ */
+final class TokenIndex implements Runnable
+{
+    static final int MAX_UNION = 1024; // tokens a partial token of a literal may stand for, beyond which it is not used
+    static final int MAX_TOKEN_LENGTH = 64;
+    static final int MAX_TOKENS = 1 << 22;
+
+    private final LogFileEngine engine;
+
+    // Guarded by this: the characters of token k are chars[starts[k]] to chars[starts[k + 1]] excluded
+    private char[] chars = new char[1 << 12];
+    private int[] starts = new int[1 << 10];
+    private int count;
+    private int[] slots = new int[1 << 11]; // the token numbers plus 1 by their hash, 0 for a free slot
+    private int[] firstMessages = new int[1 << 10]; // the message of each token, while it is found in one
+    private MessageBitmap[] bitmaps = new MessageBitmap[1 << 10]; // the messages of each token found in more than one
+    private MessageBitmap unindexed = new MessageBitmap(); // the messages having a token that is not indexed
+
+    private String lastLiteral; // the last literal asked for, and its candidates
+    private MessageCandidates lastCandidates;
+
+    private volatile int indexed; // messages indexed so far, counting from 1; the last one may still grow
+    private long lastStart = -1; // starting position of the last message indexed, from which a resumed scan starts
+    private int lastLine;
+    private int saved; // messages indexed when the index was last saved or loaded
+    private int changes; // the changes of the engine seen by the last scan
+
+    private volatile boolean running, cancelled;
+    private volatile IOException failure;
+
+    TokenIndex(LogFileEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts indexing the file, from its beginning or from the last message indexed, unless the scan is already running or
+     * the file has not changed since the last one.
+     */
+    synchronized void start()
+    {
+        if (running || cancelled || (lastStart >= 0 && changes == engine.getChanges() && failure == null))
+        {
+            return;
+        }
+        running = true;
+        failure = null;
+        Thread thread = new Thread(this, "log-token-indexer-" + engine.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Returns true if all the messages of the file have been indexed.
+     */
+    synchronized boolean isComplete()
+    {
+        return !running && !cancelled && lastStart >= 0 && failure == null && changes == engine.getChanges();
+    }
+
+    int getIndexed()
+    {
+        return indexed;
+    }
+
+    @Override
+    public void run()
+    {
+        long start;
+        int number, line;
+        synchronized (this)
+        {
+            changes = engine.getChanges();
+            if (lastStart < 0)
+            {
+                start = engine.getBeginningOfMessages();
+                line = engine.getStartingLineOfFirstMessage();
+                number = 0;
+            }
+            else
+            { // The last message may have grown, or its last line may have been incomplete: it is indexed again
+                start = lastStart;
+                line = lastLine;
+                number = indexed - 1;
+            }
+        }
+        MessageStartDetector detector = engine.newStartDetector();
+        MessageIndex index = engine.getMessageIndex();
+        try (LineReader reader = LineReader.open(engine.getFile(), engine.getAccessMode()))
+        {
+            reader.position(start);
+            long lineStart = start;
+            String text;
+            while (!cancelled && (text = reader.readLine()) != null)
+            {
+                if (detector.matches(text))
+                {
+                    index.addIfAfter(lineStart, line);
+                    started(++number, lineStart, line);
+                }
+                if (number > 0)
+                {
+                    indexed(number, text);
+                }
+                line++;
+                lineStart = reader.position();
+            }
+            if (!cancelled)
+            { // Then the messages have been registered up to the end of file
+                engine.registersComplete();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+
+    /**
+     * Adds the tokens of the given text to the list.
+     */
+    static void tokenize(CharSequence text, List<String> found)
+    {
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++)
+        {
+            boolean part = i < length && isTokenPart(text.charAt(i));
+            if (part && start < 0)
+            {
+                start = i;
+            }
+            else if (!part && start >= 0)
+            {
+                found.add(text.subSequence(start, i).toString());
+                start = -1;
+            }
+        }
+    }
+
+    static boolean isTokenPart(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private synchronized void started(int number, long start, int line)
+    {
+        indexed = number;
+        lastStart = start;
+        lastLine = line;
+    }
+
+    private synchronized void indexed(int number, String line)
+    {
+        int length = line.length();
+        int start = -1;
+        int hash = 0;
+        for (int i = 0; i <= length; i++)
+        {
+            char c = i < length ? line.charAt(i) : ' ';
+            if (isTokenPart(c))
+            {
+                if (start < 0)
+                {
+                    start = i;
+                    hash = 0;
+                }
+                hash = 31 * hash + c;
+            }
+            else if (start >= 0)
+            {
+                add(line, start, i, hash, number);
+                start = -1;
+            }
+        }
+    }
+
+    private void add(CharSequence line, int from, int to, int hash, int number)
+    {
+        if (to - from > MAX_TOKEN_LENGTH)
+        {
+            unindexed.add(number);
+            return;
+        }
+        int slot = slotOf(line, from, to, hash);
+        int token = slots[slot] - 1;
+        if (token < 0)
+        {
+            if (count == MAX_TOKENS)
+            {
+                unindexed.add(number);
+            }
+            else
+            {
+                firstMessages[insert(line, from, to, slot)] = number;
+            }
+            return;
+        }
+        MessageBitmap bitmap = bitmaps[token];
+        if (bitmap != null)
+        {
+            bitmap.add(number);
+        }
+        else if (firstMessages[token] != number)
+        {
+            bitmap = new MessageBitmap();
+            bitmap.add(firstMessages[token]);
+            bitmap.add(number);
+            bitmaps[token] = bitmap;
+        }
+    }
+
+    /**
+     * Returns the slot of the table holding the given token, or the free slot where it is to be inserted.
+     */
+    private int slotOf(CharSequence token, int from, int to, int hash)
+    {
+        int mask = slots.length - 1;
+        for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask)
+        {
+            int found = slots[slot] - 1;
+            if (found < 0 || equals(found, token, from, to))
+            {
+                return slot;
+            }
+        }
+    }
+
+    private static int spread(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean equals(int token, CharSequence other, int from, int to)
+    {
+        int at = starts[token];
+        if (starts[token + 1] - at != to - from)
+        {
+            return false;
+        }
+        for (int i = from; i < to; i++)
+        {
+            if (chars[at++] != other.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int insert(CharSequence token, int from, int to, int slot)
+    {
+        if (count + 2 > starts.length)
+        {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            firstMessages = Arrays.copyOf(firstMessages, starts.length);
+            bitmaps = Arrays.copyOf(bitmaps, starts.length);
+        }
+        int at = starts[count];
+        if (at + to - from > chars.length)
+        {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, at + to - from));
+        }
+        for (int i = from; i < to; i++)
+        {
+            chars[at++] = token.charAt(i);
+        }
+        starts[count + 1] = at;
+        slots[slot] = count + 1;
+        if (++count * 2 > slots.length)
+        {
+            rehash(slots.length * 2);
+        }
+        return count - 1;
+    }
+
+    private void rehash(int capacity)
+    {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int token = 0; token < count; token++)
+        {
+            int hash = 0;
+            for (int i = starts[token]; i < starts[token + 1]; i++)
+            {
+                hash = 31 * hash + chars[i];
+            }
+            int slot = spread(hash) & mask;
+            while (slots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = token + 1;
+        }
+    }
+
+    /**
+     * Returns the messages containing the given token.
+     */
+    private MessageBitmap messagesOf(int token)
+    {
+        if (bitmaps[token] != null)
+        {
+            return bitmaps[token];
+        }
+        MessageBitmap single = new MessageBitmap();
+        single.add(firstMessages[token]);
+        return single;
+    }
+
+    /**
+     * Returns true if the given token ends with the part, starts with it, or contains it if both are asked for.
+     */
+    private boolean matches(int token, String part, boolean suffix, boolean prefix)
+    {
+        int start = starts[token];
+        int last = starts[token + 1] - part.length();
+        if (last < start)
+        {
+            return false;
+        }
+        int to = prefix && !suffix ? start : last;
+        for (int at = suffix && !prefix ? last : start; at <= to; at++)
+        {
+            int i = 0;
+            while (i < part.length() && chars[at + i] == part.charAt(i))
+            {
+                i++;
+            }
+            if (i == part.length())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the candidates of a literal search: the messages containing the tokens of the literal. A token inside the
+     * literal must be found as such, while the first and last ones may be the end or the beginning of a longer token.
+     * The partial tokens standing for more than {@value #MAX_UNION} tokens of the file are not used. The candidates of the
+     * last literal are kept while no message is indexed, since the pages of a search ask for them again.
+     *
+     * @return the candidates, or null if the literal has no token that narrows the search
+     */
+    synchronized MessageCandidates candidatesOf(String literal)
+    {
+        boolean complete = isComplete();
+        int covered = complete ? indexed : indexed - 1;
+        if (literal.equals(lastLiteral) && lastCandidates.getCovered() == covered && lastCandidates.isComplete() == complete)
+        {
+            return lastCandidates;
+        }
+        List<String> parts = new ArrayList<>();
+        tokenize(literal, parts);
+        if (parts.isEmpty())
+        {
+            return null;
+        }
+        boolean openStart = isTokenPart(literal.charAt(0));
+        boolean openEnd = isTokenPart(literal.charAt(literal.length() - 1));
+        List<MessageBitmap[]> groups = new ArrayList<>();
+        for (int i = 0; i < parts.size(); i++)
+        {
+            String part = parts.get(i);
+            boolean suffix = i == 0 && openStart; // the part may be the end of a longer token
+            boolean prefix = i == parts.size() - 1 && openEnd; // the part may be the beginning of a longer token
+            List<MessageBitmap> group = new ArrayList<>();
+            if (part.length() <= MAX_TOKEN_LENGTH && !suffix && !prefix)
+            {
+                int token = slots[slotOf(part, 0, part.length(), part.hashCode())] - 1;
+                if (token >= 0)
+                {
+                    group.add(messagesOf(token));
+                }
+            }
+            else if (part.length() <= MAX_TOKEN_LENGTH)
+            {
+                for (int token = 0; token < count && group.size() <= MAX_UNION; token++)
+                {
+                    if (matches(token, part, suffix, prefix))
+                    {
+                        group.add(messagesOf(token));
+                    }
+                }
+                if (group.size() > MAX_UNION)
+                {
+                    continue;
+                }
+            }
+            if ((group.isEmpty() || suffix || prefix) && unindexed.cardinality() > 0)
+            { // The part may be in a token that is not indexed
+                group.add(unindexed);
+            }
+            groups.add(group.toArray(new MessageBitmap[group.size()]));
+        }
+        if (groups.isEmpty())
+        {
+            return null;
+        }
+        lastLiteral = literal;
+        lastCandidates = new BitmapCandidates(groups, covered, complete);
+        return lastCandidates;
+    }
+
+    /**
+     * Returns true if messages have been indexed since the index was last saved or loaded.
+     */
+    synchronized boolean isModified()
+    {
+        return indexed > saved;
+    }
+
+    /**
+     * Marks the index as not saved, so that it is saved again, for instance into the sidecar of the new name of the file.
+     */
+    synchronized void setModified()
+    {
+        saved = 0;
+    }
+
+    /**
+     * Writes the index, with the position from which the scan is to be resumed.
+     */
+    synchronized void writeTo(DataOutputStream output) throws IOException
+    {
+        output.writeInt(indexed);
+        output.writeLong(lastStart);
+        output.writeInt(lastLine);
+        output.writeInt(count);
+        for (int token = 0; token < count; token++)
+        {
+            output.writeByte(starts[token + 1] - starts[token]);
+            for (int i = starts[token]; i < starts[token + 1]; i++)
+            { // The tokens are taken from lines decoded as ISO-8859-1: each character is a byte
+                output.writeByte(chars[i]);
+            }
+            if (bitmaps[token] == null)
+            {
+                output.writeInt(firstMessages[token]);
+            }
+            else
+            {
+                output.writeInt(-1);
+                bitmaps[token].writeTo(output);
+            }
+        }
+        unindexed.writeTo(output);
+        saved = indexed;
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(DataOutputStream)}, to be resumed by the next scan.
+     */
+    synchronized void readFrom(DataInputStream input) throws IOException
+    {
+        indexed = input.readInt();
+        lastStart = input.readLong();
+        lastLine = input.readInt();
+        int tokens = input.readInt();
+        int capacity = Integer.highestOneBit(Math.max(tokens, 512)) * 2;
+        starts = new int[capacity];
+        firstMessages = new int[capacity];
+        bitmaps = new MessageBitmap[capacity];
+        for (int token = 0; token < tokens; token++)
+        {
+            int length = input.readUnsignedByte();
+            int at = starts[token];
+            if (at + length > chars.length)
+            {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, at + length));
+            }
+            for (int i = 0; i < length; i++)
+            {
+                chars[at + i] = (char) input.readUnsignedByte();
+            }
+            starts[token + 1] = at + length;
+            int first = input.readInt();
+            if (first < 0)
+            {
+                bitmaps[token] = MessageBitmap.readFrom(input);
+            }
+            else
+            {
+                firstMessages[token] = first;
+            }
+        }
+        count = tokens;
+        rehash(capacity * 2);
+        unindexed = MessageBitmap.readFrom(input);
+        saved = indexed;
+        changes = -1; // the file may have grown since: the next start resumes the scan
+    }
+
+    /**
+     * Returns an estimate of the heap used by the index, in bytes.
+     */
+    synchronized long heapFootprint()
+    {
+        long footprint = chars.length * 2L + (starts.length + slots.length + firstMessages.length) * 4L + bitmaps.length * 8L;
+        for (int token = 0; token < count; token++)
+        {
+            if (bitmaps[token] != null)
+            {
+                footprint += bitmaps[token].heapFootprint();
+            }
+        }
+        return footprint + unindexed.heapFootprint();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TokenIndex [indexed=" + indexed + ", complete=" + isComplete() + ", heapFootprint=" + heapFootprint() + "]";
+    }
+
+}
@@ -0,0 +1,349 @@
+package it.csttech.core.logging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * The trigram index of a log file: for each sequence of three characters found in a line of the messages, the blocks of
+ * {@value #BLOCK_MESSAGES} consecutive messages having it, in a {@link MessageBitmap}. A search expression, literal or
+ * regex, is turned into the trigrams its matching lines must contain (see {@link TrigramQuery}), and only the blocks
+ * having them are read: a search whose trigrams are not in the file ends at once, instead of reading it to the end.
+ * The index is built on a background thread, which also registers the messages it reads into the registers of the
+ * engine, and it is resumed when the file grows. There are few distinct trigrams in a log, so it takes a few bytes per
+ * block and trigram.
+ */
+final class TrigramIndex implements Runnable
+{
+    static final int BLOCK_MESSAGES = 256;
+
+    private final LogFileEngine engine;
+
+    // Guarded by this: the trigrams found so far, by number, and the open addressing table of their numbers plus 1
+    private long[] trigrams = new long[1 << 11];
+    private int[] slots = new int[1 << 12];
+    private int count;
+    private MessageBitmap[] blocks = new MessageBitmap[1 << 11]; // the blocks having each trigram
+    private int[] lastBlocks = new int[1 << 11]; // the last block added to the bitmap of each trigram
+
+    private String lastExpression; // the last expression asked for, and its candidates
+    private boolean lastRegex;
+    private MessageCandidates lastCandidates;
+
+    private volatile int indexed; // messages indexed so far, counting from 1; the last one may still grow
+    private long lastStart = -1; // starting position of the last message indexed, from which a resumed scan starts
+    private int lastLine;
+    private int changes; // the changes of the engine seen by the last scan
+
+    private volatile boolean running, cancelled;
+    private volatile IOException failure;
+
+    TrigramIndex(LogFileEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    /**
+     * Starts indexing the file, from its beginning or from the last message indexed, unless the scan is already running or
+     * the file has not changed since the last one.
+     */
+    synchronized void start()
+    {
+        if (running || cancelled || (lastStart >= 0 && changes == engine.getChanges() && failure == null))
+        {
+            return;
+        }
+        running = true;
+        failure = null;
+        Thread thread = new Thread(this, "log-trigram-indexer-" + engine.getFile().getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Returns true if all the messages of the file have been indexed.
+     */
+    synchronized boolean isComplete()
+    {
+        return !running && !cancelled && lastStart >= 0 && failure == null && changes == engine.getChanges();
+    }
+
+    int getIndexed()
+    {
+        return indexed;
+    }
+
+    @Override
+    public void run()
+    {
+        long start;
+        int number, line;
+        synchronized (this)
+        {
+            changes = engine.getChanges();
+            if (lastStart < 0)
+            {
+                start = engine.getBeginningOfMessages();
+                line = engine.getStartingLineOfFirstMessage();
+                number = 0;
+            }
+            else
+            { // The last message may have grown, or its last line may have been incomplete: it is indexed again
+                start = lastStart;
+                line = lastLine;
+                number = indexed - 1;
+            }
+        }
+        MessageStartDetector detector = engine.newStartDetector();
+        MessageIndex index = engine.getMessageIndex();
+        try (LineReader reader = LineReader.open(engine.getFile(), engine.getAccessMode()))
+        {
+            reader.position(start);
+            long lineStart = start;
+            String text;
+            while (!cancelled && (text = reader.readLine()) != null)
+            {
+                if (detector.matches(text))
+                {
+                    index.addIfAfter(lineStart, line);
+                    started(++number, lineStart, line);
+                }
+                if (number > 0)
+                {
+                    indexed(number, text);
+                }
+                line++;
+                lineStart = reader.position();
+            }
+            if (!cancelled)
+            { // Then the messages have been registered up to the end of file
+                engine.registersComplete();
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+        }
+    }
+
+    private synchronized void started(int number, long start, int line)
+    {
+        indexed = number;
+        lastStart = start;
+        lastLine = line;
+    }
+
+    private synchronized void indexed(int number, String line)
+    {
+        int block = (number - 1) / BLOCK_MESSAGES;
+        for (int i = 2; i < line.length(); i++)
+        {
+            int trigram = numberOf(keyOf(line.charAt(i - 2), line.charAt(i - 1), line.charAt(i)), true);
+            if (lastBlocks[trigram] != block)
+            {
+                lastBlocks[trigram] = block;
+                blocks[trigram].add(block);
+            }
+        }
+    }
+
+    private static long keyOf(char first, char second, char third)
+    {
+        return (long) first << 32 | (long) second << 16 | third;
+    }
+
+    /**
+     * Returns the number of the given trigram, adding it if asked for, or -1 if it has not been found.
+     */
+    private int numberOf(long key, boolean add)
+    {
+        int mask = slots.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (slots[slot] != 0)
+        {
+            if (trigrams[slots[slot] - 1] == key)
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add)
+        {
+            return -1;
+        }
+        if (count == trigrams.length)
+        {
+            trigrams = Arrays.copyOf(trigrams, count * 2);
+            blocks = Arrays.copyOf(blocks, count * 2);
+            lastBlocks = Arrays.copyOf(lastBlocks, count * 2);
+        }
+        trigrams[count] = key;
+        blocks[count] = new MessageBitmap();
+        lastBlocks[count] = -1;
+        slots[slot] = ++count;
+        if (count * 2 > slots.length)
+        {
+            rehash();
+        }
+        return count - 1;
+    }
+
+    private void rehash()
+    {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int trigram = 0; trigram < count; trigram++)
+        {
+            int slot = (int) ((trigrams[trigram] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (slots[slot] != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = trigram + 1;
+        }
+    }
+
+    /**
+     * Returns the candidates of a search: the messages of the blocks having the trigrams of the expression. The
+     * candidates of the last expression are kept while no message is indexed, since the pages of a search ask for them
+     * again.
+     *
+     * @return the candidates, or null if the expression has no trigram that narrows the search
+     */
+    MessageCandidates candidatesOf(String expression, boolean regex)
+    {
+        TrigramQuery query = TrigramQuery.of(expression, regex);
+        if (query.isAll())
+        {
+            return null;
+        }
+        synchronized (this)
+        {
+            boolean complete = isComplete();
+            int covered = complete ? indexed : indexed - 1;
+            if (expression.equals(lastExpression) && regex == lastRegex && lastCandidates.getCovered() == covered
+                && lastCandidates.isComplete() == complete)
+            {
+                return lastCandidates;
+            }
+            lastExpression = expression;
+            lastRegex = regex;
+            lastCandidates = new BlockCandidates(blocksOf(query), BLOCK_MESSAGES, covered, complete);
+            return lastCandidates;
+        }
+    }
+
+    /**
+     * Returns the blocks satisfying the given query, which is not {@link TrigramQuery#ALL}. The blocks of a conjunction are
+     * those of its rarest trigram, checked against the others.
+     */
+    private BitSet blocksOf(TrigramQuery query)
+    {
+        List<MessageBitmap> bitmaps = new ArrayList<>();
+        for (String trigram : query.getTrigrams())
+        {
+            int number = numberOf(keyOf(trigram.charAt(0), trigram.charAt(1), trigram.charAt(2)), false);
+            if (number >= 0)
+            {
+                bitmaps.add(blocks[number]);
+            }
+            else if (!query.isOr())
+            {
+                return new BitSet();
+            }
+        }
+        BitSet result = new BitSet();
+        if (query.isOr())
+        {
+            for (MessageBitmap bitmap : bitmaps)
+            {
+                addTo(result, bitmap);
+            }
+            for (TrigramQuery subquery : query.getSubqueries())
+            {
+                result.or(blocksOf(subquery));
+            }
+            return result;
+        }
+        Collections.sort(bitmaps, new Comparator<MessageBitmap>()
+        {
+            @Override
+            public int compare(MessageBitmap first, MessageBitmap second)
+            {
+                return Integer.compare(first.cardinality(), second.cardinality());
+            }
+        });
+        List<TrigramQuery> subqueries = query.getSubqueries();
+        if (bitmaps.isEmpty())
+        {
+            result = blocksOf(subqueries.get(0));
+            subqueries = subqueries.subList(1, subqueries.size());
+        }
+        else
+        {
+            addTo(result, bitmaps.get(0));
+        }
+        for (int i = 1; i < bitmaps.size() && !result.isEmpty(); i++)
+        {
+            for (int block = result.nextSetBit(0); block >= 0; block = result.nextSetBit(block + 1))
+            {
+                if (!bitmaps.get(i).contains(block))
+                {
+                    result.clear(block);
+                }
+            }
+        }
+        for (int i = 0; i < subqueries.size() && !result.isEmpty(); i++)
+        {
+            result.and(blocksOf(subqueries.get(i)));
+        }
+        return result;
+    }
+
+    private static void addTo(BitSet result, MessageBitmap bitmap)
+    {
+        for (int block = bitmap.next(0); block >= 0; block = bitmap.next(block + 1))
+        {
+            result.set(block);
+        }
+    }
+
+    /**
+     * Returns an estimate of the heap used by the index, in bytes.
+     */
+    synchronized long heapFootprint()
+    {
+        long footprint = trigrams.length * 8L + slots.length * 4L + lastBlocks.length * 4L + blocks.length * 8L;
+        for (int trigram = 0; trigram < count; trigram++)
+        {
+            footprint += blocks[trigram].heapFootprint();
+        }
+        return footprint;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TrigramIndex [indexed=" + indexed + ", complete=" + isComplete() + ", heapFootprint=" + heapFootprint() + "]";
+    }
+
+}
@@ -0,0 +1,705 @@
+package it.csttech.core.logging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * The trigrams a line must contain to match a search expression, in the manner of the trigram queries of Russ Cox's code
+ * search: a query is a conjunction or a disjunction of trigrams and subqueries, or {@link #ALL} when nothing is known.
+ * A literal requires all of its trigrams; a regex is parsed and, for each part, the strings it may match exactly or the
+ * strings its matches start and end with are followed, so that the trigrams of consecutive parts add up.
+ * The query is only a necessary condition, checked against a {@link TrigramIndex}: the lines having its trigrams are
+ * still matched against the expression. The regex constructs that cannot be analyzed, such as the case-insensitive flag,
+ * give {@link #ALL}.
+ */
+final class TrigramQuery
+{
+    static final TrigramQuery ALL = new TrigramQuery(false, Collections.<String> emptySet(), Collections.<TrigramQuery> emptyList());
+
+    private static final int MAX_SET = 16; // strings followed for a part of a regex, beyond which they are dropped
+
+    private final boolean or;
+    private final Set<String> trigrams;
+    private final List<TrigramQuery> subqueries;
+
+    private TrigramQuery(boolean or, Set<String> trigrams, List<TrigramQuery> subqueries)
+    {
+        this.or = or;
+        this.trigrams = trigrams;
+        this.subqueries = subqueries;
+    }
+
+    /**
+     * Returns the query of the given search expression.
+     */
+    static TrigramQuery of(String expression, boolean regex)
+    {
+        if (!regex)
+        {
+            return of(expression);
+        }
+        try
+        {
+            Parser parser = new Parser(expression);
+            Info info = parser.alternation();
+            return parser.supported && parser.at == expression.length() ? info.toQuery() : ALL;
+        }
+        catch (RuntimeException e)
+        { // Then the regex is invalid, and its compilation fails anyway
+            return ALL;
+        }
+    }
+
+    boolean isAll()
+    {
+        return trigrams.isEmpty() && subqueries.isEmpty();
+    }
+
+    /**
+     * Returns true if one of the trigrams or subqueries is enough, false if all of them are required.
+     */
+    boolean isOr()
+    {
+        return or;
+    }
+
+    Set<String> getTrigrams()
+    {
+        return trigrams;
+    }
+
+    List<TrigramQuery> getSubqueries()
+    {
+        return subqueries;
+    }
+
+    /**
+     * Returns the query of the lines containing the given string: all of its trigrams.
+     */
+    private static TrigramQuery of(String literal)
+    {
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 3; i <= literal.length(); i++)
+        {
+            trigrams.add(literal.substring(i - 3, i));
+        }
+        return trigrams.isEmpty() ? ALL : new TrigramQuery(false, trigrams, Collections.<TrigramQuery> emptyList());
+    }
+
+    /**
+     * Returns the query of the lines containing one of the given strings.
+     */
+    private static TrigramQuery anyOf(Set<String> strings)
+    {
+        TrigramQuery query = null;
+        for (String string : strings)
+        {
+            TrigramQuery other = of(string);
+            query = query == null ? other : or(query, other);
+        }
+        return query == null ? ALL : query;
+    }
+
+    private static TrigramQuery and(TrigramQuery first, TrigramQuery second)
+    {
+        if (first.isAll() || second.isAll())
+        {
+            return first.isAll() ? second : first;
+        }
+        Set<String> trigrams = new LinkedHashSet<>();
+        List<TrigramQuery> subqueries = new ArrayList<>();
+        for (TrigramQuery query : new TrigramQuery[] { first, second })
+        {
+            if (query.or)
+            {
+                subqueries.add(query);
+            }
+            else
+            {
+                trigrams.addAll(query.trigrams);
+                subqueries.addAll(query.subqueries);
+            }
+        }
+        return new TrigramQuery(false, trigrams, subqueries);
+    }
+
+    private static TrigramQuery or(TrigramQuery first, TrigramQuery second)
+    {
+        if (first.isAll() || second.isAll())
+        {
+            return ALL;
+        }
+        Set<String> trigrams = new LinkedHashSet<>();
+        List<TrigramQuery> subqueries = new ArrayList<>();
+        for (TrigramQuery query : new TrigramQuery[] { first, second })
+        {
+            if (query.or || (query.trigrams.size() == 1 && query.subqueries.isEmpty()))
+            {
+                trigrams.addAll(query.trigrams);
+                subqueries.addAll(query.subqueries);
+            }
+            else
+            {
+                subqueries.add(query);
+            }
+        }
+        return new TrigramQuery(true, trigrams, subqueries);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isAll())
+        {
+            return "ALL";
+        }
+        StringBuilder builder = new StringBuilder("(");
+        for (String trigram : trigrams)
+        {
+            builder.append(builder.length() > 1 ? (or ? " | " : " & ") : "").append('"').append(trigram).append('"');
+        }
+        for (TrigramQuery subquery : subqueries)
+        {
+            builder.append(builder.length() > 1 ? (or ? " | " : " & ") : "").append(subquery);
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * What is known of the strings matched by a part of a regex: whether it matches the empty string, the set of strings it
+     * matches exactly if it is small enough, or else the sets of the strings its matches start and end with (at most 2
+     * characters long, the longer ones having been turned into trigrams), and the query its matches satisfy.
+     */
+    private static final class Info
+    {
+        boolean emptyable;
+        Set<String> exact; // null if not known
+        Set<String> prefix = new HashSet<>();
+        Set<String> suffix = new HashSet<>();
+        TrigramQuery match = ALL;
+
+        static Info literal(String string)
+        {
+            Info info = new Info();
+            info.emptyable = string.isEmpty();
+            info.exact = new HashSet<>(Collections.singleton(string));
+            return info;
+        }
+
+        static Info anyChar()
+        {
+            Info info = new Info();
+            info.prefix.add("");
+            info.suffix.add("");
+            return info;
+        }
+
+        static Info anyString()
+        {
+            Info info = anyChar();
+            info.emptyable = true;
+            return info;
+        }
+
+        static Info concat(Info first, Info second)
+        {
+            Info info = new Info();
+            info.emptyable = first.emptyable && second.emptyable;
+            info.match = and(first.match, second.match);
+            if (first.exact != null && second.exact != null)
+            {
+                info.exact = cross(first.exact, second.exact);
+            }
+            else
+            {
+                if (first.exact != null)
+                {
+                    info.prefix = cross(first.exact, second.prefix);
+                }
+                else
+                {
+                    info.prefix = new HashSet<>(first.prefix);
+                    if (first.emptyable)
+                    {
+                        info.prefix.addAll(second.exact != null ? second.exact : second.prefix);
+                    }
+                }
+                if (second.exact != null)
+                {
+                    info.suffix = cross(first.suffix, second.exact);
+                }
+                else
+                {
+                    info.suffix = new HashSet<>(second.suffix);
+                    if (second.emptyable)
+                    {
+                        info.suffix.addAll(first.exact != null ? first.exact : first.suffix);
+                    }
+                }
+                if (first.exact == null && second.exact == null && first.suffix.size() * second.prefix.size() <= MAX_SET * MAX_SET)
+                { // The trigrams across the two parts
+                    info.match = and(info.match, anyOf(cross(first.suffix, second.prefix)));
+                }
+            }
+            return info.simplify();
+        }
+
+        static Info alternate(Info first, Info second)
+        {
+            Info info = new Info();
+            info.emptyable = first.emptyable || second.emptyable;
+            if (first.exact != null && second.exact != null)
+            {
+                info.exact = new HashSet<>(first.exact);
+                info.exact.addAll(second.exact);
+                info.match = or(first.match, second.match);
+            }
+            else
+            {
+                first.inexact();
+                second.inexact();
+                info.prefix.addAll(first.prefix);
+                info.prefix.addAll(second.prefix);
+                info.suffix.addAll(first.suffix);
+                info.suffix.addAll(second.suffix);
+                info.match = or(first.match, second.match);
+            }
+            return info.simplify();
+        }
+
+        /**
+         * Returns the info of one or more repetitions of the given part.
+         */
+        static Info plus(Info part)
+        {
+            part.inexact();
+            return part.simplify();
+        }
+
+        /**
+         * Turns the exact strings, if known, into the query of the matches and the strings they start and end with.
+         */
+        void inexact()
+        {
+            if (exact != null)
+            {
+                match = and(match, anyOf(exact));
+                prefix = trim(exact, true);
+                suffix = trim(exact, false);
+                exact = null;
+            }
+        }
+
+        /**
+         * Drops the exact strings if there are too many of them, and turns the starting and ending strings into trigrams,
+         * keeping the 2 characters that may still form trigrams with the parts around.
+         */
+        Info simplify()
+        {
+            if (exact != null && exact.size() > MAX_SET)
+            {
+                inexact();
+            }
+            if (exact == null)
+            {
+                match = and(match, and(anyOf(prefix), anyOf(suffix)));
+                prefix = trim(prefix, true);
+                suffix = trim(suffix, false);
+                if (emptyable)
+                {
+                    prefix.add("");
+                    suffix.add("");
+                }
+            }
+            return this;
+        }
+
+        TrigramQuery toQuery()
+        {
+            return exact != null ? and(match, anyOf(exact)) : match;
+        }
+
+        private static Set<String> trim(Set<String> strings, boolean head)
+        {
+            Set<String> trimmed = new HashSet<>();
+            for (String string : strings)
+            {
+                int length = string.length();
+                trimmed.add(length <= 2 ? string : head ? string.substring(0, 2) : string.substring(length - 2));
+            }
+            if (trimmed.size() > MAX_SET)
+            { // Then nothing is known
+                trimmed.clear();
+                trimmed.add("");
+            }
+            return trimmed;
+        }
+
+        private static Set<String> cross(Set<String> first, Set<String> second)
+        {
+            Set<String> strings = new HashSet<>();
+            for (String head : first)
+            {
+                for (String tail : second)
+                {
+                    strings.add(head + tail);
+                }
+            }
+            return strings;
+        }
+    }
+
+    /**
+     * A recursive descent parser of the syntax of {@link java.util.regex.Pattern}, building the info of each part.
+     */
+    private static final class Parser
+    {
+        private final String regex;
+        int at;
+        boolean supported = true;
+
+        Parser(String regex)
+        {
+            this.regex = regex;
+        }
+
+        private boolean more()
+        {
+            return at < regex.length();
+        }
+
+        private char peek()
+        {
+            return regex.charAt(at);
+        }
+
+        private boolean accept(String text)
+        {
+            if (regex.startsWith(text, at))
+            {
+                at += text.length();
+                return true;
+            }
+            return false;
+        }
+
+        Info alternation()
+        {
+            Info info = concatenation();
+            while (accept("|"))
+            {
+                info = Info.alternate(info, concatenation());
+            }
+            return info;
+        }
+
+        private Info concatenation()
+        {
+            Info info = Info.literal("");
+            while (more() && peek() != '|' && peek() != ')')
+            {
+                info = Info.concat(info, repetition());
+            }
+            return info;
+        }
+
+        private Info repetition()
+        {
+            Info info = atom();
+            while (more())
+            {
+                int min;
+                if (accept("*"))
+                {
+                    min = 0;
+                }
+                else if (accept("+"))
+                {
+                    min = 1;
+                }
+                else if (accept("?"))
+                {
+                    info = Info.alternate(info, Info.literal(""));
+                    accept("?");
+                    accept("+");
+                    continue;
+                }
+                else if (peek() == '{')
+                {
+                    int end = regex.indexOf('}', at);
+                    String bounds = regex.substring(at + 1, end);
+                    at = end + 1;
+                    int comma = bounds.indexOf(',');
+                    min = Integer.parseInt((comma < 0 ? bounds : bounds.substring(0, comma)).trim());
+                    if (comma < 0 || !bounds.substring(comma + 1).trim().isEmpty())
+                    { // A bounded repetition
+                        int max = comma < 0 ? min : Integer.parseInt(bounds.substring(comma + 1).trim());
+                        info = min > 0 ? Info.plus(info) : max == 0 ? Info.literal("") : Info.alternate(Info.plus(info), Info.literal(""));
+                        accept("?");
+                        accept("+");
+                        continue;
+                    }
+                }
+                else
+                {
+                    break;
+                }
+                info = min == 0 ? Info.anyString() : Info.plus(info);
+                accept("?");
+                accept("+");
+            }
+            return info;
+        }
+
+        private Info atom()
+        {
+            char c = regex.charAt(at++);
+            switch (c)
+            {
+                case '(':
+                    return group();
+                case '[':
+                    return characterClass();
+                case '.':
+                    return Info.anyChar();
+                case '^':
+                case '$':
+                    return Info.literal("");
+                case '\\':
+                    return escape();
+                default:
+                    return Info.literal(String.valueOf(c));
+            }
+        }
+
+        private Info group()
+        {
+            boolean consuming = true;
+            if (accept("?"))
+            {
+                if (accept("=") || accept("!") || accept("<=") || accept("<!"))
+                { // A lookaround matches no characters
+                    consuming = false;
+                }
+                else if (accept("<"))
+                { // A named group
+                    at = regex.indexOf('>', at) + 1;
+                }
+                else if (!accept(">") && !accept(":"))
+                { // Inline flags, applying to the rest of the enclosing group or to the group they start
+                    boolean on = true;
+                    while (peek() != ')' && peek() != ':')
+                    {
+                        char flag = regex.charAt(at++);
+                        if (flag == '-')
+                        {
+                            on = false;
+                        }
+                        else if (on && (flag == 'i' || flag == 'x'))
+                        { // Then the case or the spaces of the regex do not tell the characters matched
+                            supported = false;
+                        }
+                    }
+                    if (accept(")"))
+                    {
+                        return Info.literal("");
+                    }
+                    at++;
+                }
+            }
+            Info info = alternation();
+            if (!accept(")"))
+            {
+                supported = false;
+            }
+            return consuming ? info : Info.literal("");
+        }
+
+        private Info escape()
+        {
+            char c = regex.charAt(at++);
+            switch (c)
+            {
+                case 'Q':
+                {
+                    int end = regex.indexOf("\\E", at);
+                    String quoted = regex.substring(at, end < 0 ? regex.length() : end);
+                    at = end < 0 ? regex.length() : end + 2;
+                    return Info.literal(quoted);
+                }
+                case 'b':
+                case 'B':
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'G':
+                    return Info.literal("");
+                case 'p':
+                case 'P':
+                    if (accept("{"))
+                    {
+                        at = regex.indexOf('}', at) + 1;
+                    }
+                    else
+                    {
+                        at++;
+                    }
+                    return Info.anyChar();
+                case 'k':
+                case 'R':
+                case 'X':
+                    if (c == 'k')
+                    {
+                        at = regex.indexOf('>', at) + 1;
+                    }
+                    return Info.anyString();
+                default:
+                    if (c >= '1' && c <= '9')
+                    { // A back reference
+                        while (more() && Character.isDigit(peek()))
+                        {
+                            at++;
+                        }
+                        return Info.anyString();
+                    }
+                    int decoded = escapedChar(c);
+                    return decoded < 0 ? Info.anyChar() : Info.literal(String.valueOf((char) decoded));
+            }
+        }
+
+        /**
+         * Returns the character escaped by a backslash followed by the given one, or -1 if the escape stands for a class
+         * of characters or cannot be decoded.
+         */
+        private int escapedChar(char c)
+        {
+            switch (c)
+            {
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case 'x':
+                    if (accept("{"))
+                    {
+                        int end = regex.indexOf('}', at);
+                        int code = Integer.parseInt(regex.substring(at, end), 16);
+                        at = end + 1;
+                        return code <= Character.MAX_VALUE ? code : -1;
+                    }
+                    at += 2;
+                    return Integer.parseInt(regex.substring(at - 2, at), 16);
+                case 'u':
+                    at += 4;
+                    return Integer.parseInt(regex.substring(at - 4, at), 16);
+                case '0':
+                    while (more() && peek() >= '0' && peek() <= '7')
+                    {
+                        at++;
+                    }
+                    return -1;
+                case 'c':
+                    at++;
+                    return -1;
+                default:
+                    return Character.isLetterOrDigit(c) ? -1 : c;
+            }
+        }
+
+        /**
+         * Parses a character class, which stands for its characters if they are few, or for any character otherwise.
+         */
+        private Info characterClass()
+        {
+            boolean any = accept("^");
+            Set<String> chars = new HashSet<>();
+            int depth = 1;
+            boolean first = true;
+            while (depth > 0)
+            {
+                char c = regex.charAt(at++);
+                int from = c;
+                if (c == ']' && !first)
+                {
+                    depth--;
+                    continue;
+                }
+                first = false;
+                if (c == '[' || (c == '&' && more() && peek() == '&'))
+                { // Nested classes and intersections are not followed
+                    any = true;
+                    depth += c == '[' ? 1 : 0;
+                    continue;
+                }
+                if (c == '\\')
+                {
+                    char escaped = regex.charAt(at++);
+                    if (escaped == 'Q')
+                    {
+                        int end = regex.indexOf("\\E", at);
+                        for (char quoted : regex.substring(at, end).toCharArray())
+                        {
+                            chars.add(String.valueOf(quoted));
+                        }
+                        at = end + 2;
+                        continue;
+                    }
+                    if (escaped == 'p' || escaped == 'P')
+                    {
+                        at = peek() == '{' ? regex.indexOf('}', at) + 1 : at + 1;
+                    }
+                    from = escapedChar(escaped);
+                    if (from < 0)
+                    {
+                        any = true;
+                        continue;
+                    }
+                }
+                if (more() && peek() == '-' && at + 1 < regex.length() && regex.charAt(at + 1) != ']')
+                { // A range
+                    at++;
+                    char end = regex.charAt(at++);
+                    int to = end;
+                    if (end == '\\')
+                    {
+                        to = escapedChar(regex.charAt(at++));
+                    }
+                    if (to < 0 || to - from >= MAX_SET)
+                    {
+                        any = true;
+                        continue;
+                    }
+                    for (int range = from; range <= to; range++)
+                    {
+                        chars.add(String.valueOf((char) range));
+                    }
+                }
+                else
+                {
+                    chars.add(String.valueOf((char) from));
+                }
+            }
+            if (any || chars.isEmpty() || chars.size() > MAX_SET)
+            {
+                return Info.anyChar();
+            }
+            Info info = new Info();
+            info.exact = chars;
+            return info;
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package it.csttech.core.logging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Checks {@link GzipInflater} against the streams written by java.util.zip, from the beginning of the file and from the
+ * beginning of a block.
+ */
+public class GzipInflaterTest
+{
+    private static final int STORED = 0, FIXED = 1, DYNAMIC = 2; // the types of the deflate blocks
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void inflatesStoredBlocks() throws IOException
+    {
+        byte[] data = new byte[200 * 1024];
+        new Random(1).nextBytes(data);
+        byte[] gzip = gzip(data, Deflater.NO_COMPRESSION);
+        assertEquals(STORED, firstBlockType(gzip));
+        assertArrayEquals(data, inflate(write(gzip)));
+    }
+
+    @Test
+    public void inflatesFixedBlocks() throws IOException
+    {
+        byte[] data = "2016-05-16 00:00:00,000 INFO  [main] Main - started, started, started\n".getBytes(StandardCharsets.ISO_8859_1);
+        byte[] gzip = gzip(data, Deflater.DEFAULT_COMPRESSION);
+        assertEquals(FIXED, firstBlockType(gzip));
+        assertArrayEquals(data, inflate(write(gzip)));
+    }
+
+    @Test
+    public void inflatesDynamicBlocks() throws IOException
+    {
+        byte[] data = log(20000);
+        byte[] gzip = gzip(data, Deflater.BEST_COMPRESSION);
+        assertEquals(DYNAMIC, firstBlockType(gzip));
+        assertArrayEquals(data, inflate(write(gzip)));
+    }
+
+    @Test
+    public void inflatesConcatenatedMembers() throws IOException
+    {
+        byte[] first = log(3000);
+        byte[] second = new byte[70 * 1024];
+        new Random(2).nextBytes(second);
+        byte[] third = "2016-05-16 01:00:00,000 WARN  [main] Main - last\n".getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        gzip.write(gzip(first, Deflater.DEFAULT_COMPRESSION));
+        gzip.write(gzip(new byte[0], Deflater.DEFAULT_COMPRESSION));
+        gzip.write(gzip(second, Deflater.NO_COMPRESSION));
+        gzip.write(gzip(third, Deflater.DEFAULT_COMPRESSION));
+        assertArrayEquals(concat(first, second, third), inflate(write(gzip.toByteArray())));
+    }
+
+    @Test
+    public void restartsAtAnyBlock() throws IOException
+    {
+        byte[] data = log(60000);
+        File file = write(gzip(data, Deflater.DEFAULT_COMPRESSION));
+        final List<long[]> starts = new ArrayList<>();
+        final List<byte[]> windows = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            new GzipInflater(channel).inflate(new GzipInflater.Output()
+            {
+                @Override
+                public void blockStart(GzipInflater inflater)
+                {
+                    starts.add(new long[] { inflater.bitOffset(), inflater.outputOffset() });
+                    windows.add(inflater.window());
+                }
+
+                @Override
+                public boolean write(long offset, byte[] bytes, int from, int length)
+                {
+                    return true;
+                }
+            });
+        }
+        assertTrue("blocks: " + starts.size(), starts.size() > 2);
+
+        for (int block = 1; block < starts.size(); block++)
+        {
+            long[] start = starts.get(block);
+            byte[] rest = Arrays.copyOfRange(data, (int) start[1], data.length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+            {
+                Collector collector = new Collector(start[1]);
+                new GzipInflater(channel).inflate(start[0], start[1], windows.get(block), collector);
+                assertArrayEquals("block " + block, rest, collector.bytes.toByteArray());
+            }
+        }
+    }
+
+    /**
+     * Gathers the output of the decoder, checking that it is received in order.
+     */
+    private static final class Collector implements GzipInflater.Output
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final long start;
+
+        private Collector(long start)
+        {
+            this.start = start;
+        }
+
+        @Override
+        public void blockStart(GzipInflater inflater)
+        {}
+
+        @Override
+        public boolean write(long offset, byte[] bytes, int from, int length)
+        {
+            assertEquals(start + this.bytes.size(), offset);
+            this.bytes.write(bytes, from, length);
+            return true;
+        }
+    }
+
+    private static byte[] inflate(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            Collector collector = new Collector(0);
+            new GzipInflater(channel).inflate(collector);
+            return collector.bytes.toByteArray();
+        }
+    }
+
+    private static byte[] gzip(byte[] data, final int level) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream output = new GZIPOutputStream(bytes)
+        {
+            {
+                def.setLevel(level);
+            }
+        })
+        {
+            output.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the type of the first deflate block, whose header follows the 10 bytes of the gzip header written by
+     * GZIPOutputStream.
+     */
+    private static int firstBlockType(byte[] gzip)
+    {
+        return (gzip[10] >> 1) & 3;
+    }
+
+    /**
+     * Returns the given number of log lines, varied enough for the deflater to use dynamic codes and long distances.
+     */
+    private static byte[] log(int lines)
+    {
+        Random random = new Random(lines);
+        String[] levels = { "DEBUG", "INFO ", "WARN ", "ERROR" };
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+        {
+            log.append(String.format("2016-05-16 %02d:%02d:%02d,%03d %s [t-%d] com.acme.Svc%d - msg %d\n", i / 3600000 % 24,
+                                     i / 60000 % 60, i / 1000 % 60, i % 1000, levels[random.nextInt(4)], random.nextInt(8),
+                                     random.nextInt(20), random.nextInt(1000000)));
+        }
+        return log.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+        {
+            bytes.write(part);
+        }
+        return bytes.toByteArray();
+    }
+
+    private File write(byte[] bytes) throws IOException
+    {
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+}
@@ -0,0 +1,209 @@
+package it.csttech.core.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Checks {@link LiteralScanner} against String.indexOf, in heap and direct buffers, and through the windows of the line
+ * readers, which an occurrence may straddle.
+ */
+public class LiteralScannerTest
+{
+    private static final int WINDOW = 4096; // the size of the windows of the readers, small to cross many of them
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesTheListsOfLiterals()
+    {
+        assertNotNull(LiteralScanner.of("a.b", false));
+        assertNotNull(LiteralScanner.of("timeout|refused", true));
+        assertNotNull(LiteralScanner.of("(?i)timeout", true));
+        assertNotNull(LiteralScanner.of("a\\.b\\|c", true));
+        assertNull(LiteralScanner.of("", false));
+        assertNull(LiteralScanner.of("a.b", true));
+        assertNull(LiteralScanner.of("a|", true));
+        assertNull(LiteralScanner.of("(a)", true));
+        assertNull(LiteralScanner.of("\\d", true));
+    }
+
+    @Test
+    public void findsWhatIndexOfFinds()
+    {
+        Random random = new Random(7);
+        String[][] cases = { { "b" }, { "ab" }, { "cab" }, { "abca" }, { "bcabcaab" }, { "ab", "ba" }, { "a", "bcd" },
+                             { "abc", "bc", "c" }, { "dddd", "abab", "cacb" } };
+        for (String[] literals : cases)
+        {
+            String expression = String.join("|", literals);
+            LiteralScanner scanner = LiteralScanner.of(expression, literals.length > 1);
+            for (int i = 0; i < 500; i++)
+            {
+                String text = randomString(random, "abcd", random.nextInt(100));
+                int from = text.isEmpty() ? 0 : random.nextInt(text.length());
+                assertFinds(expression, indexOfAny(text, from, literals), scanner, text, from);
+            }
+        }
+    }
+
+    @Test
+    public void ignoresTheCaseOfAsciiLettersOnly()
+    {
+        Random random = new Random(11);
+        String[] expressions = { "(?i)ab", "(?i)aBcD", "(?i)abAB|Cd", "(?i)d|bcab" };
+        for (String expression : expressions)
+        {
+            LiteralScanner scanner = LiteralScanner.of(expression, true);
+            String[] literals = expression.substring(4).toLowerCase(Locale.ROOT).split("\\|");
+            for (int i = 0; i < 500; i++)
+            {
+                String text = randomString(random, "abcdABCD", random.nextInt(100));
+                assertFinds(expression, indexOfAny(text.toLowerCase(Locale.ROOT), 0, literals), scanner, text, 0);
+            }
+        }
+
+        LiteralScanner scanner = LiteralScanner.of("(?i)\u00E9t\u00E9", true);
+        // The case of the other letters is not ignored, as by Pattern without the UNICODE_CASE flag
+        assertEquals(Pattern.compile("(?i)\u00E9t\u00E9").matcher("\u00C9T\u00C9").find(), indexIn(scanner, "\u00C9T\u00C9", 0) >= 0);
+        assertEquals(0, indexIn(scanner, "\u00E9T\u00E9", 0));
+    }
+
+    @Test
+    public void neverFindsCharactersBeyondIso88591()
+    {
+        assertEquals(-1, indexIn(LiteralScanner.of("\u20AC", false), "\u00E2\u0082\u00AC \u00AC", 0));
+        assertEquals(4, indexIn(LiteralScanner.of("\u20AC|x", true), "abc x", 0));
+    }
+
+    @Test
+    public void findsOccurrencesStraddlingTheWindowsOfABuffer()
+    {
+        String[] expressions = { "xy", "wxyz", "(?i)WxYz|q", "abcdefghij" };
+        for (String expression : expressions)
+        {
+            LiteralScanner scanner = LiteralScanner.of(expression, expression.contains("|"));
+            String literal = expression.startsWith("(?i)") ? "wXYz" : expression;
+            // The direct buffers are copied into the scratch array of the scanner a chunk of 64 KB at a time
+            int chunk = 64 * 1024;
+            for (int at = chunk - literal.length(); at <= chunk; at++)
+            {
+                String text = filler(chunk + 100, at, literal);
+                assertFinds(expression + " at " + at, at, scanner, text, 0);
+            }
+        }
+    }
+
+    @Test
+    public void findsOccurrencesStraddlingTheWindowsOfTheReaders() throws IOException
+    {
+        String[] expressions = { "xy", "wxyz", "(?i)WxYz|q", "abcdefghij" };
+        for (String expression : expressions)
+        {
+            LiteralScanner scanner = LiteralScanner.of(expression, expression.contains("|"));
+            String literal = expression.startsWith("(?i)") ? "wXYz" : expression;
+            List<Integer> offsets = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            for (int window = 1; window <= 6; window++)
+            { // One occurrence starting before each boundary by one more byte than the previous one
+                int at = window * WINDOW - Math.min(window, literal.length() - 1);
+                while (text.length() < at)
+                {
+                    text.append(text.length() % 80 == 79 ? '\n' : '.');
+                }
+                offsets.add(at);
+                text.append(literal);
+            }
+            text.append("...\n");
+            File file = folder.newFile();
+            Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            for (LineReader reader : Arrays.asList(new LineReader(file.toPath(), WINDOW), new MappedLineReader(file.toPath(), WINDOW)))
+            {
+                try (LineReader opened = reader)
+                {
+                    long from = 0;
+                    for (int offset : offsets)
+                    {
+                        long found = opened.find(scanner, from);
+                        assertEquals(expression + " in " + opened.getClass().getSimpleName(), offset, found);
+                        from = found + 1;
+                    }
+                    assertEquals(-1, opened.find(scanner, from));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the scanner on the text in a heap buffer and in a direct buffer.
+     */
+    private static void assertFinds(String message, int expected, LiteralScanner scanner, String text, int from)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(message + " in " + text, expected, scanner.indexIn(ByteBuffer.wrap(bytes), from, bytes.length));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).clear();
+        assertEquals(message + " in direct " + text, expected, scanner.indexIn(direct, from, bytes.length));
+    }
+
+    private static int indexIn(LiteralScanner scanner, String text, int from)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        return scanner.indexIn(ByteBuffer.wrap(bytes), from, bytes.length);
+    }
+
+    private static int indexOfAny(String text, int from, String... literals)
+    {
+        int first = -1;
+        for (String literal : literals)
+        {
+            int found = text.indexOf(literal, from);
+            if (found >= 0 && (first < 0 || found < first))
+            {
+                first = found;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns a text of the given length made of dots, with the literal at the given offset.
+     */
+    private static String filler(int length, int at, String literal)
+    {
+        char[] text = new char[length];
+        Arrays.fill(text, '.');
+        literal.getChars(0, literal.length(), text, at);
+        return new String(text);
+    }
+
+    private static String randomString(Random random, String alphabet, int length)
+    {
+        StringBuilder string = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            string.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return string.toString();
+    }
+
+}
@@ -0,0 +1,112 @@
+package it.csttech.core.logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import it.csttech.core.data.Page;
+
+
+/**
+ * Checks the backward searches of {@link RollingLogFileParser} across the files of a set, where a file is entered from
+ * its end.
+ */
+public class RollingLogFileParserTest
+{
+    private static final int MESSAGES = 100; // in each file of the set
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheLastMessageOfAnEarlierFile() throws IOException
+    {
+        try (RollingLogFileParser parser = rollingSet())
+        {
+            assertFirst("msg 99", parser.findPrev("msg 99\n", true, 2 * MESSAGES + 50, 5));
+            assertFirst("msg 199", parser.findPrev("msg 199\n", true, 2 * MESSAGES + 50, 5));
+            assertFirst("msg 99", parser.findPrev("msg 99\n", true, -1, 5));
+        }
+    }
+
+    @Test
+    public void findsTheLastMessageOfTheSet() throws IOException
+    {
+        try (RollingLogFileParser parser = rollingSet())
+        {
+            assertFirst("msg 299", parser.findPrev("msg 299\n", true, -1, 5));
+        }
+    }
+
+    @Test
+    public void filtersTheLastMessageOfEachFile() throws IOException
+    {
+        try (RollingLogFileParser parser = rollingSet())
+        {
+            Page<LogMessage> page = parser.filterPrev("msg [0-9]*99\n", true, -1, 10);
+            assertMessages(page.getData(), "msg 99", "msg 199", "msg 299");
+
+            page = parser.filterPrev(LogFilter.level("ERROR").andText("msg [0-9]*99\n", true), 2 * MESSAGES + 50, 10);
+            assertMessages(page.getData(), "msg 99", "msg 199");
+        }
+    }
+
+    @Test
+    public void readsTheLastPageFromTheEnd() throws IOException
+    {
+        try (RollingLogFileParser parser = rollingSet())
+        {
+            Page<LogMessage> page = parser.prevPage(-1, 5);
+            assertMessages(page.getData(), "msg 295", "msg 296", "msg 297", "msg 298", "msg 299");
+            page = parser.prevPage(-1, MESSAGES + 3);
+            assertEquals(MESSAGES + 3, page.getData().size());
+            assertFirst("msg 197", page);
+        }
+    }
+
+    /**
+     * Writes a set of three files, app.log.2, app.log.1 and app.log, holding the messages 0 to 299 from the oldest one.
+     * The last message of each file is an ERROR.
+     */
+    private RollingLogFileParser rollingSet() throws IOException
+    {
+        File active = new File(folder.getRoot(), "app.log");
+        for (int file = 0; file < 3; file++)
+        {
+            StringBuilder log = new StringBuilder();
+            for (int i = file * MESSAGES; i < (file + 1) * MESSAGES; i++)
+            {
+                log.append(String.format("2016-05-16 00:%02d:%02d,000 %s [main] com.acme.Svc - msg %d\n", i / 60, i % 60,
+                                         i % MESSAGES == MESSAGES - 1 ? "ERROR" : "INFO ", i));
+            }
+            File member = file == 2 ? active : new File(folder.getRoot(), "app.log." + (2 - file));
+            Files.write(member.toPath(), log.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return new RollingLogFileParser(active.getPath());
+    }
+
+    private static void assertFirst(String expected, Page<LogMessage> page)
+    {
+        assertTrue("empty page", !page.getData().isEmpty());
+        assertEquals(expected, page.getData().get(0).getMessage().trim());
+    }
+
+    private static void assertMessages(List<LogMessage> messages, String... expected)
+    {
+        assertEquals(expected.length, messages.size());
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], messages.get(i).getMessage().trim());
+        }
+    }
+
+}
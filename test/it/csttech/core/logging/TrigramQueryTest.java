@@ -0,0 +1,192 @@
+package it.csttech.core.logging;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+
+/**
+ * Checks that the query of a search expression never prunes a line the expression matches, which would make a search
+ * through the {@link TrigramIndex} miss it, and that it still prunes some of the others.
+ */
+public class TrigramQueryTest
+{
+
+    @Test
+    public void keepsTheLinesHoldingALiteral()
+    {
+        assertKeeps("msg 1234567", false, "2016-05-16 00:00:00,000 DEBUG [t-2] com.acme.Svc3 - msg 1234567");
+        assertKeeps("t-3]", false, "[t-3] x");
+        assertKeeps("ab", false, "ab"); // too short for a trigram
+        assertKeeps("aaaa", false, "aaaa");
+        assertKeeps("a.b*c", false, "xa.b*cx"); // metacharacters are literal
+    }
+
+    @Test
+    public void keepsTheLinesMatchingARegex()
+    {
+        assertKeeps("timeout|refused", true, "read timeout", "connection refused");
+        assertKeeps("Svc[0-9]+ - msg", true, "com.acme.Svc12 - msg 3", "Svc0 - msg");
+        assertKeeps("conn(ection)? refused", true, "conn refused", "connection refused");
+        assertKeeps("colou?r", true, "color", "colour");
+        assertKeeps("er+or", true, "eror", "errrror");
+        assertKeeps("ab*c", true, "ac", "abbbc");
+        assertKeeps("foo(bar)*baz", true, "foobaz", "foobarbarbaz");
+        assertKeeps("(foo|bar)baz", true, "foobaz", "barbaz");
+        assertKeeps("(ab|cd)(ef|gh)", true, "abgh", "cdef");
+        assertKeeps("x{2,3}yz", true, "xxyz", "xxxyz");
+        assertKeeps("((a|b)c){2}d", true, "acbcd", "bcbcd");
+        assertKeeps("[a-c]bc|q", true, "abc", "cbc", "q");
+        assertKeeps("abc.*xyz", true, "abcxyz", "abc 123 xyz");
+        assertKeeps("a.c", true, "abc", "a c");
+        assertKeeps("\\d{4}-\\d{2}", true, "2016-05");
+        assertKeeps("\\[t-1\\]", true, "[t-1]");
+        assertKeeps("hello\\.world", true, "hello.world");
+        assertKeeps("^2016-05-16 .*ERROR", true, "2016-05-16 00:00:00,000 ERROR [main]");
+        assertKeeps("msg 1[0-9]{2}$", true, "msg 123");
+        assertKeeps("[Ee]rror", true, "Error", "error");
+        assertKeeps("\\berror\\b", true, "an error here");
+        assertKeeps("a|", true, "zzz"); // matches the empty string
+        assertKeeps("(?i)error", true, "ERROR", "Error");
+        assertKeeps("[^x]yz", true, "ayz");
+    }
+
+    @Test
+    public void prunesTheOtherLines()
+    {
+        assertPrunes("timeout", false, "connection refused");
+        assertPrunes("timeout|refused", true, "connection reset");
+        assertPrunes("conn(ection)? refused", true, "connection reset");
+        assertPrunes("Svc[0-9]+ - msg", true, "com.acme.Svc12 - event");
+    }
+
+    /**
+     * Generates regexes over a small alphabet, so that they often match, and checks the query of each one against lines
+     * over the same alphabet.
+     */
+    @Test
+    public void neverPrunesAMatchOfARandomRegex()
+    {
+        Random random = new Random(42);
+        for (int r = 0; r < 2000; r++)
+        {
+            String regex = randomRegex(random, 2);
+            Pattern pattern = Pattern.compile(regex);
+            TrigramQuery query = TrigramQuery.of(regex, true);
+            for (int l = 0; l < 100; l++)
+            {
+                String line = randomString(random, "abcd", random.nextInt(14));
+                if (pattern.matcher(line).find())
+                {
+                    assertTrue(regex + " (" + query + ") prunes " + line, isSatisfied(query, line));
+                }
+            }
+        }
+    }
+
+    private static void assertKeeps(String expression, boolean regex, String... lines)
+    {
+        TrigramQuery query = TrigramQuery.of(expression, regex);
+        for (String line : lines)
+        {
+            assertTrue(expression + " does not match " + line, regex ? Pattern.compile(expression).matcher(line).find()
+                                                                        : line.contains(expression));
+            assertTrue(expression + " (" + query + ") prunes " + line, isSatisfied(query, line));
+        }
+    }
+
+    private static void assertPrunes(String expression, boolean regex, String line)
+    {
+        TrigramQuery query = TrigramQuery.of(expression, regex);
+        assertFalse(expression + " (" + query + ") keeps " + line, isSatisfied(query, line));
+    }
+
+    /**
+     * Returns true if the line has the trigrams the query requires, as the index would tell.
+     */
+    private static boolean isSatisfied(TrigramQuery query, String line)
+    {
+        if (query.isAll())
+        {
+            return true;
+        }
+        for (String trigram : query.getTrigrams())
+        {
+            if (line.contains(trigram) == query.isOr())
+            {
+                return query.isOr();
+            }
+        }
+        for (TrigramQuery subquery : query.getSubqueries())
+        {
+            if (isSatisfied(subquery, line) == query.isOr())
+            {
+                return query.isOr();
+            }
+        }
+        return !query.isOr();
+    }
+
+    private static String randomRegex(Random random, int depth)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (int parts = 1 + random.nextInt(4); parts > 0; parts--)
+        {
+            int kind = random.nextInt(depth > 0 ? 8 : 5);
+            switch (kind)
+            {
+                case 0:
+                    regex.append('.');
+                    break;
+                case 1:
+                    regex.append('[').append(randomString(random, "abcd", 1 + random.nextInt(2))).append(']');
+                    break;
+                case 2:
+                case 3:
+                case 4:
+                    regex.append(randomString(random, "abcd", 1 + random.nextInt(4)));
+                    break;
+                case 5:
+                case 6:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+                default:
+                    regex.append('(').append(randomRegex(random, depth - 1)).append(')');
+                    break;
+            }
+            switch (random.nextInt(8))
+            {
+                case 0:
+                    regex.append('?');
+                    break;
+                case 1:
+                    regex.append('*');
+                    break;
+                case 2:
+                    regex.append('+');
+                    break;
+                case 3:
+                    regex.append("{1,2}");
+                    break;
+                default:
+                    break;
+            }
+        }
+        return regex.toString();
+    }
+
+    private static String randomString(Random random, String alphabet, int length)
+    {
+        StringBuilder string = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            string.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return string.toString();
+    }
+
+}